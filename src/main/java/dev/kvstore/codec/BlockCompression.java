@@ -0,0 +1,93 @@
+package dev.kvstore.codec;
+
+import dev.kvstore.core.model.CompressionType;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие блока целиком. Сжатое представление: {@code rawLength (varint) | данные кодека}.
+ * Тип сжатия хранит вызывающий: в SSTable это последний байт блока.
+ */
+public final class BlockCompression {
+    private BlockCompression() {
+    }
+
+    /**
+     * @return сжатый блок или {@code null}, если сжатие выключено или сэкономило меньше 1/8:
+     * такой блок дешевле хранить как есть, чем распаковывать при каждом чтении
+     */
+    public static byte[] compress(final CompressionType type, final byte[] src, final int off, final int len) {
+        if (type == CompressionType.NONE) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(5);
+        VarInts.putVarInt(len, header);
+        final int h = header.position();
+        final byte[] out;
+        final int written;
+        switch (type) {
+            case LZ4 -> {
+                out = new byte[h + Lz4.maxCompressedLength(len)];
+                written = Lz4.compress(src, off, len, out, h);
+            }
+            case DEFLATE -> {
+                out = new byte[h + len + len / 1000 + 64];
+                final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try {
+                    deflater.setInput(src, off, len);
+                    deflater.finish();
+                    written = deflater.deflate(out, h, out.length - h);
+                    if (!deflater.finished()) {
+                        return null;
+                    }
+                } finally {
+                    deflater.end();
+                }
+            }
+            default -> throw new IllegalArgumentException("Unsupported compression: " + type);
+        }
+        if (h + written > len - len / 8) {
+            return null;
+        }
+        System.arraycopy(header.array(), 0, out, 0, h);
+        final byte[] result = new byte[h + written];
+        System.arraycopy(out, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * @throws CodecFormatException если блок повреждён
+     */
+    public static byte[] decompress(final CompressionType type, final byte[] src, final int off, final int len) {
+        final ByteBuffer in = ByteBuffer.wrap(src, off, len);
+        final int rawLength = VarInts.getVarInt(in);
+        final int dataOff = in.position();
+        final int dataLen = off + len - dataOff;
+        if (rawLength < 0) {
+            throw new CodecFormatException("Negative raw block length");
+        }
+        final byte[] raw = new byte[rawLength];
+        switch (type) {
+            case LZ4 -> Lz4.decompress(src, dataOff, dataLen, raw);
+            case DEFLATE -> {
+                final Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(src, dataOff, dataLen);
+                    final int n = inflater.inflate(raw);
+                    if (n != rawLength) {
+                        throw new CodecFormatException("Deflate block decoded to " + n + " bytes, expected " + rawLength);
+                    }
+                } catch (DataFormatException e) {
+                    throw new CodecFormatException("Malformed deflate block", e);
+                } finally {
+                    inflater.end();
+                }
+            }
+            default -> throw new IllegalArgumentException("Block is not compressed: " + type);
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,107 @@
+package dev.kvstore.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Обученный словарь для сжатия маленьких значений: deflate с предустановленным словарём.
+ * Короткое значение само по себе почти не сжимается, но повторяет куски словаря
+ * (имена полей JSON, частые строки), и ссылки на них стоят пару байт.
+ * <p>
+ * Сжатое значение: {@code rawLength (varint) | raw deflate}.
+ */
+public final class CompressionDictionary {
+    // deflate ссылается не дальше 32 KiB назад, больший словарь бесполезен
+    public static final int MAX_SIZE = 32 << 10;
+
+    private final byte[] bytes;
+
+    public CompressionDictionary(final byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be in [1, " + MAX_SIZE + "]: " + bytes.length);
+        }
+        this.bytes = bytes.clone();
+    }
+
+    public byte[] bytes() {
+        return bytes.clone();
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * Компрессор держит нативное состояние deflate; один на поток записи, закрывать после использования.
+     */
+    public Compressor newCompressor() {
+        return new Compressor();
+    }
+
+    /**
+     * @throws CodecFormatException если значение повреждено или сжато другим словарём
+     */
+    public byte[] decompress(final byte[] src, final int off, final int len) {
+        final ByteBuffer in = ByteBuffer.wrap(src, off, len);
+        final int rawLength = VarInts.getVarInt(in);
+        if (rawLength < 0 || rawLength > 64 * 1024 * 1024) {
+            throw new CodecFormatException("compressed value length out of bounds: " + rawLength);
+        }
+        final byte[] raw = new byte[rawLength];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(bytes);
+            inflater.setInput(src, in.position(), off + len - in.position());
+            final int n = inflater.inflate(raw);
+            if (n != rawLength) {
+                throw new CodecFormatException("compressed value decoded to " + n + " bytes, expected " + rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new CodecFormatException("malformed compressed value", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    public byte[] decompress(final byte[] src) {
+        return decompress(src, 0, src.length);
+    }
+
+    public final class Compressor implements AutoCloseable {
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+
+        private byte[] buf = new byte[256];
+
+        /**
+         * @return сжатое значение или {@code null}, если сжатие не сэкономило ни байта
+         */
+        public byte[] compress(final byte[] value) {
+            final ByteBuffer header = ByteBuffer.allocate(5);
+            VarInts.putVarInt(value.length, header);
+            final int h = header.position();
+            if (buf.length < value.length + 64) {
+                buf = new byte[value.length + 64];
+            }
+            deflater.reset();
+            deflater.setDictionary(bytes);
+            deflater.setInput(value);
+            deflater.finish();
+            final int n = deflater.deflate(buf, 0, buf.length);
+            if (!deflater.finished() || h + n >= value.length) {
+                return null;
+            }
+            final byte[] out = Arrays.copyOf(header.array(), h + n);
+            System.arraycopy(buf, 0, out, h, n);
+            return out;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package dev.kvstore.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Обучение словаря по образцам значений, упрощённая схема COVER из zstd.
+ * <p>
+ * Каждый образец режется на k-граммы, и у каждой k-граммы считается, в скольких образцах она встречается.
+ * Образцы, выложенные подряд, делятся на эпохи — по одной на отрезок словаря. В каждой эпохе берётся
+ * отрезок с наибольшей суммой частот его k-грамм; k-граммы выбранного отрезка обнуляются, чтобы
+ * следующий отрезок приносил новое. Каждая эпоха просматривается за проход, поэтому обучение
+ * линейно по объёму образцов, а не пропорционально ему, умноженному на число отрезков.
+ * Самые ценные отрезки кладутся в конец словаря: ссылки на ближние байты у deflate короче.
+ */
+public final class DictionaryTrainer {
+    private static final int K = 8;
+
+    private static final int SEGMENT = 64;
+
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * @return словарь или {@code null}, если в образцах нет повторов
+     */
+    public static CompressionDictionary train(final List<byte[]> samples, final int maxSize) {
+        final int size = Math.min(maxSize, CompressionDictionary.MAX_SIZE);
+        // k-граммы всех образцов подряд как плотные номера; starts[s] — первая k-грамма образца s
+        final int[] starts = new int[samples.size() + 1];
+        for (int s = 0; s < samples.size(); s++) {
+            starts[s + 1] = starts[s] + Math.max(0, samples.get(s).length - K + 1);
+        }
+        final int count = starts[samples.size()];
+        final int[] grams = new int[count];
+        final GramIds ids = new GramIds(count);
+        // частота по номеру k-граммы и последний образец, где она встретилась
+        final int[] frequency = new int[count];
+        final int[] lastSample = new int[count];
+        Arrays.fill(lastSample, -1);
+        for (int s = 0; s < samples.size(); s++) {
+            final byte[] sample = samples.get(s);
+            for (int i = starts[s]; i < starts[s + 1]; i++) {
+                final int id = ids.idOf(gram(sample, i - starts[s]));
+                grams[i] = id;
+                if (lastSample[id] != s) {
+                    lastSample[id] = s;
+                    frequency[id]++;
+                }
+            }
+        }
+
+        final int epochs = Math.max(1, Math.min(size / SEGMENT, count / SEGMENT));
+        final List<byte[]> segments = new ArrayList<>();
+        int total = 0;
+        // эпохи по кругу, пока словарь не заполнится или целый круг не принесёт ничего
+        for (int e = 0, idle = 0; total < size && idle < epochs; e = (e + 1) % epochs) {
+            final long found = bestSegment(grams, starts, frequency,
+                    (int) ((long) count * e / epochs), (int) ((long) count * (e + 1) / epochs));
+            if (found < 0) {
+                idle++;
+                continue;
+            }
+            idle = 0;
+            final int sampleIndex = (int) (found >>> 32);
+            final int first = (int) found;
+            final byte[] sample = samples.get(sampleIndex);
+            final int offset = first - starts[sampleIndex];
+            final int length = Math.min(Math.min(SEGMENT, sample.length - offset), size - total);
+            final byte[] segment = new byte[length];
+            System.arraycopy(sample, offset, segment, 0, length);
+            segments.add(segment);
+            total += length;
+            for (int i = first; i + K <= first + length; i++) {
+                frequency[grams[i]] = 0;
+            }
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+
+        Collections.reverse(segments);
+        final byte[] dict = new byte[total];
+        int pos = 0;
+        for (byte[] segment : segments) {
+            System.arraycopy(segment, 0, dict, pos, segment.length);
+            pos += segment.length;
+        }
+        return new CompressionDictionary(dict);
+    }
+
+    /**
+     * Лучший отрезок, начинающийся в k-граммах {@code [from, to)}; отрезок не выходит за свой образец.
+     *
+     * @return {@code (образец << 32) | первая k-грамма} или -1, если полезных отрезков нет
+     */
+    private static long bestSegment(final int[] grams, final int[] starts, final int[] frequency,
+                                    final int from, final int to) {
+        long best = -1;
+        long bestScore = 0;
+        // первый образец, который заканчивается после from
+        int s = Arrays.binarySearch(starts, from);
+        s = s >= 0 ? s : -s - 2;
+        for (; s < starts.length - 1 && starts[s] < to; s++) {
+            final int sampleEnd = starts[s + 1];
+            if (sampleEnd == starts[s]) {
+                continue;
+            }
+            final int window = Math.min(SEGMENT - K + 1, sampleEnd - starts[s]);
+            final int lo = Math.max(from, starts[s]);
+            final int hi = Math.min(to, sampleEnd - window + 1);
+            if (lo >= hi) {
+                continue;
+            }
+            long score = 0;
+            for (int i = lo; i < lo + window; i++) {
+                score += weight(frequency[grams[i]]);
+            }
+            for (int at = lo; ; at++) {
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = (long) s << 32 | at;
+                }
+                if (at + 1 >= hi) {
+                    break;
+                }
+                score += weight(frequency[grams[at + window]]) - weight(frequency[grams[at]]);
+            }
+        }
+        return best;
+    }
+
+    // k-грамма из одного образца пользы не приносит
+    private static int weight(final int frequency) {
+        return frequency >= 2 ? frequency : 0;
+    }
+
+    private static long gram(final byte[] b, final int i) {
+        long v = 0;
+        for (int j = 0; j < K; j++) {
+            v = v << 8 | (b[i + j] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * Плотные номера k-грамм: открытая адресация на примитивных массивах, без упаковки в Long.
+     */
+    private static final class GramIds {
+        private final long[] keys;
+
+        // номер + 1; 0 — ячейка свободна
+        private final int[] values;
+
+        private final int mask;
+
+        private int next;
+
+        GramIds(final int expected) {
+            final int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int idOf(final long gram) {
+            int slot = (int) mix(gram) & mask;
+            while (values[slot] != 0) {
+                if (keys[slot] == gram) {
+                    return values[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = gram;
+            values[slot] = ++next;
+            return next - 1;
+        }
+
+        private static long mix(long x) {
+            x ^= x >>> 33;
+            x *= 0xff51afd7ed558ccdL;
+            x ^= x >>> 33;
+            return x;
+        }
+    }
+}
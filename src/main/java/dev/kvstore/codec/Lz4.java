@@ -0,0 +1,168 @@
+package dev.kvstore.codec;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block format на чистой Java: последовательности «литералы + ссылка назад (offset, длина)».
+ * <p>
+ * Токен: старшие 4 бита — длина литералов, младшие — длина совпадения минус 4;
+ * значение 15 продолжается байтами до первого, не равного 255. Offset — 2 байта little-endian.
+ * Последняя последовательность содержит только литералы, и последние 5 байт входа всегда литералы.
+ * <p>
+ * Совпадения ищутся по хэш-таблице 4-байтовых последовательностей, как в быстром режиме LZ4.
+ */
+public final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    // совпадение должно начинаться не ближе этого к концу входа
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    // после стольких промахов подряд шаг поиска растёт: несжимаемые данные проходятся быстрее
+    private static final int SKIP_TRIGGER = 6;
+
+    private Lz4() {
+    }
+
+    public static int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return число записанных в {@code dst} байт
+     */
+    public static int compress(final byte[] src, final int off, final int len, final byte[] dst, final int dstOff) {
+        final int end = off + len;
+        int op = dstOff;
+        int anchor = off;
+        if (len >= MF_LIMIT + 1) {
+            final int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            final int mfLimit = end - MF_LIMIT;
+            final int matchLimit = end - LAST_LITERALS;
+            int ip = off;
+            while (ip < mfLimit) {
+                final int seq = readInt(src, ip);
+                final int h = hash(seq);
+                final int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                int start = ip;
+                int match = ref;
+                while (start > anchor && match > off && src[start - 1] == src[match - 1]) {
+                    start--;
+                    match--;
+                }
+                int matchLen = MIN_MATCH + (ip - start);
+                while (start + matchLen < matchLimit && src[start + matchLen] == src[match + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(src, anchor, start - anchor, start - match, matchLen, dst, op);
+                ip = start + matchLen;
+                anchor = ip;
+            }
+        }
+        return writeLastLiterals(src, anchor, end - anchor, dst, op) - dstOff;
+    }
+
+    /**
+     * Распаковывает ровно {@code dst.length} байт.
+     *
+     * @throws CodecFormatException если вход повреждён
+     */
+    public static void decompress(final byte[] src, final int off, final int len, final byte[] dst) {
+        final int end = off + len;
+        int ip = off;
+        int op = 0;
+        try {
+            while (true) {
+                final int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    break;
+                }
+                final int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                final int match = op - offset;
+                if (offset == 0 || match < 0 || op + matchLen > dst.length) {
+                    throw new CodecFormatException("Malformed LZ4 match at input offset " + (ip - off));
+                }
+                // ссылка может перекрывать то, что сейчас пишется, поэтому копируем по байту
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op + i] = dst[match + i];
+                }
+                op += matchLen;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new CodecFormatException("Truncated LZ4 block", e);
+        }
+        if (op != dst.length) {
+            throw new CodecFormatException("LZ4 block decoded to " + op + " bytes, expected " + dst.length);
+        }
+    }
+
+    private static int writeSequence(final byte[] src, final int literalStart, final int literals, final int offset,
+                                     final int matchLen, final byte[] dst, int op) {
+        final int extraMatch = matchLen - MIN_MATCH;
+        final int tokenPos = op++;
+        dst[tokenPos] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extraMatch, 15));
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(extraMatch, dst, op);
+    }
+
+    private static int writeLastLiterals(final byte[] src, final int literalStart, final int literals,
+                                         final byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literals, 15) << 4);
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        return op + literals;
+    }
+
+    // продолжение длины, если в токене 15
+    private static int writeLength(final int length, final byte[] dst, int op) {
+        if (length < 15) {
+            return op;
+        }
+        int rest = length - 15;
+        while (rest >= 255) {
+            dst[op++] = (byte) 255;
+            rest -= 255;
+        }
+        dst[op++] = (byte) rest;
+        return op;
+    }
+
+    private static int readInt(final byte[] b, final int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(final int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -64,7 +64,20 @@ public final class ValueCodec {
         }
     }
 
+    /**
+     * Payload со {@code FLAG_COMP} возвращается как есть, распаковка — дело клиента.
+     */
     public static ValueRecord read(ByteBuffer src, long blockBaseVersion, Long blockBaseExpire) {
+        return read(src, blockBaseVersion, blockBaseExpire, null);
+    }
+
+    /**
+     * Payload со {@code FLAG_COMP} распаковывается словарём {@code dictionary}.
+     *
+     * @param dictionary {@code null} — вернуть payload как есть
+     */
+    public static ValueRecord read(ByteBuffer src, long blockBaseVersion, Long blockBaseExpire,
+                                   CompressionDictionary dictionary) {
         try {
             int head = Byte.toUnsignedInt(src.get());
             int flags = head & 0x0F;
@@ -98,6 +111,9 @@ public final class ValueCodec {
 
             byte[] val = new byte[len];
             src.get(val);
+            if ((flags & FLAG_COMP) != 0 && dictionary != null) {
+                val = dictionary.decompress(val);
+            }
             return new ValueRecord(val, version, expire);
         } catch (CodecFormatException e) {
             throw e;
@@ -1,11 +1,14 @@
 package dev.kvstore.controller;
 
 import dev.kvstore.controller.request.DeleteRequest;
+import dev.kvstore.controller.request.MergeRequest;
 import dev.kvstore.controller.request.MultiPutRequest;
 import dev.kvstore.controller.request.MultiGetRequest;
 import dev.kvstore.controller.request.PutRequest;
 import dev.kvstore.core.KVException;
 import dev.kvstore.core.KeyValueStore;
+import dev.kvstore.core.PartialWriteException;
+import dev.kvstore.core.WriteBatch;
 import dev.kvstore.core.model.DeleteResult;
 import dev.kvstore.core.model.GetResult;
 import dev.kvstore.core.model.PutResult;
@@ -17,6 +20,8 @@ import org.springframework.web.bind.annotation.*;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 @RestController
@@ -78,6 +83,25 @@ public class KVStoreController {
         }
     }
 
+    @PostMapping("/merge")
+    public ResponseEntity<Map<String, Object>> merge(@RequestBody final MergeRequest request) {
+        try {
+            if (request == null || request.key() == null || request.operand() == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "key and operand are required"));
+            }
+            final PutResult result = keyValueStore.merge(
+                    request.key().getBytes(StandardCharsets.UTF_8),
+                    request.operand().getBytes(StandardCharsets.UTF_8)
+            );
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "created", result.created()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
     @PostMapping("/delete")
     public ResponseEntity<Map<String, Object>> delete(@RequestBody final DeleteRequest request) throws KVException, IOException {
         try {
@@ -95,41 +119,59 @@ public class KVStoreController {
                 return ResponseEntity.badRequest().body(Map.of("error", "items is required"));
             }
 
-            var results = new java.util.ArrayList<Map<String, Object>>(request.items().size());
-            int success = 0, failed = 0;
-
-            for (var it : request.items()) {
-                try {
-                    var pr = keyValueStore.put(
+            // все ключи одним пакетом: атомарно в каждом шарде; если часть шардов записала свои ключи,
+            // а остальные упали, ответ говорит, какие ключи применены
+            Exception error = null;
+            try (WriteBatch batch = keyValueStore.newWriteBatch()) {
+                for (var it : request.items()) {
+                    batch.put(
                             it.key().getBytes(StandardCharsets.UTF_8),
                             it.value() == null ? null : it.value().getBytes(StandardCharsets.UTF_8)
                     );
-                    results.add(Map.of(
-                            "key", it.key(),
-                            "success", true,
-                            "created", pr.created()
-                    ));
-                    success++;
-                } catch (Exception e) {
-                    results.add(Map.of(
-                            "key", it.key(),
-                            "success", false,
-                            "error", e.getMessage()
-                    ));
-                    failed++;
                 }
+                batch.commitPerShard();
+            } catch (Exception e) {
+                error = e;
             }
-
-            return ResponseEntity.ok(Map.of(
-                    "successCount", success,
-                    "failureCount", failed,
-                    "results", results
-            ));
+            final var keys = request.items().stream().map(it -> String.valueOf(it.key())).toList();
+            return batchResponse(keys, error);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
         }
     }
 
+    /**
+     * Итог пакетной записи по ключам. Поля {@code created} нет: пакет не читает ключи и не знает, были ли они.
+     *
+     * @param error {@code null} — пакет применён целиком; {@link PartialWriteException} — применены
+     *              перечисленные в нём записи; иначе не применено ничего
+     */
+    private ResponseEntity<Map<String, Object>> batchResponse(java.util.List<String> keys, Exception error) {
+        final java.util.Set<Integer> applied = error instanceof PartialWriteException partial
+                ? new java.util.HashSet<>(partial.appliedPositions())
+                : java.util.Set.of();
+        var results = new java.util.ArrayList<Map<String, Object>>(keys.size());
+        int success = 0, failed = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (error == null || applied.contains(i)) {
+                results.add(Map.of("key", keys.get(i), "success", true));
+                success++;
+            } else {
+                results.add(Map.of(
+                        "key", keys.get(i),
+                        "success", false,
+                        "error", String.valueOf(error.getMessage())
+                ));
+                failed++;
+            }
+        }
+        return ResponseEntity.ok(Map.of(
+                "successCount", success,
+                "failureCount", failed,
+                "results", results
+        ));
+    }
+
     @PostMapping("/mget")
     public ResponseEntity<Map<String, Object>> mget(@RequestBody final MultiGetRequest request) {
         try {
@@ -137,41 +179,95 @@ public class KVStoreController {
                 return ResponseEntity.badRequest().body(Map.of("error", "keys is required"));
             }
 
-            var results = new java.util.ArrayList<Map<String, Object>>(request.keys().size());
-
+            var keys = new java.util.ArrayList<byte[]>(request.keys().size());
             for (var key : request.keys()) {
-                try {
-                    final GetResult gr = keyValueStore.get(key.getBytes(StandardCharsets.UTF_8));
-                    if (!gr.found() || gr.value() == null || gr.value().value() == null) {
-                        results.add(Map.of(
-                                "key", key,
-                                "found", false
-                        ));
-                    } else {
-                        var vr = gr.value();
-                        results.add(Map.of(
-                                "key", key,
-                                "found", true,
-                                "value", new String(vr.value(), StandardCharsets.UTF_8),
-                                "version", vr.version(),
-                                "expire", vr.expireAtMillis()
-                        ));
-                    }
-                } catch (Exception e) {
-                    results.add(Map.of(
-                            "key", key,
-                            "found", false,
-                            "error", e.getMessage()
-                    ));
-                }
+                keys.add(key.getBytes(StandardCharsets.UTF_8));
             }
 
-            return ResponseEntity.ok(Map.of("results", results));
+            // все ключи одним чтением движка; если оно упало, ошибка у каждого ключа
+            final java.util.List<GetResult> found;
+            try {
+                found = keyValueStore.multiGet(keys);
+            } catch (Exception e) {
+                return mgetFailure(request.keys(), e);
+            }
+            return mgetResponse(request.keys(), found);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
         }
     }
 
+    private ResponseEntity<Map<String, Object>> mgetResponse(java.util.List<String> keys,
+                                                             java.util.List<GetResult> found) {
+        var results = new java.util.ArrayList<Map<String, Object>>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final var key = keys.get(i);
+            final GetResult gr = found.get(i);
+            if (gr == null || !gr.found() || gr.value() == null || gr.value().value() == null) {
+                results.add(Map.of(
+                        "key", key,
+                        "found", false
+                ));
+            } else {
+                var vr = gr.value();
+                results.add(Map.of(
+                        "key", key,
+                        "found", true,
+                        "value", new String(vr.value(), StandardCharsets.UTF_8),
+                        "version", vr.version(),
+                        "expire", vr.expireAtMillis()
+                ));
+            }
+        }
+        return ResponseEntity.ok(Map.of("results", results));
+    }
+
+    private ResponseEntity<Map<String, Object>> mgetFailure(java.util.List<String> keys, Throwable e) {
+        var results = new java.util.ArrayList<Map<String, Object>>(keys.size());
+        for (var key : keys) {
+            results.add(Map.of(
+                    "key", key,
+                    "found", false,
+                    "error", String.valueOf(e.getMessage())
+            ));
+        }
+        return ResponseEntity.ok(Map.of("results", results));
+    }
+
+    /**
+     * Как {@code GET /get}, но поток сервлета не ждёт диска: ответ уходит, когда завершится чтение.
+     */
+    @GetMapping("/async/get")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getAsync(@RequestParam("key") String key) {
+        return keyValueStore.getAsync(key.getBytes(StandardCharsets.UTF_8))
+                .thenApply(this::getMapResponseEntity)
+                .exceptionally(e -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(Map.of("error", String.valueOf(unwrap(e).getMessage()))));
+    }
+
+    /**
+     * Как {@code POST /mget}, но без блокировки потока сервлета.
+     */
+    @PostMapping("/async/mget")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> mgetAsync(@RequestBody final MultiGetRequest request) {
+        if (request == null || request.keys() == null) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "keys is required")));
+        }
+        var keys = new java.util.ArrayList<byte[]>(request.keys().size());
+        for (var key : request.keys()) {
+            keys.add(key.getBytes(StandardCharsets.UTF_8));
+        }
+        return keyValueStore.multiGetAsync(keys)
+                .thenApply(found -> mgetResponse(request.keys(), found))
+                .exceptionally(e -> mgetFailure(request.keys(), unwrap(e)));
+    }
+
+    // стадии после первой получают ошибку чтения обёрнутой в CompletionException
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
     @PostMapping("/mdelete")
     public ResponseEntity<Map<String, Object>> mdelete(@RequestBody final dev.kvstore.controller.request.MultiDeleteRequest request) {
         try {
@@ -179,34 +275,16 @@ public class KVStoreController {
                 return ResponseEntity.badRequest().body(Map.of("error", "keys is required"));
             }
 
-            var results = new java.util.ArrayList<Map<String, Object>>(request.keys().size());
-            int success = 0, failed = 0;
-
-            for (var key : request.keys()) {
-                try {
-                    final DeleteResult dr = keyValueStore.delete(key.getBytes(StandardCharsets.UTF_8));
-                    boolean ok = dr.deleted();
-                    results.add(Map.of(
-                            "key", key,
-                            "success", ok
-                    ));
-                    if (ok) success++;
-                    else failed++;
-                } catch (Exception e) {
-                    results.add(Map.of(
-                            "key", key,
-                            "success", false,
-                            "error", e.getMessage()
-                    ));
-                    failed++;
+            Exception error = null;
+            try (WriteBatch batch = keyValueStore.newWriteBatch()) {
+                for (var key : request.keys()) {
+                    batch.delete(key.getBytes(StandardCharsets.UTF_8));
                 }
+                batch.commitPerShard();
+            } catch (Exception e) {
+                error = e;
             }
-
-            return ResponseEntity.ok(Map.of(
-                    "successCount", success,
-                    "failureCount", failed,
-                    "results", results
-            ));
+            return batchResponse(request.keys().stream().map(String::valueOf).toList(), error);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
         }
@@ -0,0 +1,4 @@
+package dev.kvstore.controller.request;
+
+public record MergeRequest(String key, String operand) {
+}
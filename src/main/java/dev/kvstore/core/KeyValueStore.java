@@ -3,27 +3,91 @@ package dev.kvstore.core;
 import dev.kvstore.core.model.*;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface KeyValueStore {
 
+    /**
+     * Семейство столбцов по имени; операции без семейства идут в семейство по умолчанию.
+     */
+    ColumnFamilyHandle columnFamily(String name) throws KVException;
+
     GetResult get(byte[] key, ReadOptions options) throws KVException, IOException;
 
+    GetResult get(ColumnFamilyHandle family, byte[] key, ReadOptions options) throws KVException, IOException;
+
     default GetResult get(byte[] key) throws KVException, IOException {
         return get(key, ReadOptions.DEFAULT);
     }
 
+    /**
+     * Читает несколько ключей из одного согласованного среза.
+     *
+     * @return результаты в порядке {@code keys}
+     */
+    List<GetResult> multiGet(List<byte[]> keys, ReadOptions options) throws KVException, IOException;
+
+    default List<GetResult> multiGet(List<byte[]> keys) throws KVException, IOException {
+        return multiGet(keys, ReadOptions.DEFAULT);
+    }
+
+    /**
+     * Неблокирующее чтение: диск читает пул чтений движка, поток вызывающего его не ждёт.
+     * Ошибка чтения завершает future исключением.
+     */
+    CompletableFuture<GetResult> getAsync(ColumnFamilyHandle family, byte[] key, ReadOptions options);
+
+    default CompletableFuture<GetResult> getAsync(byte[] key, ReadOptions options) {
+        return getAsync(ColumnFamilyHandle.DEFAULT, key, options);
+    }
+
+    default CompletableFuture<GetResult> getAsync(byte[] key) {
+        return getAsync(key, ReadOptions.DEFAULT);
+    }
+
+    /**
+     * Неблокирующий {@link #multiGet(List, ReadOptions)}.
+     */
+    CompletableFuture<List<GetResult>> multiGetAsync(List<byte[]> keys, ReadOptions options);
+
+    default CompletableFuture<List<GetResult>> multiGetAsync(List<byte[]> keys) {
+        return multiGetAsync(keys, ReadOptions.DEFAULT);
+    }
+
     PutResult put(byte[] key, byte[] value, PutOptions options) throws KVException, IOException;
 
+    PutResult put(ColumnFamilyHandle family, byte[] key, byte[] value, PutOptions options)
+            throws KVException, IOException;
+
     default PutResult put(byte[] key, byte[] value) throws KVException, IOException {
         return put(key, value, PutOptions.DEFAULT);
     }
 
     DeleteResult delete(byte[] key, DeleteOptions options) throws KVException, IOException;
 
+    DeleteResult delete(ColumnFamilyHandle family, byte[] key, DeleteOptions options)
+            throws KVException, IOException;
+
     default DeleteResult delete(byte[] key) throws KVException, IOException {
         return delete(key, DeleteOptions.DEFAULT);
     }
 
+    /**
+     * Read-modify-write без чтения: операнд сворачивается с текущим значением
+     * через {@code MergeOperator} движка лениво, при чтении или компакции.
+     */
+    PutResult merge(byte[] key, byte[] operand, PutOptions options) throws KVException, IOException;
+
+    default PutResult merge(byte[] key, byte[] operand) throws KVException, IOException {
+        return merge(key, operand, PutOptions.DEFAULT);
+    }
+
+    /**
+     * Новый пустой пакет записей; применяется атомарно при {@link WriteBatch#commit()}.
+     */
+    WriteBatch newWriteBatch();
+
     ScanCursor scan(KeyRange range, ReadOptions options) throws KVException;
 
     default ScanCursor scan(KeyRange range) throws KVException {
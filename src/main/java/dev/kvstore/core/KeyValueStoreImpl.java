@@ -1,43 +1,173 @@
 package dev.kvstore.core;
 
+import dev.kvstore.core.LSM.ColumnFamilyOptions;
+import dev.kvstore.core.LSM.EngineOptions;
 import dev.kvstore.core.LSM.LSMEngine;
 import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.LSM.MemTableRepType;
+import dev.kvstore.core.LSM.MergeOperatorType;
+import dev.kvstore.core.LSM.ShardedLSMEngine;
 import dev.kvstore.core.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 @Service
 public class KeyValueStoreImpl implements KeyValueStore {
     private LSMEngine lsmEngine;
 
-    public KeyValueStoreImpl(@Value("${kvstore.dir}") final String dir, @Value("${kvstore.memSize}") final long memSize) throws IOException {
-        this.lsmEngine = new LSMEngineImpl(dir, memSize);
+    // операнды merge проверяются им до записи
+    private MergeOperatorType mergeOperator = MergeOperatorType.NONE;
+
+    public KeyValueStoreImpl(final String dir, final long memSize) throws IOException {
+        this(dir, memSize, MergeOperatorType.NONE);
+    }
+
+    public KeyValueStoreImpl(final String dir, final long memSize, final MergeOperatorType mergeOperator)
+            throws IOException {
+        this.lsmEngine = new LSMEngineImpl(dir, memSize, new EngineOptions().mergeOperator(mergeOperator.operator()));
+        this.mergeOperator = mergeOperator;
+    }
+
+    @Autowired
+    public KeyValueStoreImpl(@Value("${kvstore.dir}") final String dir,
+                             @Value("${kvstore.memSize}") final long memSize,
+                             @Value("${kvstore.wal.syncMode:OS}") final WALSyncPolicy.Mode syncMode,
+                             @Value("${kvstore.wal.syncIntervalMillis:1000}") final long syncIntervalMillis,
+                             @Value("${kvstore.wal.bytesPerSync:0}") final long bytesPerSync,
+                             @Value("${kvstore.memtable.offHeap:false}") final boolean offHeapMemTable,
+                             @Value("${kvstore.memtable.rep:SKIP_LIST}") final MemTableRepType memTableRep,
+                             @Value("${kvstore.read.multiGetParallelism:8}") final int multiGetParallelism,
+                             @Value("${kvstore.read.rowCacheBytes:0}") final long rowCacheBytes,
+                             @Value("${kvstore.read.blockCacheBytes:8388608}") final long blockCacheBytes,
+                             @Value("${kvstore.blob.minSize:0}") final int minBlobSize,
+                             @Value("${kvstore.compression.perLevel:}") final List<CompressionType> compressionPerLevel,
+                             @Value("${kvstore.compression.dictionaryBytes:0}") final int dictionaryBytes,
+                             @Value("${kvstore.shards:1}") final int shards,
+                             @Value("${kvstore.columnFamilies:}") final List<String> columnFamilies,
+                             @Value("${kvstore.mergeOperator:NONE}") final MergeOperatorType mergeOperator,
+                             @Value("${kvstore.compaction.directIo:false}") final boolean compactionDirectIo,
+                             @Value("${kvstore.compaction.readaheadBytes:2097152}") final int compactionReadaheadBytes,
+                             @Value("${kvstore.scrub.bytesPerSecond:4194304}") final long scrubBytesPerSecond,
+                             @Value("${kvstore.scrub.intervalMillis:3600000}") final long scrubIntervalMillis)
+            throws IOException {
+        final var options = new EngineOptions()
+                .walSyncPolicy(new WALSyncPolicy(syncMode, syncIntervalMillis, bytesPerSync))
+                .offHeapMemTable(offHeapMemTable)
+                .memTableRep(memTableRep)
+                .multiGetParallelism(multiGetParallelism)
+                .rowCacheBytes(rowCacheBytes)
+                .blockCacheBytes(blockCacheBytes)
+                .tableOptions(TableOptions.DEFAULT.withFormatVersion(TableOptions.FORMAT_V2)
+                        .withDictionaryBytes(dictionaryBytes))
+                .compressionPerLevel(compressionPerLevel.toArray(new CompressionType[0]))
+                .minBlobSize(minBlobSize)
+                .mergeOperator(mergeOperator.operator())
+                .compactionDirectIo(compactionDirectIo)
+                .compactionReadaheadBytes(compactionReadaheadBytes)
+                .scrubBytesPerSecond(scrubBytesPerSecond)
+                .scrubIntervalMillis(scrubIntervalMillis);
+        for (String name : columnFamilies) {
+            if (!name.isBlank()) {
+                options.columnFamily(name.trim(), new ColumnFamilyOptions().mergeOperator(mergeOperator.operator()));
+            }
+        }
+        this.lsmEngine = shards > 1
+                ? new ShardedLSMEngine(dir, memSize, shards, options)
+                : new LSMEngineImpl(dir, memSize, options);
+        this.mergeOperator = mergeOperator;
+    }
+
+    @Override
+    public ColumnFamilyHandle columnFamily(String name) throws KVException {
+        return lsmEngine.columnFamily(name);
     }
 
     @Override
     public GetResult get(byte[] key, ReadOptions options) throws KVException, IOException {
-        final Entry entry = lsmEngine.get(key, options);
-        if (entry != null) {
-            return new GetResult(true, new ValueRecord(entry.value(), 0, 0L));
+        return get(ColumnFamilyHandle.DEFAULT, key, options);
+    }
+
+    @Override
+    public GetResult get(ColumnFamilyHandle family, byte[] key, ReadOptions options) throws KVException, IOException {
+        return new GetResult(true, toRecord(lsmEngine.get(family, key, options)));
+    }
+
+    // expireAt 0 — без TTL: контроллер кладёт поля в Map.of, null туда нельзя
+    private static ValueRecord toRecord(final Entry entry) {
+        if (entry == null) {
+            return new ValueRecord(null, 0, 0L);
+        }
+        return new ValueRecord(entry.value(), entry.version(), entry.expireAtMillis());
+    }
+
+    @Override
+    public CompletableFuture<GetResult> getAsync(ColumnFamilyHandle family, byte[] key, ReadOptions options) {
+        return lsmEngine.getAsync(family, key, options).thenApply(entry -> new GetResult(true, toRecord(entry)));
+    }
+
+    @Override
+    public List<GetResult> multiGet(List<byte[]> keys, ReadOptions options) throws KVException, IOException {
+        return toResults(lsmEngine.multiGet(keys, options));
+    }
+
+    @Override
+    public CompletableFuture<List<GetResult>> multiGetAsync(List<byte[]> keys, ReadOptions options) {
+        return lsmEngine.multiGetAsync(keys, options).thenApply(KeyValueStoreImpl::toResults);
+    }
+
+    private static List<GetResult> toResults(final List<Entry> entries) {
+        final List<GetResult> results = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            results.add(new GetResult(true, toRecord(entry)));
         }
-        return new GetResult(true, new ValueRecord(null, 0, 0L));
+        return results;
     }
 
     @Override
     public PutResult put(byte[] key, byte[] value, PutOptions options) throws KVException, IOException {
-        final boolean created = lsmEngine.put(key, value, options);
+        return put(ColumnFamilyHandle.DEFAULT, key, value, options);
+    }
+
+    @Override
+    public PutResult put(ColumnFamilyHandle family, byte[] key, byte[] value, PutOptions options)
+            throws KVException, IOException {
+        final boolean created = lsmEngine.put(family, key, value, options);
         return new PutResult(created);
     }
 
     @Override
     public DeleteResult delete(byte[] key, DeleteOptions options) throws KVException, IOException {
-        final boolean deleted = lsmEngine.delete(key, options);
+        return delete(ColumnFamilyHandle.DEFAULT, key, options);
+    }
+
+    @Override
+    public DeleteResult delete(ColumnFamilyHandle family, byte[] key, DeleteOptions options)
+            throws KVException, IOException {
+        final boolean deleted = lsmEngine.delete(family, key, options);
         return new DeleteResult(deleted);
     }
 
+    @Override
+    public PutResult merge(byte[] key, byte[] operand, PutOptions options) throws KVException, IOException {
+        if (!mergeOperator.accepts(operand)) {
+            throw new KVException("Operand is not valid for merge operator " + mergeOperator);
+        }
+        final boolean created = lsmEngine.merge(key, operand, options);
+        return new PutResult(created);
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatchImpl(lsmEngine);
+    }
+
     @Override
     public void flush() throws KVException, IOException {
         lsmEngine.flush();
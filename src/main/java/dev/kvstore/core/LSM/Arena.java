@@ -0,0 +1,129 @@
+package dev.kvstore.core.LSM;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Off-heap арена для memtable: данные копируются в direct-чанки фиксированного размера.
+ * Адрес записи — {@code (номер чанка << 32) | смещение}. Выделение — сдвиг указателя
+ * под короткой блокировкой, отдельных освобождений нет: {@link #release()} освобождает все чанки разом.
+ */
+final class Arena {
+    private final int chunkSize;
+
+    // массив чанков заменяется целиком, читатели берут его без блокировки
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    // поля ниже — под this
+    private int current = -1;
+
+    private int offset;
+
+    // сколько байт занято записями
+    private final AtomicLong usedBytes = new AtomicLong(0);
+
+    // сколько байт выделено чанками
+    private final AtomicLong reservedBytes = new AtomicLong(0);
+
+    Arena(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return адрес непрерывного участка из {@code size} байт
+     */
+    synchronized long allocate(final int size) {
+        if (size > chunkSize) {
+            // крупная запись получает свой чанк, текущий продолжаем заполнять
+            final int index = addChunk(size);
+            usedBytes.addAndGet(size);
+            return (long) index << 32;
+        }
+        if (current < 0 || chunkSize - offset < size) {
+            current = addChunk(chunkSize);
+            offset = 0;
+        }
+        final long address = ((long) current << 32) | offset;
+        offset += size;
+        usedBytes.addAndGet(size);
+        return address;
+    }
+
+    ByteBuffer chunk(final long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    static int offset(final long address) {
+        return (int) address;
+    }
+
+    long usedBytes() {
+        return usedBytes.get();
+    }
+
+    long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Освобождает все чанки сразу, не дожидаясь GC. Вызывается, когда memtable отпустили
+     * все читатели (см. {@link MemTable#release()}): адреса записей после этого недействительны.
+     */
+    synchronized void release() {
+        final ByteBuffer[] old = chunks;
+        chunks = new ByteBuffer[0];
+        current = -1;
+        offset = 0;
+        usedBytes.set(0);
+        reservedBytes.set(0);
+        for (ByteBuffer chunk : old) {
+            free(chunk);
+        }
+    }
+
+    // Unsafe.invokeCleaner через reflection: сборка под --release без jdk.unsupported;
+    // если его нет, память вернёт Cleaner буфера после GC
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> type = Class.forName("sun.misc.Unsafe");
+            final Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void free(final ByteBuffer chunk) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, chunk);
+        } catch (ReflectiveOperationException e) {
+            // останется Cleaner буфера
+        }
+    }
+
+    private int addChunk(final int capacity) {
+        final ByteBuffer[] next = Arrays.copyOf(chunks, chunks.length + 1);
+        next[chunks.length] = ByteBuffer.allocateDirect(capacity);
+        chunks = next;
+        reservedBytes.addAndGet(capacity);
+        return chunks.length - 1;
+    }
+}
@@ -0,0 +1,181 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+
+/**
+ * Версии вне кучи: ключи и значения лежат в {@link Arena}, а в skiplist — только адреса записей.
+ * На куче остаются узлы skiplist, сами байты GC не видит. Учёт памяти точный — байты арены.
+ * <p>
+ * Запись в арене: {@code seq(8) | expireAt(8) | flags(1) | keyLen(4) | valueLen(4, -1 для null) | key | value}.
+ * Версия записи — её seq.
+ */
+final class ArenaSkipListRep implements MemTableRep {
+    private static final int EXPIRE_AT = 8;
+
+    private static final int FLAGS_AT = 16;
+
+    private static final int KEY_LEN_AT = 17;
+
+    private static final int VALUE_LEN_AT = 21;
+
+    private static final int HEADER_BYTES = 8 + 8 + 1 + 4 + 4;
+
+    private static final byte FLAG_TOMBSTONE = 1;
+
+    private static final byte FLAG_MERGE = 2;
+
+    private final Arena arena;
+
+    // элементы — адреса (Long); при поиске с ними сравнивается Probe
+    private final ConcurrentSkipListSet<Object> index = new ConcurrentSkipListSet<>(this::compare);
+
+    ArenaSkipListRep(final int chunkSize) {
+        this.arena = new Arena(chunkSize);
+    }
+
+    @Override
+    public void insert(final Entry entry, final long seq) {
+        final byte[] key = entry.key();
+        final byte[] value = entry.value();
+        final int valueLen = value == null ? 0 : value.length;
+
+        final long address = arena.allocate(HEADER_BYTES + key.length + valueLen);
+        final ByteBuffer chunk = arena.chunk(address);
+        final int at = Arena.offset(address);
+        chunk.putLong(at, seq);
+        chunk.putLong(at + EXPIRE_AT, entry.expireAtMillis());
+        chunk.put(at + FLAGS_AT, (byte) ((entry.tombstone() ? FLAG_TOMBSTONE : 0) | (entry.merge() ? FLAG_MERGE : 0)));
+        chunk.putInt(at + KEY_LEN_AT, key.length);
+        chunk.putInt(at + VALUE_LEN_AT, value == null ? -1 : valueLen);
+        chunk.put(at + HEADER_BYTES, key);
+        if (valueLen > 0) {
+            chunk.put(at + HEADER_BYTES + key.length, value);
+        }
+        // запись полностью в арене до того, как адрес станет виден через skiplist
+        index.add(address);
+    }
+
+    @Override
+    public Iterable<Entry> versions(final byte[] key, final long maxSeq) {
+        final NavigableSet<Object> range = index.subSet(
+                new Probe(key, maxSeq), true,
+                new Probe(key, Long.MIN_VALUE), true);
+        return () -> entries(range.iterator());
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return entries(index.iterator());
+    }
+
+    @Override
+    public long memoryUsage() {
+        return arena.usedBytes();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        index.clear();
+        arena.release();
+    }
+
+    private Iterator<Entry> entries(final Iterator<Object> addresses) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return addresses.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                return read((Long) addresses.next());
+            }
+        };
+    }
+
+    // копирует запись из арены на кучу
+    private Entry read(final long address) {
+        final ByteBuffer chunk = arena.chunk(address);
+        final int at = Arena.offset(address);
+        final byte flags = chunk.get(at + FLAGS_AT);
+        final int keyLen = chunk.getInt(at + KEY_LEN_AT);
+        final int valueLen = chunk.getInt(at + VALUE_LEN_AT);
+
+        final byte[] key = new byte[keyLen];
+        chunk.get(at + HEADER_BYTES, key);
+        byte[] value = null;
+        if (valueLen >= 0) {
+            value = new byte[valueLen];
+            chunk.get(at + HEADER_BYTES + keyLen, value);
+        }
+        return new Entry(key, value, (flags & FLAG_TOMBSTONE) != 0, (flags & FLAG_MERGE) != 0, false,
+                chunk.getLong(at), chunk.getLong(at + EXPIRE_AT));
+    }
+
+    private int compare(final Object a, final Object b) {
+        if (a instanceof Probe p && b instanceof Probe q) {
+            // границы диапазона сравниваются между собой
+            final int cmp = Arrays.compare(p.key(), q.key());
+            return cmp != 0 ? cmp : Long.compare(q.seq(), p.seq());
+        }
+        if (a instanceof Probe p) {
+            return -compareToProbe((Long) b, p);
+        }
+        if (b instanceof Probe p) {
+            return compareToProbe((Long) a, p);
+        }
+        final long x = (Long) a;
+        final long y = (Long) b;
+        final ByteBuffer cx = arena.chunk(x);
+        final ByteBuffer cy = arena.chunk(y);
+        final int ox = Arena.offset(x);
+        final int oy = Arena.offset(y);
+        final int lx = cx.getInt(ox + KEY_LEN_AT);
+        final int ly = cy.getInt(oy + KEY_LEN_AT);
+        // тот же порядок, что у Arrays.compare: байты со знаком, затем длина
+        final int n = Math.min(lx, ly);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Byte.compare(cx.get(ox + HEADER_BYTES + i), cy.get(oy + HEADER_BYTES + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        if (lx != ly) {
+            return Integer.compare(lx, ly);
+        }
+        return Long.compare(cy.getLong(oy), cx.getLong(ox));
+    }
+
+    private int compareToProbe(final long address, final Probe probe) {
+        final ByteBuffer chunk = arena.chunk(address);
+        final int at = Arena.offset(address);
+        final int keyLen = chunk.getInt(at + KEY_LEN_AT);
+        final byte[] key = probe.key();
+        final int n = Math.min(keyLen, key.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Byte.compare(chunk.get(at + HEADER_BYTES + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        if (keyLen != key.length) {
+            return Integer.compare(keyLen, key.length);
+        }
+        return Long.compare(probe.seq(), chunk.getLong(at));
+    }
+
+    private record Probe(byte[] key, long seq) {
+    }
+}
@@ -0,0 +1,30 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.codec.VarInts;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ссылка из SSTable на значение в blob-файле; в таблице лежит вместо самого значения.
+ *
+ * @param file   номер blob-файла семейства
+ * @param offset начало записи в файле (с заголовком)
+ * @param length длина значения
+ */
+record BlobIndex(long file, long offset, int length) {
+
+    byte[] encode() {
+        final ByteBuffer buf = ByteBuffer.allocate(10 + 10 + 5);
+        VarInts.putVarLong(file, buf);
+        VarInts.putVarLong(offset, buf);
+        VarInts.putVarInt(length, buf);
+        final byte[] out = new byte[buf.position()];
+        buf.flip().get(out);
+        return out;
+    }
+
+    static BlobIndex decode(final byte[] bytes) {
+        final ByteBuffer buf = ByteBuffer.wrap(bytes);
+        return new BlobIndex(VarInts.getVarLong(buf), VarInts.getVarLong(buf), VarInts.getVarInt(buf));
+    }
+}
@@ -0,0 +1,209 @@
+package dev.kvstore.core.LSM;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Blob-файлы семейства: крупные значения пишутся сюда один раз при flush,
+ * а SSTable и компакция носят только {@link BlobIndex}.
+ * <p>
+ * Файл удаляется, когда его отпустила последняя ссылающаяся на него таблица.
+ * Компакция сообщает, сколько байт в файле стало мусором; живые значения из файла,
+ * где мусора не меньше порога, компакция переписывает в новый файл, и старый со временем отпускается.
+ * <p>
+ * Запись в файле: {@code length(4) | crc32c(4) | value}.
+ */
+final class BlobStore {
+    private static final int RECORD_HEADER = 8;
+
+    private final String dir;
+
+    private final double garbageRatio;
+
+    private final AtomicLong fileNumber = new AtomicLong(0);
+
+    private final Map<Long, BlobFile> files = new ConcurrentHashMap<>();
+
+    BlobStore(final String dir, final double garbageRatio) {
+        this.dir = dir;
+        this.garbageRatio = garbageRatio;
+    }
+
+    /**
+     * Новый файл для одного flush или одной компакции; создаётся на диске при первом значении.
+     */
+    Writer newWriter() {
+        return new Writer();
+    }
+
+    byte[] read(final byte[] pointer) throws IOException {
+        final BlobIndex index = BlobIndex.decode(pointer);
+        final BlobFile file = files.get(index.file());
+        if (file == null) {
+            throw new IOException("Blob file " + index.file() + " is missing in " + dir);
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + index.length());
+        long position = index.offset();
+        while (buf.hasRemaining()) {
+            final int n = file.channel.read(buf, position);
+            if (n < 0) {
+                throw new IOException("Truncated blob record in " + file.file);
+            }
+            position += n;
+        }
+        buf.flip();
+        final int length = buf.getInt();
+        final int crc = buf.getInt();
+        if (length != index.length()) {
+            throw new IOException("Blob record length mismatch in " + file.file + " at offset " + index.offset());
+        }
+        final byte[] value = new byte[length];
+        buf.get(value);
+        final CRC32C crc32c = new CRC32C();
+        crc32c.update(value);
+        if ((int) crc32c.getValue() != crc) {
+            throw new IOException("Blob checksum mismatch in " + file.file + " at offset " + index.offset());
+        }
+        return value;
+    }
+
+    /**
+     * Значение по ссылке больше не нужно ни одной таблице.
+     */
+    void discard(final BlobIndex index) {
+        final BlobFile file = files.get(index.file());
+        if (file != null) {
+            file.garbageBytes.addAndGet(RECORD_HEADER + index.length());
+        }
+    }
+
+    /**
+     * Живые значения из этого файла компакции стоит переписать.
+     */
+    boolean isGarbageHeavy(final BlobIndex index) {
+        final BlobFile file = files.get(index.file());
+        return file != null && file.garbageBytes.get() >= file.totalBytes * garbageRatio;
+    }
+
+    void retain(final long number) {
+        files.get(number).refs.incrementAndGet();
+    }
+
+    void release(final long number) {
+        final BlobFile file = files.get(number);
+        if (file.refs.decrementAndGet() == 0) {
+            files.remove(number);
+            try {
+                file.channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close: " + file.file.getAbsolutePath());
+            }
+            if (!file.file.delete()) {
+                System.err.println("Failed to delete: " + file.file.getAbsolutePath());
+            }
+        }
+    }
+
+    int fileCount() {
+        return files.size();
+    }
+
+    private static final class BlobFile {
+        final File file;
+
+        final FileChannel channel;
+
+        final long totalBytes;
+
+        final AtomicLong garbageBytes = new AtomicLong();
+
+        // ссылка писателя до подключения к таблице и по одной у каждой таблицы
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        BlobFile(final File file, final long totalBytes) throws IOException {
+            this.file = file;
+            this.totalBytes = totalBytes;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    final class Writer implements AutoCloseable {
+        private long number = -1;
+
+        private File file;
+
+        private FileOutputStream fos;
+
+        private BufferedOutputStream out;
+
+        private long written;
+
+        private boolean finished;
+
+        /**
+         * @return закодированный {@link BlobIndex}
+         */
+        byte[] add(final byte[] value) throws IOException {
+            if (out == null) {
+                number = fileNumber.incrementAndGet();
+                file = new File(dir, "blob-" + System.currentTimeMillis() + "-" + number + ".blob");
+                fos = new FileOutputStream(file);
+                out = new BufferedOutputStream(fos, 1 << 16);
+            }
+            final CRC32C crc = new CRC32C();
+            crc.update(value);
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            header.putInt(value.length).putInt((int) crc.getValue());
+            out.write(header.array());
+            out.write(value);
+            final BlobIndex index = new BlobIndex(number, written, value.length);
+            written += RECORD_HEADER + value.length;
+            return index.encode();
+        }
+
+        /**
+         * Синкает файл и открывает его для чтения; вызывать до записи SSTable со ссылками на него.
+         */
+        void finish() throws IOException {
+            if (out == null || finished) {
+                return;
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            files.put(number, new BlobFile(file, written));
+            finished = true;
+        }
+
+        /**
+         * Отпускает ссылку писателя: файл остаётся, пока на него ссылаются таблицы.
+         * Незаконченный файл удаляется.
+         */
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                return;
+            }
+            if (finished) {
+                release(number);
+            } else {
+                out.close();
+                if (!file.delete()) {
+                    System.err.println("Failed to delete: " + file.getAbsolutePath());
+                }
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.kvstore.core.LSM;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Кэш распакованных блоков SSTable, общий для всех таблиц движка.
+ * Шарды по хэшу (таблица, смещение блока), в каждом LRU со своим бюджетом байт под монитором шарда.
+ * Блоки удалённых таблиц никто больше не запросит, и они вытесняются сами.
+ */
+final class BlockCache {
+    // заголовки объектов, ключ и узел LRU
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Shard[] shards;
+
+    BlockCache(final long capacityBytes, final int shardCount) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(1, capacityBytes / shardCount));
+        }
+    }
+
+    /**
+     * @return собственная копия позиции и границ блока или {@code null}
+     */
+    ByteBuffer get(final long table, final long offset) {
+        final Key k = new Key(table, offset);
+        final ByteBuffer block = shard(k).get(k);
+        return block == null ? null : block.duplicate();
+    }
+
+    void put(final long table, final long offset, final ByteBuffer block) {
+        final Key k = new Key(table, offset);
+        shard(k).put(k, block.duplicate().position(0));
+    }
+
+    private Shard shard(final Key k) {
+        final int h = k.hashCode();
+        return shards[((h ^ (h >>> 16)) & 0x7fffffff) % shards.length];
+    }
+
+    // срез держит в памяти весь свой массив, поэтому учитывается массив, а не срез
+    private static long weight(final ByteBuffer block) {
+        return (block.hasArray() ? block.array().length : block.capacity()) + ENTRY_OVERHEAD;
+    }
+
+    private static final class Shard {
+        private final long capacity;
+
+        private final LinkedHashMap<Key, ByteBuffer> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long used;
+
+        Shard(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized ByteBuffer get(final Key k) {
+            return lru.get(k);
+        }
+
+        synchronized void put(final Key k, final ByteBuffer block) {
+            final long weight = weight(block);
+            if (weight > capacity) {
+                return;
+            }
+            final ByteBuffer old = lru.put(k, block);
+            if (old != null) {
+                used -= weight(old);
+            }
+            used += weight;
+            final Iterator<Map.Entry<Key, ByteBuffer>> it = lru.entrySet().iterator();
+            while (used > capacity && it.hasNext()) {
+                used -= weight(it.next().getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private record Key(long table, long offset) {
+    }
+}
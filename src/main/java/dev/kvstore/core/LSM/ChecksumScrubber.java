@@ -0,0 +1,85 @@
+package dev.kvstore.core.LSM;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+
+/**
+ * Фоновая проверка контрольных сумм: читает каждый блок каждой таблицы и сверяет CRC32C,
+ * так что горячие чтения могут обходиться без проверки. Скорость чтения ограничена,
+ * чтобы проход не отнимал диск у запросов. Битые файлы копятся до перезапуска.
+ */
+final class ChecksumScrubber {
+
+    private final long bytesPerSecond;
+
+    private final Set<File> corrupt = ConcurrentHashMap.newKeySet();
+
+    // начало текущего прохода и сколько байт в нём уже прочитано
+    private long startedNanos;
+
+    private long readBytes;
+
+    ChecksumScrubber(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Один проход по таблицам. Ссылка берётся на одну таблицу за раз: проход длится часами,
+     * и всё, что за это время убрала компакция, должно удаляться сразу, а не после прохода.
+     * Проходы не пересекаются: фоновый и ручной идут по очереди.
+     *
+     * @param retainIfLive берёт ссылку на таблицу, если она ещё в движке; иначе таблица пропускается
+     * @return битые файлы, найденные в этом проходе
+     */
+    synchronized List<File> scrub(final List<SSTable> tables, final Predicate<SSTable> retainIfLive) {
+        startedNanos = System.nanoTime();
+        readBytes = 0;
+        final List<File> found = new ArrayList<>();
+        for (SSTable table : tables) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (!retainIfLive.test(table)) {
+                continue;
+            }
+            try {
+                table.verifyChecksums(this::throttle);
+            } catch (IOException e) {
+                found.add(table.file());
+                if (corrupt.add(table.file())) {
+                    System.err.println("Corrupted SSTable " + table.file() + ": " + e.getMessage());
+                }
+            } finally {
+                table.release();
+            }
+        }
+        return found;
+    }
+
+    Set<File> corruptFiles() {
+        return Set.copyOf(corrupt);
+    }
+
+    // спим, пока прочитанное не уложится в лимит от начала прохода
+    private void throttle(final long bytes) {
+        readBytes += bytes;
+        final long dueNanos = (long) (readBytes * 1e9 / bytesPerSecond);
+        final long sleepNanos = dueNanos - (System.nanoTime() - startedNanos);
+        if (sleepNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+            // проход остановится перед следующей таблицей
+            Thread.currentThread().interrupt();
+        }
+    }
+}
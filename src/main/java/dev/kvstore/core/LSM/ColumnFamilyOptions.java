@@ -0,0 +1,143 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.CompressionType;
+import dev.kvstore.core.model.TableOptions;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Настройки одного семейства столбцов: своя memtable, свои SSTable и своя компакция.
+ * Сеттеры возвращают {@code this}, чтобы настройки можно было собирать цепочкой.
+ */
+public final class ColumnFamilyOptions {
+
+    private TableOptions tableOptions = TableOptions.DEFAULT.withFormatVersion(TableOptions.FORMAT_V2);
+
+    private List<CompressionType> compressionPerLevel = List.of();
+
+    private CompactionFilter compactionFilter = CompactionFilter.NONE;
+
+    private MergeOperator mergeOperator;
+
+    private int compactionTrigger = 3;
+
+    private long memTableSize;
+
+    private int minBlobSize;
+
+    private double blobGarbageRatio = 0.5;
+
+    public TableOptions tableOptions() {
+        return tableOptions;
+    }
+
+    public ColumnFamilyOptions tableOptions(final TableOptions tableOptions) {
+        this.tableOptions = Objects.requireNonNull(tableOptions, "tableOptions");
+        return this;
+    }
+
+    /**
+     * Сжатие блоков по уровням: уровень i берёт элемент i, уровни глубже списка — последний.
+     * Пустой список — сжатие из {@code tableOptions} на всех уровнях.
+     */
+    public List<CompressionType> compressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    public ColumnFamilyOptions compressionPerLevel(final CompressionType... compressionPerLevel) {
+        this.compressionPerLevel = List.of(compressionPerLevel);
+        return this;
+    }
+
+    /**
+     * Раскладка таблиц уровня {@code level} с учётом {@link #compressionPerLevel()}.
+     */
+    public TableOptions tableOptions(final int level) {
+        if (compressionPerLevel.isEmpty()) {
+            return tableOptions;
+        }
+        return tableOptions.withCompression(compressionPerLevel.get(Math.min(level, compressionPerLevel.size() - 1)));
+    }
+
+    public CompactionFilter compactionFilter() {
+        return compactionFilter;
+    }
+
+    public ColumnFamilyOptions compactionFilter(final CompactionFilter compactionFilter) {
+        this.compactionFilter = Objects.requireNonNull(compactionFilter, "compactionFilter");
+        return this;
+    }
+
+    /**
+     * {@code null}, если merge в семействе не используется.
+     */
+    public MergeOperator mergeOperator() {
+        return mergeOperator;
+    }
+
+    public ColumnFamilyOptions mergeOperator(final MergeOperator mergeOperator) {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
+
+    /**
+     * Уровень, на котором таблиц больше этого числа, уходит в компакцию.
+     */
+    public int compactionTrigger() {
+        return compactionTrigger;
+    }
+
+    public ColumnFamilyOptions compactionTrigger(final int compactionTrigger) {
+        if (compactionTrigger < 1) {
+            throw new IllegalArgumentException("compactionTrigger must be >= 1");
+        }
+        this.compactionTrigger = compactionTrigger;
+        return this;
+    }
+
+    /**
+     * Размер memtable семейства; 0 — как у движка.
+     */
+    public long memTableSize() {
+        return memTableSize;
+    }
+
+    public ColumnFamilyOptions memTableSize(final long memTableSize) {
+        if (memTableSize < 0) {
+            throw new IllegalArgumentException("memTableSize must be >= 0");
+        }
+        this.memTableSize = memTableSize;
+        return this;
+    }
+
+    /**
+     * Значения не короче этого порога уходят в blob-файлы, в SSTable остаётся ссылка; 0 — не выносить.
+     */
+    public int minBlobSize() {
+        return minBlobSize;
+    }
+
+    public ColumnFamilyOptions minBlobSize(final int minBlobSize) {
+        if (minBlobSize < 0) {
+            throw new IllegalArgumentException("minBlobSize must be >= 0");
+        }
+        this.minBlobSize = minBlobSize;
+        return this;
+    }
+
+    /**
+     * Доля мусора в blob-файле, с которой компакция переписывает его живые значения в новый файл.
+     */
+    public double blobGarbageRatio() {
+        return blobGarbageRatio;
+    }
+
+    public ColumnFamilyOptions blobGarbageRatio(final double blobGarbageRatio) {
+        if (blobGarbageRatio <= 0 || blobGarbageRatio > 1) {
+            throw new IllegalArgumentException("blobGarbageRatio must be in (0, 1]");
+        }
+        this.blobGarbageRatio = blobGarbageRatio;
+        return this;
+    }
+}
@@ -0,0 +1,51 @@
+package dev.kvstore.core.LSM;
+
+/**
+ * Пользовательский фильтр, который {@code compactLevel} вызывает для каждой
+ * уцелевшей после слияния записи (могильники сюда не попадают).
+ * <p>
+ * Позволяет оставить запись как есть, выбросить её или переписать значение,
+ * например удалить ключи удалённых тенантов или вычистить устаревшие поля.
+ * Компакция и так переписывает данные, поэтому такая чистка не стоит
+ * отдельного прохода scan-and-delete.
+ */
+@FunctionalInterface
+public interface CompactionFilter {
+
+    /**
+     * Фильтр по умолчанию — всё оставляет.
+     */
+    CompactionFilter NONE = (level, key, value) -> Decision.keep();
+
+    /**
+     * @param level уровень, который сейчас компактится (результат уйдёт на {@code level + 1})
+     * @param key   ключ записи
+     * @param value текущее значение
+     */
+    Decision filter(int level, byte[] key, byte[] value);
+
+    enum Action {
+        KEEP, REMOVE, CHANGE_VALUE
+    }
+
+    record Decision(Action action, byte[] newValue) {
+        private static final Decision KEEP = new Decision(Action.KEEP, null);
+        private static final Decision REMOVE = new Decision(Action.REMOVE, null);
+
+        public static Decision keep() {
+            return KEEP;
+        }
+
+        /**
+         * Запись читается как удалённая: пока на уровнях ниже могут быть старые версии ключа,
+         * на её месте остаётся могильник.
+         */
+        public static Decision remove() {
+            return REMOVE;
+        }
+
+        public static Decision changeValue(final byte[] newValue) {
+            return new Decision(Action.CHANGE_VALUE, java.util.Objects.requireNonNull(newValue, "newValue"));
+        }
+    }
+}
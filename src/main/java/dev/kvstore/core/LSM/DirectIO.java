@@ -0,0 +1,156 @@
+package dev.kvstore.core.LSM;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Ввод-вывод SSTable мимо page cache (O_DIRECT) для компакции: потоковое чтение и запись целых уровней
+ * не вытесняют из кэша блоки, нужные точечным чтениям.
+ * <p>
+ * Буферы выровнены по блоку файловой системы, позиции и длины операций кратны ему.
+ * Где O_DIRECT нет (не Linux, tmpfs), открытие с ним падает, и файл открывается обычным образом.
+ */
+final class DirectIO {
+    private static final int DEFAULT_ALIGNMENT = 4096;
+
+    // размер выровненного буфера записи
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private static volatile boolean fallbackLogged;
+
+    private DirectIO() {
+    }
+
+    /**
+     * Поток записи нового файла: мимо page cache, если O_DIRECT доступен, иначе обычный.
+     */
+    static OutputStream newOutput(final Path path) throws IOException {
+        final FileChannel channel = open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (channel == null) {
+            return new FileOutputStream(path.toFile());
+        }
+        return new AlignedOutput(channel, alignment(path));
+    }
+
+    /**
+     * Канал для чтения мимо page cache, если O_DIRECT доступен, иначе обычный.
+     * Позиции и буферы чтений через него должны быть выровнены по {@link #alignment}.
+     */
+    static FileChannel openForRead(final Path path) throws IOException {
+        final FileChannel channel = open(path, StandardOpenOption.READ);
+        return channel != null ? channel : FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    // null — O_DIRECT не поддерживается
+    private static FileChannel open(final Path path, final StandardOpenOption... options) throws IOException {
+        final Set<OpenOption> all = new HashSet<>(List.of(options));
+        all.add(ExtendedOpenOption.DIRECT);
+        try {
+            return FileChannel.open(path, all);
+        } catch (UnsupportedOperationException | IOException e) {
+            if (!fallbackLogged) {
+                fallbackLogged = true;
+                System.err.println("Direct I/O is not available for " + path + ", using buffered I/O: " + e);
+            }
+            return null;
+        }
+    }
+
+    static int alignment(final Path path) {
+        try {
+            final Path dir = path.toAbsolutePath().getParent();
+            final long size = Files.getFileStore(dir).getBlockSize();
+            return size >= 512 && Long.bitCount(size) == 1 ? (int) size : DEFAULT_ALIGNMENT;
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_ALIGNMENT;
+        }
+    }
+
+    /**
+     * Direct-буфер ёмкостью {@code size}, адрес которого кратен {@code alignment}.
+     */
+    static ByteBuffer allocate(final int size, final int alignment) {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(size + alignment).alignedSlice(alignment);
+        buf.limit(size);
+        return buf.slice();
+    }
+
+    /**
+     * Копит запись в выровненном буфере и пишет его целиком; хвост дополняется нулями до границы блока,
+     * а при закрытии файл обрезается до настоящей длины.
+     */
+    private static final class AlignedOutput extends OutputStream {
+        private final FileChannel channel;
+
+        private final int alignment;
+
+        private final ByteBuffer buffer;
+
+        private long length;
+
+        AlignedOutput(final FileChannel channel, final int alignment) {
+            this.channel = channel;
+            this.alignment = alignment;
+            this.buffer = allocate(BUFFER_BYTES, alignment);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                final int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                length += n;
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                final int tail = buffer.position();
+                if (tail > 0) {
+                    final int padded = (tail + alignment - 1) / alignment * alignment;
+                    for (int i = tail; i < padded; i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    buffer.position(padded);
+                    drain();
+                }
+                channel.truncate(length);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
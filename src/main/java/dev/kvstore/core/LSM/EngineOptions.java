@@ -0,0 +1,339 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.CompressionType;
+import dev.kvstore.core.model.TableOptions;
+import dev.kvstore.core.model.WALSyncPolicy;
+import dev.kvstore.core.model.WriteStallPolicy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Настройки движка, которые задаются один раз при создании {@link LSMEngineImpl}.
+ * Сеттеры возвращают {@code this}, чтобы настройки можно было собирать цепочкой.
+ */
+public final class EngineOptions {
+
+    private CompactionFilter compactionFilter = CompactionFilter.NONE;
+
+    private MergeOperator mergeOperator;
+
+    private WALSyncPolicy walSyncPolicy = WALSyncPolicy.OS_MANAGED;
+
+    private long walSegmentBytes;
+
+    private boolean offHeapMemTable;
+
+    private MemTableRepType memTableRep = MemTableRepType.SKIP_LIST;
+
+    private WriteStallPolicy writeStallPolicy = WriteStallPolicy.DEFAULT;
+
+    private int multiGetParallelism = 8;
+
+    private int multiGetPartitionKeys = 64;
+
+    private long rowCacheBytes;
+
+    private int rowCacheShards = 16;
+
+    private long blockCacheBytes = 8 << 20;
+
+    private TableOptions tableOptions = TableOptions.DEFAULT.withFormatVersion(TableOptions.FORMAT_V2);
+
+    private List<CompressionType> compressionPerLevel = List.of();
+
+    private int minBlobSize;
+
+    private double blobGarbageRatio = 0.5;
+
+    private boolean compactionDirectIo;
+
+    private int compactionReadaheadBytes = 2 << 20;
+
+    private long scrubBytesPerSecond = 4 << 20;
+
+    private long scrubIntervalMillis = 60 * 60 * 1000;
+
+    private final Map<String, ColumnFamilyOptions> columnFamilies = new LinkedHashMap<>();
+
+    public CompactionFilter compactionFilter() {
+        return compactionFilter;
+    }
+
+    public EngineOptions compactionFilter(final CompactionFilter compactionFilter) {
+        this.compactionFilter = Objects.requireNonNull(compactionFilter, "compactionFilter");
+        return this;
+    }
+
+    /**
+     * {@code null}, если merge не используется.
+     */
+    public MergeOperator mergeOperator() {
+        return mergeOperator;
+    }
+
+    public EngineOptions mergeOperator(final MergeOperator mergeOperator) {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
+
+    public WALSyncPolicy walSyncPolicy() {
+        return walSyncPolicy;
+    }
+
+    public EngineOptions walSyncPolicy(final WALSyncPolicy walSyncPolicy) {
+        this.walSyncPolicy = Objects.requireNonNull(walSyncPolicy, "walSyncPolicy");
+        return this;
+    }
+
+    /**
+     * Размер преаллоцированного сегмента WAL; заполненный сегмент сменяется следующим.
+     * 0 — четверть суммарного бюджета memtable всех семейств.
+     */
+    public long walSegmentBytes() {
+        return walSegmentBytes;
+    }
+
+    public EngineOptions walSegmentBytes(final long walSegmentBytes) {
+        this.walSegmentBytes = walSegmentBytes;
+        return this;
+    }
+
+    /**
+     * Держать ключи и значения memtable в off-heap арене: куча не растёт с размером memtable.
+     * Только для {@link MemTableRepType#SKIP_LIST}.
+     */
+    public boolean offHeapMemTable() {
+        return offHeapMemTable;
+    }
+
+    public EngineOptions offHeapMemTable(final boolean offHeapMemTable) {
+        this.offHeapMemTable = offHeapMemTable;
+        return this;
+    }
+
+    public MemTableRepType memTableRep() {
+        return memTableRep;
+    }
+
+    public EngineOptions memTableRep(final MemTableRepType memTableRep) {
+        this.memTableRep = Objects.requireNonNull(memTableRep, "memTableRep");
+        return this;
+    }
+
+    public WriteStallPolicy writeStallPolicy() {
+        return writeStallPolicy;
+    }
+
+    public EngineOptions writeStallPolicy(final WriteStallPolicy writeStallPolicy) {
+        this.writeStallPolicy = Objects.requireNonNull(writeStallPolicy, "writeStallPolicy");
+        return this;
+    }
+
+    /**
+     * Сколько частей одного multiGet читаются параллельно; 1 — всё в вызывающем потоке.
+     */
+    public int multiGetParallelism() {
+        return multiGetParallelism;
+    }
+
+    public EngineOptions multiGetParallelism(final int multiGetParallelism) {
+        if (multiGetParallelism < 1) {
+            throw new IllegalArgumentException("multiGetParallelism must be >= 1");
+        }
+        this.multiGetParallelism = multiGetParallelism;
+        return this;
+    }
+
+    /**
+     * Меньше стольких ключей на часть multiGet не делится: мелкие части не окупают переключение потоков.
+     */
+    public int multiGetPartitionKeys() {
+        return multiGetPartitionKeys;
+    }
+
+    public EngineOptions multiGetPartitionKeys(final int multiGetPartitionKeys) {
+        if (multiGetPartitionKeys < 1) {
+            throw new IllegalArgumentException("multiGetPartitionKeys must be >= 1");
+        }
+        this.multiGetPartitionKeys = multiGetPartitionKeys;
+        return this;
+    }
+
+    /**
+     * Бюджет кэша разрешённых значений для точечного чтения, у каждого семейства свой; 0 — кэш выключен.
+     */
+    public long rowCacheBytes() {
+        return rowCacheBytes;
+    }
+
+    public EngineOptions rowCacheBytes(final long rowCacheBytes) {
+        if (rowCacheBytes < 0) {
+            throw new IllegalArgumentException("rowCacheBytes must be >= 0");
+        }
+        this.rowCacheBytes = rowCacheBytes;
+        return this;
+    }
+
+    public int rowCacheShards() {
+        return rowCacheShards;
+    }
+
+    public EngineOptions rowCacheShards(final int rowCacheShards) {
+        if (rowCacheShards < 1) {
+            throw new IllegalArgumentException("rowCacheShards must be >= 1");
+        }
+        this.rowCacheShards = rowCacheShards;
+        return this;
+    }
+
+    /**
+     * Раскладка SSTable семейства по умолчанию.
+     */
+    public TableOptions tableOptions() {
+        return tableOptions;
+    }
+
+    public EngineOptions tableOptions(final TableOptions tableOptions) {
+        this.tableOptions = Objects.requireNonNull(tableOptions, "tableOptions");
+        return this;
+    }
+
+    /**
+     * Бюджет кэша распакованных блоков SSTable, один на движок; 0 — кэш выключен.
+     */
+    public long blockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public EngineOptions blockCacheBytes(final long blockCacheBytes) {
+        if (blockCacheBytes < 0) {
+            throw new IllegalArgumentException("blockCacheBytes must be >= 0");
+        }
+        this.blockCacheBytes = blockCacheBytes;
+        return this;
+    }
+
+    /**
+     * Сжатие блоков по уровням: уровень i берёт элемент i, уровни глубже списка — последний.
+     * Пустой список — сжатие из {@code tableOptions} на всех уровнях.
+     */
+    public List<CompressionType> compressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    public EngineOptions compressionPerLevel(final CompressionType... compressionPerLevel) {
+        this.compressionPerLevel = List.of(compressionPerLevel);
+        return this;
+    }
+
+    /**
+     * Значения не короче этого порога уходят в blob-файлы, в SSTable остаётся ссылка; 0 — не выносить.
+     */
+    public int minBlobSize() {
+        return minBlobSize;
+    }
+
+    public EngineOptions minBlobSize(final int minBlobSize) {
+        if (minBlobSize < 0) {
+            throw new IllegalArgumentException("minBlobSize must be >= 0");
+        }
+        this.minBlobSize = minBlobSize;
+        return this;
+    }
+
+    /**
+     * Доля мусора в blob-файле, с которой компакция переписывает его живые значения в новый файл.
+     */
+    public double blobGarbageRatio() {
+        return blobGarbageRatio;
+    }
+
+    public EngineOptions blobGarbageRatio(final double blobGarbageRatio) {
+        if (blobGarbageRatio <= 0 || blobGarbageRatio > 1) {
+            throw new IllegalArgumentException("blobGarbageRatio must be in (0, 1]");
+        }
+        this.blobGarbageRatio = blobGarbageRatio;
+        return this;
+    }
+
+    /**
+     * Компакция читает входные и пишет выходные SSTable мимо page cache (O_DIRECT), чтобы не вытеснять
+     * блоки точечных чтений. Точечные чтения и flush идут через page cache; без O_DIRECT — обычный ввод-вывод.
+     */
+    public boolean compactionDirectIo() {
+        return compactionDirectIo;
+    }
+
+    public EngineOptions compactionDirectIo(final boolean compactionDirectIo) {
+        this.compactionDirectIo = compactionDirectIo;
+        return this;
+    }
+
+    /**
+     * Компакция читает входные SSTable последовательно кусками такого размера, следующий — в фоне,
+     * пока разбирается текущий.
+     */
+    public int compactionReadaheadBytes() {
+        return compactionReadaheadBytes;
+    }
+
+    public EngineOptions compactionReadaheadBytes(final int compactionReadaheadBytes) {
+        if (compactionReadaheadBytes <= 0) {
+            throw new IllegalArgumentException("compactionReadaheadBytes must be > 0");
+        }
+        this.compactionReadaheadBytes = compactionReadaheadBytes;
+        return this;
+    }
+
+    /**
+     * Сколько байт в секунду читает фоновая проверка контрольных сумм SSTable.
+     */
+    public long scrubBytesPerSecond() {
+        return scrubBytesPerSecond;
+    }
+
+    public EngineOptions scrubBytesPerSecond(final long scrubBytesPerSecond) {
+        if (scrubBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("scrubBytesPerSecond must be > 0");
+        }
+        this.scrubBytesPerSecond = scrubBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Пауза между проходами фоновой проверки контрольных сумм; 0 — фоновая проверка выключена.
+     */
+    public long scrubIntervalMillis() {
+        return scrubIntervalMillis;
+    }
+
+    public EngineOptions scrubIntervalMillis(final long scrubIntervalMillis) {
+        if (scrubIntervalMillis < 0) {
+            throw new IllegalArgumentException("scrubIntervalMillis must be >= 0");
+        }
+        this.scrubIntervalMillis = scrubIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Добавляет семейство столбцов. Семейство по умолчанию настраивается самими {@code EngineOptions}.
+     */
+    public EngineOptions columnFamily(final String name, final ColumnFamilyOptions options) {
+        if (name == null || !name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Column family name must match [A-Za-z0-9_-]+: " + name);
+        }
+        if ("default".equals(name)) {
+            throw new IllegalArgumentException("The default column family is configured by EngineOptions");
+        }
+        columnFamilies.put(name, Objects.requireNonNull(options, "options"));
+        return this;
+    }
+
+    public Map<String, ColumnFamilyOptions> columnFamilies() {
+        return Collections.unmodifiableMap(columnFamilies);
+    }
+}
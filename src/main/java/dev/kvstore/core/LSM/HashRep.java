@@ -0,0 +1,115 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Версии в хэш-таблице по ключу: точечное чтение без сравнений по пути skiplist.
+ * Версии ключа — неизменяемый массив от новой к старой, вставка заменяет его копией
+ * под монитором ключа; у ключа обычно немного версий. Порядок ключей строится только при обходе.
+ */
+final class HashRep implements MemTableRep {
+    private static final Versioned[] NO_VERSIONS = new Versioned[0];
+
+    private final ConcurrentHashMap<Key, Versions> table = new ConcurrentHashMap<>();
+
+    private final AtomicLong sizeInBytes = new AtomicLong(0);
+
+    @Override
+    public void insert(final Entry entry, final long seq) {
+        // один поиск по таблице и на вставку, и на учёт размера
+        final Versions versions = table.computeIfAbsent(new Key(entry.key()), k -> new Versions());
+        versions.add(new Versioned(entry, seq));
+        sizeInBytes.addAndGet(SkipListRep.calculateEntrySize(entry));
+    }
+
+    @Override
+    public Iterable<Entry> versions(final byte[] key, final long maxSeq) {
+        final Versions versions = table.get(new Key(key));
+        if (versions == null) {
+            return List.of();
+        }
+        final Versioned[] items = versions.items;
+        final List<Entry> out = new ArrayList<>(items.length);
+        for (Versioned v : items) {
+            if (v.seq() <= maxSeq) {
+                out.add(v.entry());
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        final List<Key> keys = new ArrayList<>(table.keySet());
+        keys.sort((a, b) -> Arrays.compare(a.bytes(), b.bytes()));
+        final List<Entry> out = new ArrayList<>();
+        for (Key k : keys) {
+            for (Versioned v : table.get(k).items) {
+                out.add(v.entry());
+            }
+        }
+        return out.iterator();
+    }
+
+    @Override
+    public long memoryUsage() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return table.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+        sizeInBytes.set(0);
+    }
+
+    private static final class Versions {
+        // от новой к старой; заменяется целиком, читатели берут без блокировки
+        volatile Versioned[] items = NO_VERSIONS;
+
+        synchronized void add(final Versioned v) {
+            final Versioned[] cur = items;
+            // номера приходят почти по порядку, поэтому место ищем с головы
+            int at = 0;
+            while (at < cur.length && cur[at].seq() > v.seq()) {
+                at++;
+            }
+            final Versioned[] next = new Versioned[cur.length + 1];
+            System.arraycopy(cur, 0, next, 0, at);
+            next[at] = v;
+            System.arraycopy(cur, at, next, at + 1, cur.length - at);
+            items = next;
+        }
+    }
+
+    private record Versioned(Entry entry, long seq) {
+    }
+
+    private record Key(byte[] bytes, int hash) {
+        Key(final byte[] bytes) {
+            this(bytes, Arrays.hashCode(bytes));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key k && hash == k.hash && Arrays.equals(bytes, k.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
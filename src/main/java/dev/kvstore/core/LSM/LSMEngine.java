@@ -1,30 +1,129 @@
 package dev.kvstore.core.LSM;
 
 import dev.kvstore.core.KVException;
+import dev.kvstore.core.PartialWriteException;
 import dev.kvstore.core.model.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 public interface LSMEngine {
-    Entry get(byte[] key, ReadOptions options) throws KVException, IOException;
+
+    /**
+     * Семейство столбцов по имени; семейство по умолчанию — {@link ColumnFamilyHandle#DEFAULT}.
+     *
+     * @throws KVException если семейство не настроено
+     */
+    ColumnFamilyHandle columnFamily(String name) throws KVException;
+
+    Entry get(ColumnFamilyHandle family, byte[] key, ReadOptions options) throws KVException, IOException;
+
+    default Entry get(byte[] key, ReadOptions options) throws KVException, IOException {
+        return get(ColumnFamilyHandle.DEFAULT, key, options);
+    }
 
     default Entry get(byte[] key) throws KVException, IOException {
         return get(key, ReadOptions.DEFAULT);
     }
 
-    boolean put(byte[] key, byte[] value, PutOptions options) throws KVException, IOException;
+    /**
+     * Читает несколько ключей из одного среза: ключи сортируются, и каждая таблица проходится один раз,
+     * так что ключи из одного блока разделяют одно чтение.
+     *
+     * @return записи в порядке {@code keys}; {@code null} — ключа нет
+     */
+    List<Entry> multiGet(ColumnFamilyHandle family, List<byte[]> keys, ReadOptions options)
+            throws KVException, IOException;
+
+    default List<Entry> multiGet(List<byte[]> keys, ReadOptions options) throws KVException, IOException {
+        return multiGet(ColumnFamilyHandle.DEFAULT, keys, options);
+    }
+
+    default List<Entry> multiGet(List<byte[]> keys) throws KVException, IOException {
+        return multiGet(keys, ReadOptions.DEFAULT);
+    }
+
+    /**
+     * {@link #get} без блокировки вызывающего: срез берётся в момент вызова, чтения SSTable идут
+     * в пуле чтений движка. Ошибка чтения завершает future исключением.
+     */
+    CompletableFuture<Entry> getAsync(ColumnFamilyHandle family, byte[] key, ReadOptions options);
+
+    default CompletableFuture<Entry> getAsync(byte[] key, ReadOptions options) {
+        return getAsync(ColumnFamilyHandle.DEFAULT, key, options);
+    }
+
+    /**
+     * {@link #multiGet} без блокировки вызывающего, см. {@link #getAsync}.
+     */
+    CompletableFuture<List<Entry>> multiGetAsync(ColumnFamilyHandle family, List<byte[]> keys, ReadOptions options);
+
+    default CompletableFuture<List<Entry>> multiGetAsync(List<byte[]> keys, ReadOptions options) {
+        return multiGetAsync(ColumnFamilyHandle.DEFAULT, keys, options);
+    }
+
+    boolean put(ColumnFamilyHandle family, byte[] key, byte[] value, PutOptions options)
+            throws KVException, IOException;
+
+    default boolean put(byte[] key, byte[] value, PutOptions options) throws KVException, IOException {
+        return put(ColumnFamilyHandle.DEFAULT, key, value, options);
+    }
 
     default boolean put(byte[] key, byte[] value) throws KVException, IOException {
         return put(key, value, PutOptions.DEFAULT);
     }
 
-    boolean delete(byte[] key, DeleteOptions options) throws KVException, IOException;
+    boolean delete(ColumnFamilyHandle family, byte[] key, DeleteOptions options) throws KVException, IOException;
+
+    default boolean delete(byte[] key, DeleteOptions options) throws KVException, IOException {
+        return delete(ColumnFamilyHandle.DEFAULT, key, options);
+    }
 
     default boolean delete(byte[] key) throws KVException, IOException {
         return delete(key, DeleteOptions.DEFAULT);
     }
 
+    /**
+     * Дописывает операнд для ключа без чтения текущего значения.
+     * Требует {@link MergeOperator}, зарегистрированного для семейства.
+     */
+    boolean merge(ColumnFamilyHandle family, byte[] key, byte[] operand, PutOptions options)
+            throws KVException, IOException;
+
+    default boolean merge(byte[] key, byte[] operand, PutOptions options) throws KVException, IOException {
+        return merge(ColumnFamilyHandle.DEFAULT, key, operand, options);
+    }
+
+    default boolean merge(byte[] key, byte[] operand) throws KVException, IOException {
+        return merge(key, operand, PutOptions.DEFAULT);
+    }
+
+    /**
+     * Атомарно применяет пакет записей: одна запись WAL, и читатели видят либо весь пакет, либо ничего.
+     * Записи пакета могут относиться к разным семействам.
+     *
+     * @param families семейство каждой записи пакета; {@code null} — все в семействе по умолчанию
+     */
+    void write(List<Entry> batch, List<ColumnFamilyHandle> families, boolean sync) throws KVException, IOException;
+
+    default void write(List<Entry> batch, boolean sync) throws KVException, IOException {
+        write(batch, null, sync);
+    }
+
+    /**
+     * Как {@link #write(List, List, boolean)}, но атомарно только в пределах шарда, поэтому пакет
+     * может занимать несколько шардов. Без шардов — то же, что {@code write}.
+     *
+     * @throws PartialWriteException часть пакета применена; исключение перечисляет, какая
+     */
+    default void writePerShard(List<Entry> batch, List<ColumnFamilyHandle> families, boolean sync)
+            throws KVException, IOException {
+        write(batch, families, sync);
+    }
+
     ScanCursor scan(KeyRange range, ReadOptions options) throws KVException;
 
     default ScanCursor scan(KeyRange range) throws KVException {
@@ -33,6 +132,30 @@ public interface LSMEngine {
 
     void flush() throws KVException, IOException;
 
+    /**
+     * Состояние торможения записи: пороги по L0, очереди на flush и долгу компакции.
+     */
+    WriteStallStats writeStallStats();
+
+    /**
+     * Сверяет контрольные суммы всех блоков всех SSTable, не быстрее лимита фоновой проверки.
+     * Тот же проход движок запускает в фоне по расписанию; битые файлы пишутся в лог.
+     *
+     * @return битые файлы, найденные этим проходом
+     */
+    List<File> scrub();
+
     // убирать могильники для лабы 3?
     void compact() throws KVException;
+
+    /**
+     * Ручная компакция: сливает уровень {@code level} семейства в следующий независимо от порога
+     * и возвращается, когда новая таблица установлена. Выполняется в очереди фоновых компакций.
+     */
+    void compactLevel(ColumnFamilyHandle family, int level) throws KVException, IOException;
+
+    /**
+     * Ждёт компакции, которые уже стоят в очереди, в том числе запланированные последним flush.
+     */
+    void awaitCompactions() throws IOException;
 }
@@ -7,99 +7,755 @@ import dev.kvstore.core.model.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
+/**
+ * LSM-движок с семействами столбцов. У каждого семейства свои memtable, SSTable, раскладка блоков
+ * и компакция, а WAL, номера записей и очередь flush общие: пакет через несколько семейств
+ * пишется одной записью WAL, и memtable всех семейств сбрасываются вместе.
+ */
 public class LSMEngineImpl implements LSMEngine {
 
-    private MemTable memTable;
+    private static final long MIN_WAL_SEGMENT_BYTES = 64 << 10;
 
-    private WAL wal;
+    // на сколько сегментов WAL делится бюджет memtable по умолчанию
+    private static final int WAL_SEGMENTS_PER_MEMTABLE_BUDGET = 4;
+
+    // номера семейств по именам, строки «id имя»; номер пишется в WAL, поэтому не меняется
+    private static final String FAMILIES_FILE = "COLUMN_FAMILIES";
+
+    private static final int BLOCK_CACHE_SHARDS = 16;
 
-    private Map<Integer, List<SSTable>> levels = new TreeMap<>();
+    // по номеру семейства
+    private final ColumnFamily[] families;
+
+    private WAL wal;
 
     private final String dir;
 
     private final long memSize;
 
+    private final EngineOptions engineOptions;
+
+    // уникальный суффикс имён SSTable
+    private final AtomicLong fileNumber = new AtomicLong(0);
+
     private final ExecutorService compactor = Executors.newSingleThreadExecutor();
 
+    // замороженные memtable пишутся в SSTable по очереди, в порядке заморозки
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "lsm-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final ReadWriteLock levelsLock =
             new ReentrantReadWriteLock();
 
+    // писатели держат read-lock, смена memtable — write-lock,
+    // поэтому запись в WAL и в memtable всегда попадает в одно поколение
+    private final ReadWriteLock memLock =
+            new ReentrantReadWriteLock();
+
+    // смена memtable выполняется по одному
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // последний поставленный в очередь flush, под flushLock
+    private Future<?> lastFlush = CompletableFuture.completedFuture(null);
+
+    // первая ошибка фонового flush: после неё запись запрещена, данные остаются в WAL
+    private volatile Throwable backgroundError;
+
+    private final VisibleSequence visibleSequence = new VisibleSequence();
+
+    private final WriteController writeController;
+
+    // распакованные блоки SSTable всех семейств; null, если кэш выключен
+    private final BlockCache blockCache;
+
+    // параллельные части multiGet; на JDK 21+ — виртуальные потоки
+    private final ExecutorService readExecutor = VirtualThreads.newExecutor("lsm-read");
+
+    private final ChecksumScrubber scrubber;
+
+    // фоновые проходы скраббера; null, если фоновая проверка выключена
+    private final ScheduledExecutorService scrubExecutor;
+
     public LSMEngineImpl(final String dir, final long memSize) throws IOException {
+        this(dir, memSize, new EngineOptions());
+    }
+
+    public LSMEngineImpl(final String dir, final long memSize, final EngineOptions options) throws IOException {
         this.dir = dir;
+        this.engineOptions = options;
+        this.writeController = new WriteController(options.writeStallPolicy());
+        this.blockCache = options.blockCacheBytes() > 0
+                ? new BlockCache(options.blockCacheBytes(), BLOCK_CACHE_SHARDS)
+                : null;
 
         final var d = new File(dir);
         if (!d.exists() && !d.mkdirs()) {
             throw new IOException("Cannot create data dir: " + dir);
         }
         this.memSize = memSize;
-        this.memTable = new MemTable(memSize);
-        this.wal = new WALImpl(dir + File.separator + "wal.log");
+        this.families = openFamilies();
+        final long segmentBytes = options.walSegmentBytes() > 0
+                ? options.walSegmentBytes()
+                : defaultWalSegmentBytes(families);
+        this.wal = new WALImpl(dir + File.separator + "wal.log", options.walSyncPolicy(), segmentBytes);
         replayWAL();
+
+        this.scrubber = new ChecksumScrubber(options.scrubBytesPerSecond());
+        if (options.scrubIntervalMillis() > 0) {
+            this.scrubExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "lsm-scrub");
+                t.setDaemon(true);
+                return t;
+            });
+            scrubExecutor.scheduleWithFixedDelay(this::scrub, options.scrubIntervalMillis(),
+                    options.scrubIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.scrubExecutor = null;
+        }
+    }
+
+    /**
+     * Состояние одного семейства: memTable меняется под memLock на запись,
+     * immutables и levels — под levelsLock.
+     */
+    private static final class ColumnFamily {
+        final ColumnFamilyHandle handle;
+
+        final String dir;
+
+        final ColumnFamilyOptions options;
+
+        final long memSize;
+
+        volatile MemTable memTable;
+
+        // заполненные memtable, которые ещё пишутся в SSTable; от старой к новой
+        final List<MemTable> immutables = new ArrayList<>();
+
+        final NavigableMap<Integer, List<SSTable>> levels = new TreeMap<>();
+
+        // null, если кэш строк выключен
+        final RowCache rowCache;
+
+        final BlobStore blobs;
+
+        ColumnFamily(final ColumnFamilyHandle handle, final String dir, final ColumnFamilyOptions options,
+                     final long memSize, final RowCache rowCache) {
+            this.handle = handle;
+            this.dir = dir;
+            this.options = options;
+            this.memSize = memSize;
+            this.rowCache = rowCache;
+            this.blobs = new BlobStore(dir, options.blobGarbageRatio());
+        }
+    }
+
+    /**
+     * Читает реестр семейств, дописывает в него новые из настроек и создаёт их состояние.
+     * Семейство из реестра, которого нет в настройках, открывается с настройками по умолчанию:
+     * его записи могут лежать в WAL.
+     */
+    private ColumnFamily[] openFamilies() throws IOException {
+        final Path file = Path.of(dir, FAMILIES_FILE);
+        final Map<String, Integer> ids = new LinkedHashMap<>();
+        ids.put(ColumnFamilyHandle.DEFAULT.name(), ColumnFamilyHandle.DEFAULT.id());
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                final String[] parts = line.trim().split(" ", 2);
+                ids.put(parts[1], Integer.parseInt(parts[0]));
+            }
+        }
+        boolean added = false;
+        for (String name : engineOptions.columnFamilies().keySet()) {
+            if (!ids.containsKey(name)) {
+                ids.put(name, ids.size());
+                added = true;
+            }
+        }
+        if (added) {
+            final StringBuilder sb = new StringBuilder();
+            ids.forEach((name, id) -> sb.append(id).append(' ').append(name).append('\n'));
+            final Path tmp = Path.of(dir, FAMILIES_FILE + ".tmp");
+            Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        final ColumnFamily[] out = new ColumnFamily[ids.size()];
+        for (Map.Entry<String, Integer> e : ids.entrySet()) {
+            final String name = e.getKey();
+            final int id = e.getValue();
+            if (id < 0 || id >= out.length || out[id] != null) {
+                throw new IOException("Corrupted column family registry: " + file);
+            }
+            final boolean isDefault = id == ColumnFamilyHandle.DEFAULT.id();
+            final ColumnFamilyOptions cfOptions = isDefault
+                    ? new ColumnFamilyOptions()
+                    .tableOptions(engineOptions.tableOptions())
+                    .compressionPerLevel(engineOptions.compressionPerLevel().toArray(new CompressionType[0]))
+                    .compactionFilter(engineOptions.compactionFilter())
+                    .mergeOperator(engineOptions.mergeOperator())
+                    .minBlobSize(engineOptions.minBlobSize())
+                    .blobGarbageRatio(engineOptions.blobGarbageRatio())
+                    : engineOptions.columnFamilies().getOrDefault(name, new ColumnFamilyOptions());
+            final String cfDir = isDefault ? dir : dir + File.separator + "cf-" + name;
+            Files.createDirectories(Path.of(cfDir));
+            final RowCache cache = engineOptions.rowCacheBytes() > 0
+                    ? new RowCache(engineOptions.rowCacheBytes(), engineOptions.rowCacheShards())
+                    : null;
+            final long cfMemSize = cfOptions.memTableSize() > 0 ? cfOptions.memTableSize() : memSize;
+            out[id] = new ColumnFamily(new ColumnFamilyHandle(name, id), cfDir, cfOptions, cfMemSize, cache);
+            out[id].memTable = newMemTable(out[id]);
+        }
+        return out;
     }
 
+    /**
+     * Лог общий для всех семейств, поэтому считаем от суммы их memtable. Сколько займут записи
+     * с заголовками, заранее не известно, да и не нужно: заполненный сегмент WAL сменяет сам,
+     * а четверть бюджета ограничивает пустой хвост последнего сегмента memtable.
+     */
+    private static long defaultWalSegmentBytes(final ColumnFamily[] families) {
+        long budget = 0;
+        for (ColumnFamily cf : families) {
+            budget += cf.memSize;
+        }
+        return Math.max(MIN_WAL_SEGMENT_BYTES, budget / WAL_SEGMENTS_PER_MEMTABLE_BUDGET);
+    }
 
     @Override
-    public Entry get(final byte[] key, final ReadOptions options) throws KVException, IOException {
-        Entry entry = memTable.get(key);
-        if (entry != null) {
-            return entry.tombstone() ? null : entry;
+    public ColumnFamilyHandle columnFamily(final String name) throws KVException {
+        for (ColumnFamily cf : families) {
+            if (cf.handle.name().equals(name)) {
+                return cf.handle;
+            }
         }
+        throw new KVException("Unknown column family: " + name);
+    }
 
-        final NavigableMap<Integer, List<SSTable>> snapshot = new TreeMap<>();
+    private ColumnFamily family(final ColumnFamilyHandle handle) throws KVException {
+        final int id = handle.id();
+        if (id >= 0 && id < families.length && families[id].handle.equals(handle)) {
+            return families[id];
+        }
+        throw new KVException("Unknown column family: " + handle.name());
+    }
+
+
+    /**
+     * Согласованный срез для чтения: граница видимости и все memtable и таблицы на этот момент.
+     *
+     * @param memTables memtable от новой к старой
+     * @param tables    таблицы от новой к старой: уровни по возрастанию, внутри уровня с конца списка;
+     *                  срез держит ссылки на них и на memtable, пока не закрыт
+     */
+    private record ReadView(long sequence, List<MemTable> memTables, List<SSTable> tables,
+                            MergeOperator mergeOperator, BlobStore blobs) implements AutoCloseable {
+
+        @Override
+        public void close() {
+            for (MemTable memTable : memTables) {
+                memTable.release();
+            }
+            for (SSTable table : tables) {
+                table.release();
+            }
+        }
+    }
+
+    private ReadView readView(final ColumnFamily cf) {
+        final long sequence = visibleSequence.get();
+        final List<MemTable> memTables = new ArrayList<>();
+        final List<SSTable> tables = new ArrayList<>();
         levelsLock.readLock().lock();
         try {
-            for (var e : levels.entrySet()) {
-                snapshot.put(e.getKey(), new ArrayList<>(e.getValue()));
+            memTables.add(cf.memTable);
+            for (int i = cf.immutables.size() - 1; i >= 0; i--) {
+                memTables.add(cf.immutables.get(i));
+            }
+            // активную memtable меняют под этой же блокировкой на запись, а отпускают только из immutables
+            for (MemTable memTable : memTables) {
+                memTable.retain();
+            }
+            // таблицы добавляются в конец списка уровня,
+            // а mtime файлов совпадает у таблиц, записанных в одну миллисекунду
+            for (List<SSTable> level : cf.levels.values()) {
+                for (int i = level.size() - 1; i >= 0; i--) {
+                    level.get(i).retain();
+                    tables.add(level.get(i));
+                }
             }
         } finally {
             levelsLock.readLock().unlock();
         }
+        return new ReadView(sequence, memTables, tables, cf.options.mergeOperator(), cf.blobs);
+    }
+
+    @Override
+    public Entry get(final ColumnFamilyHandle family, final byte[] key, final ReadOptions options)
+            throws KVException, IOException {
+        final ColumnFamily cf = family(family);
+        final RowCache cache = cf.rowCache;
+        if (cache == null) {
+            try (ReadView view = readView(cf)) {
+                return get(view, key, options.verifyChecksums());
+            }
+        }
+        final Entry cached = cache.get(key);
+        if (cached != null) {
+            return RowCache.isAbsent(cached) || cached.expired(System.currentTimeMillis()) ? null : cached;
+        }
+        // штамп до среза: если ключ перепишут, пока читаем, устаревший результат в кэш не попадёт
+        final long stamp = cache.stamp(key);
+        final Entry entry;
+        try (ReadView view = readView(cf)) {
+            entry = get(view, key, options.verifyChecksums());
+        }
+        cache.fill(key, entry, stamp);
+        return entry;
+    }
+
+    private Entry get(final ReadView view, final byte[] key, final boolean verifyChecksums) throws IOException {
+        // операнды merge, встреченные выше базовой записи, от нового к старому
+        final List<byte[]> operands = new ArrayList<>();
+        final Entry base = findInMemTables(view, key, operands);
+        if (base != null) {
+            return resolve(view, key, base, operands);
+        }
+        return getFromTables(view, key, operands, verifyChecksums);
+    }
+
+    private static Entry findInMemTables(final ReadView view, final byte[] key, final List<byte[]> operands) {
+        Entry base = null;
+        for (int i = 0; base == null && i < view.memTables().size(); i++) {
+            base = findInMemTable(view.memTables().get(i), key, view.sequence(), operands);
+        }
+        return base;
+    }
+
+    // продолжение get, когда базовой записи в memtable нет: только здесь чтения с диска
+    private static Entry getFromTables(final ReadView view, final byte[] key, final List<byte[]> operands,
+                                       final boolean verifyChecksums) throws IOException {
+        for (final SSTable sst : view.tables()) {
+            final Entry entry = materialize(view.blobs(), sst.search(key, verifyChecksums));
+            if (entry == null) {
+                continue;
+            }
+            if (!entry.merge()) {
+                return resolve(view, key, entry, operands);
+            }
+            operands.add(entry.value());
+        }
+        return resolve(view, key, null, operands);
+    }
 
+    /**
+     * Ответ из кэша строк или memtable готов сразу, в потоке вызывающего. Иначе срез берётся сейчас,
+     * а таблицы читаются в {@code readExecutor}, и future завершается там же.
+     */
+    @Override
+    public CompletableFuture<Entry> getAsync(final ColumnFamilyHandle family, final byte[] key,
+                                             final ReadOptions options) {
+        final ColumnFamily cf;
+        try {
+            cf = family(family);
+        } catch (KVException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final RowCache cache = cf.rowCache;
+        long stamp = 0;
+        if (cache != null) {
+            final Entry cached = cache.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(
+                        RowCache.isAbsent(cached) || cached.expired(System.currentTimeMillis()) ? null : cached);
+            }
+            stamp = cache.stamp(key);
+        }
+        final long cacheStamp = stamp;
+        final ReadView view = readView(cf);
+        final List<byte[]> operands = new ArrayList<>();
+        final Entry base = findInMemTables(view, key, operands);
+        if (base != null) {
+            final Entry entry;
+            try (view) {
+                entry = resolve(view, key, base, operands);
+            }
+            if (cache != null) {
+                cache.fill(key, entry, cacheStamp);
+            }
+            return CompletableFuture.completedFuture(entry);
+        }
+        return readAsync(view, () -> {
+            final Entry entry = getFromTables(view, key, operands, options.verifyChecksums());
+            if (cache != null) {
+                cache.fill(key, entry, cacheStamp);
+            }
+            return entry;
+        });
+    }
+
+    @Override
+    public List<Entry> multiGet(final ColumnFamilyHandle family, final List<byte[]> keys,
+                                final ReadOptions options) throws KVException, IOException {
+        final ColumnFamily cf = family(family);
+        final int n = keys.size();
+        if (n == 0) {
+            return Arrays.asList(new Entry[0]);
+        }
+        try (ReadView view = readView(cf)) {
+            return multiGet(view, keys, options.verifyChecksums());
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Entry>> multiGetAsync(final ColumnFamilyHandle family, final List<byte[]> keys,
+                                                        final ReadOptions options) {
+        final ColumnFamily cf;
+        try {
+            cf = family(family);
+        } catch (KVException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(new Entry[0]));
+        }
+        final ReadView view = readView(cf);
+        return readAsync(view, () -> multiGet(view, keys, options.verifyChecksums()));
+    }
+
+    private interface ViewRead<T> {
+        T read() throws IOException;
+    }
+
+    // выполняет чтение среза в readExecutor и закрывает срез после него
+    private <T> CompletableFuture<T> readAsync(final ReadView view, final ViewRead<T> read) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            readExecutor.execute(() -> {
+                try (view) {
+                    result.complete(read.read());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            view.close();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private List<Entry> multiGet(final ReadView view, final List<byte[]> keys, final boolean verifyChecksums)
+            throws IOException {
+        final int n = keys.size();
+        final Entry[] out = new Entry[n];
+        // позиции ключей в порядке сортировки: таблицу проходим один раз по возрастанию ключей
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compare(keys.get(a), keys.get(b)));
+
+        // большой пакет режем на непрерывные диапазоны ключей; все диапазоны читают один срез
+        final int partitions = Math.min(engineOptions.multiGetParallelism(),
+                (n + engineOptions.multiGetPartitionKeys() - 1) / engineOptions.multiGetPartitionKeys());
+        if (partitions <= 1) {
+            multiGetSorted(view, keys, Arrays.asList(order), out, verifyChecksums);
+            return Arrays.asList(out);
+        }
+
+        final List<Future<?>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final List<Integer> part = Arrays.asList(order).subList(n * p / partitions, n * (p + 1) / partitions);
+            tasks.add(readExecutor.submit(() -> {
+                multiGetSorted(view, keys, part, out, verifyChecksums);
+                return null;
+            }));
+        }
+        // ждём все части, даже если одна упала: срез нельзя закрыть, пока его кто-то читает
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof IOException io) {
+            throw io;
+        }
+        if (failure != null) {
+            throw new IOException("multiGet failed", failure);
+        }
+        return Arrays.asList(out);
+    }
 
-        for (var lvl : snapshot.navigableKeySet()) {
-            // от нового к старому
-            final var tables = new ArrayList<>(snapshot.get(lvl));
-            tables.sort(Comparator.comparingLong(SSTable::createdAtMillis).reversed());
+    /**
+     * Разрешает ключи на позициях {@code sorted} (по возрастанию ключей) и пишет результаты в {@code out}.
+     */
+    private void multiGetSorted(final ReadView view, final List<byte[]> keys, final List<Integer> sorted,
+                                final Entry[] out, final boolean verifyChecksums) throws IOException {
+        final Map<Integer, List<byte[]>> operands = new HashMap<>();
+        List<Integer> pending = new ArrayList<>(sorted.size());
+        for (final int pos : sorted) {
+            final byte[] key = keys.get(pos);
+            final List<byte[]> keyOperands = new ArrayList<>();
+            Entry base = null;
+            for (int i = 0; base == null && i < view.memTables().size(); i++) {
+                base = findInMemTable(view.memTables().get(i), key, view.sequence(), keyOperands);
+            }
+            if (base != null) {
+                out[pos] = resolve(view, key, base, keyOperands);
+            } else {
+                pending.add(pos);
+                if (!keyOperands.isEmpty()) {
+                    operands.put(pos, keyOperands);
+                }
+            }
+        }
 
-            for (final SSTable sst : tables) {
-                entry = sst.search(key);
-                if (entry != null) {
-                    return entry.tombstone() ? null : entry;
+        final List<byte[]> sortedKeys = new ArrayList<>(pending.size());
+        for (final SSTable sst : view.tables()) {
+            if (pending.isEmpty()) {
+                break;
+            }
+            sortedKeys.clear();
+            for (final int pos : pending) {
+                sortedKeys.add(keys.get(pos));
+            }
+            final Entry[] found = sst.multiSearch(sortedKeys, verifyChecksums);
+            final List<Integer> still = new ArrayList<>(pending.size());
+            for (int k = 0; k < found.length; k++) {
+                final int pos = pending.get(k);
+                final Entry entry = materialize(view.blobs(), found[k]);
+                if (entry == null) {
+                    still.add(pos);
+                } else if (!entry.merge()) {
+                    out[pos] = resolve(view, keys.get(pos), entry, operands.getOrDefault(pos, List.of()));
+                } else {
+                    operands.computeIfAbsent(pos, x -> new ArrayList<>()).add(entry.value());
+                    still.add(pos);
                 }
             }
+            pending = still;
+        }
+        for (final int pos : pending) {
+            out[pos] = resolve(view, keys.get(pos), null, operands.getOrDefault(pos, List.of()));
+        }
+    }
+
+    /**
+     * @return базовая запись (значение или могильник) или {@code null}, если в memtable только операнды или ничего
+     */
+    private static Entry findInMemTable(final MemTable table, final byte[] key, final long sequence,
+                                        final List<byte[]> operands) {
+        for (final Entry entry : table.getVersions(key, sequence)) {
+            if (!entry.merge()) {
+                return entry;
+            }
+            operands.add(entry.value());
         }
         return null;
     }
 
-    @Override
-    public boolean put(final byte[] key, final byte[] value, final PutOptions options) throws KVException, IOException {
-        final Entry e = new Entry(key, value, false);
-        memTable.set(e);
-        wal.write(e, WALOperationType.PUT);
-        if (memTable.isFull()) {
-            flush();
+    /**
+     * Подставляет значение из blob-файла вместо ссылки; срез держит таблицу, а она — blob-файл.
+     */
+    private static Entry materialize(final BlobStore blobs, final Entry entry) throws IOException {
+        if (entry == null || !entry.blob()) {
+            return entry;
         }
+        return entry.withValue(blobs.read(entry.value()));
+    }
+
+    private static Entry resolve(final ReadView view, final byte[] key, final Entry base,
+                                 final List<byte[]> operands) {
+        final long now = System.currentTimeMillis();
+        // истёкшая запись читается как могильник: операнды над ней начинают с пустого значения
+        final Entry entry = MergeHelper.resolve(key, base, operands, view.mergeOperator(), now);
+        return entry == null || entry.tombstone() || entry.expired(now) ? null : entry;
+    }
+
+    @Override
+    public boolean put(final ColumnFamilyHandle family, final byte[] key, final byte[] value,
+                       final PutOptions options) throws KVException, IOException {
+        final Entry plain = new Entry(key, value, false);
+        final Entry e = options.ttl() == null
+                ? plain
+                : plain.withExpireAt(System.currentTimeMillis() + options.ttl().toMillis());
+        write(family(family), e, WALOperationType.PUT, null, null, options.sync());
         return true;
     }
 
     @Override
-    public boolean delete(final byte[] key, final DeleteOptions options) throws KVException, IOException {
+    public boolean delete(final ColumnFamilyHandle family, final byte[] key, final DeleteOptions options)
+            throws KVException, IOException {
         final Entry e = new Entry(key, null, true);
-        memTable.set(e);
-        wal.write(e, WALOperationType.DELETE);
-        if (memTable.isFull()) {
-            flush();
+        write(family(family), e, WALOperationType.DELETE, null, null, options.sync());
+        return true;
+    }
+
+    @Override
+    public boolean merge(final ColumnFamilyHandle family, final byte[] key, final byte[] operand,
+                         final PutOptions options) throws KVException, IOException {
+        final ColumnFamily cf = family(family);
+        if (cf.options.mergeOperator() == null) {
+            throw new KVException("Merge operator is not configured for column family " + cf.handle.name());
         }
+        final Entry e = Entry.mergeOperand(key, operand);
+        write(cf, e, WALOperationType.MERGE, null, null, options.sync());
         return true;
     }
 
+    @Override
+    public void write(final List<Entry> batch, final List<ColumnFamilyHandle> families, final boolean sync)
+            throws KVException, IOException {
+        if (families != null && families.size() != batch.size()) {
+            throw new IllegalArgumentException("families must match batch size");
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        write(null, null, null, batch, targets(batch, families), sync);
+    }
+
+    /**
+     * Проверяет пакет, ничего не записывая: шардированный движок проверяет так все части пакета,
+     * прежде чем применить первую.
+     */
+    void checkBatch(final List<Entry> batch, final List<ColumnFamilyHandle> families) throws KVException {
+        targets(batch, families);
+    }
+
+    // семейство каждой записи пакета; отказ здесь — до записи в WAL
+    private ColumnFamily[] targets(final List<Entry> batch, final List<ColumnFamilyHandle> families) throws KVException {
+        final ColumnFamily[] targets = new ColumnFamily[batch.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = families == null ? this.families[ColumnFamilyHandle.DEFAULT.id()] : family(families.get(i));
+            if (batch.get(i).merge() && targets[i].options.mergeOperator() == null) {
+                throw new KVException("Merge operator is not configured for column family "
+                        + targets[i].handle.name());
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Общий путь записи: одиночная запись ({@code single}) в семейство {@code cf}
+     * или пакет ({@code batch}), где {@code targets[i]} — семейство i-й записи.
+     * Конвейер из двух стадий: номера выдаёт лидер группового коммита WAL, после записи группы
+     * её писатели вставляют свои записи в memtable параллельно, пока следующая группа уже пишется в лог.
+     * Записи становятся видны, когда опубликованы все меньшие номера.
+     */
+    private void write(final ColumnFamily cf, final Entry single, final WALOperationType type,
+                       final List<Entry> batch, final ColumnFamily[] targets, final boolean sync)
+            throws KVException, IOException {
+        final int count = batch == null ? 1 : batch.size();
+        // до memLock: остановленный писатель не должен мешать смене memtable
+        writeController.beforeWrite();
+        checkBackgroundError();
+        long first = 0;
+        memLock.readLock().lock();
+        try {
+            // сначала лог, потом memtable
+            if (batch == null) {
+                first = wal.write(cf.handle.id(), single, type, sync);
+                cf.memTable.set(single, first);
+            } else {
+                final int[] ids = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = targets[i].handle.id();
+                }
+                first = wal.writeBatch(batch, ids, sync);
+                long seq = first;
+                for (int i = 0; i < count; i++) {
+                    targets[i].memTable.set(batch.get(i), seq++);
+                }
+            }
+        } finally {
+            memLock.readLock().unlock();
+            // номер выдан, только если запись попала в лог; публикуем и при ошибке вставки,
+            // иначе встанут все следующие писатели
+            if (first > 0) {
+                visibleSequence.publish(first, first + count - 1);
+                invalidateRowCache(cf, single, batch, targets);
+            }
+        }
+        if (batch == null ? cf.memTable.isFull() : anyMemTableFull()) {
+            switchMemTable(true);
+        }
+    }
+
+    private boolean anyMemTableFull() {
+        for (ColumnFamily cf : families) {
+            if (cf.memTable.isFull()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // после публикации: читатель, начавший после инвалидации, уже видит новую запись
+    private static void invalidateRowCache(final ColumnFamily cf, final Entry single, final List<Entry> batch,
+                                           final ColumnFamily[] targets) {
+        if (batch == null) {
+            if (cf.rowCache != null) {
+                cf.rowCache.invalidate(single.key());
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            final RowCache cache = targets[i].rowCache;
+            if (cache != null) {
+                cache.invalidate(batch.get(i).key());
+            }
+        }
+    }
+
+    private void checkBackgroundError() throws IOException {
+        final Throwable error = backgroundError;
+        if (error != null) {
+            throw new IOException("Background flush failed, writes are disabled", error);
+        }
+    }
+
     @Override
     public ScanCursor scan(KeyRange range, ReadOptions options) throws KVException {
         return null;
@@ -107,113 +763,356 @@ public class LSMEngineImpl implements LSMEngine {
 
     @Override
     public void flush() throws KVException, IOException {
-        levelsLock.writeLock().lock();
+        // очередь flush однопоточная: после последней задачи сброшены и все предыдущие
+        final Future<?> pending = switchMemTable(false);
         try {
-            final var snapshot = memTable.snapshotAndClear();
-            if (snapshot.isEmpty()) {
-                return;
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flush", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw new IOException("Flush failed", e.getCause());
+        }
+    }
 
-            final var entries = new ArrayList<Entry>(snapshot.size());
-            for (var e : snapshot.entrySet()) {
-                entries.add(e.getValue());
+    /**
+     * Проход скраббера по таблицам всех семейств. Ссылка на таблицу держится только пока её проверяют:
+     * компакция не удалит файл посреди проверки, но и не ждёт конца всего прохода.
+     */
+    @Override
+    public List<File> scrub() {
+        final List<SSTable> tables = new ArrayList<>();
+        levelsLock.readLock().lock();
+        try {
+            for (ColumnFamily cf : families) {
+                for (List<SSTable> level : cf.levels.values()) {
+                    tables.addAll(level);
+                }
             }
+        } finally {
+            levelsLock.readLock().unlock();
+        }
+        return scrubber.scrub(tables, this::retainIfLive);
+    }
 
-            final var ts = System.currentTimeMillis();
-            final var base = dir + File.separator + "level0-" + ts;
-            final var sstable = new SSTable(base, entries);
-
-            levels.computeIfAbsent(0, k -> new ArrayList<>()).add(sstable);
-
-            wal.clear();
-            compact();
+    // ссылка на таблицу, если она ещё на уровне своего семейства; убранную компакцией не проверяем
+    private boolean retainIfLive(final SSTable table) {
+        levelsLock.readLock().lock();
+        try {
+            for (ColumnFamily cf : families) {
+                for (List<SSTable> level : cf.levels.values()) {
+                    if (level.contains(table)) {
+                        table.retain();
+                        return true;
+                    }
+                }
+            }
+            return false;
         } finally {
-            levelsLock.writeLock().unlock();
+            levelsLock.readLock().unlock();
         }
     }
 
     @Override
-    public void compact() {
-        for (int i = 0; i < levels.size(); i++) {
-            boolean need = levels.getOrDefault(i, Collections.emptyList()).size() > 3;
-
-            if (need) {
-                final int finalI = i;
-                compactor.submit(() -> {
-                    levelsLock.writeLock().lock();
-                    try {
-                        compactLevel(finalI);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        levelsLock.writeLock().unlock();
+    public WriteStallStats writeStallStats() {
+        return writeController.stats();
+    }
+
+    // замороженная memtable и её семейство
+    private record Frozen(ColumnFamily family, MemTable memTable) {
+    }
+
+    /**
+     * Замораживает активные memtable всех непустых семейств, переводит WAL на новый сегмент
+     * и ставит запись SSTable в фоновую очередь. Семейства сбрасываются вместе: сегмент WAL
+     * общий и освобождается, только когда в SSTable легли записи всех семейств из него.
+     * Пока SSTable пишутся, замороженные memtable видны чтению.
+     *
+     * @param onlyIfFull менять memtable, только если какая-то из них всё ещё заполнена
+     * @return последний поставленный в очередь flush
+     */
+    private Future<?> switchMemTable(final boolean onlyIfFull) throws IOException {
+        flushLock.lock();
+        try {
+            final List<Frozen> frozen = new ArrayList<>(families.length);
+            final long generation;
+            memLock.writeLock().lock();
+            try {
+                // пока ждали, memtable мог сменить другой поток
+                boolean full = false;
+                for (ColumnFamily cf : families) {
+                    full |= cf.memTable.isFull();
+                    if (!cf.memTable.isEmpty()) {
+                        frozen.add(new Frozen(cf, cf.memTable));
                     }
-                });
+                }
+                if (frozen.isEmpty() || onlyIfFull && !full) {
+                    return lastFlush;
+                }
+                checkBackgroundError();
+                generation = wal.rotate();
+                levelsLock.writeLock().lock();
+                try {
+                    for (Frozen f : frozen) {
+                        f.family().immutables.add(f.memTable());
+                        f.family().memTable = newMemTable(f.family());
+                    }
+                } finally {
+                    levelsLock.writeLock().unlock();
+                }
+            } finally {
+                memLock.writeLock().unlock();
+            }
+            long lastInFrozen = 0;
+            for (Frozen f : frozen) {
+                lastInFrozen = Math.max(lastInFrozen, f.memTable().lastSequence());
             }
+            final long last = lastInFrozen;
+            lastFlush = flusher.submit(() -> {
+                flushFrozen(frozen, last, generation);
+                return null;
+            });
+            updateWriteStall();
+            return lastFlush;
+        } finally {
+            flushLock.unlock();
         }
     }
 
-    private void removeFiles(List<SSTable> tables) {
-        for (SSTable s : tables) {
+    /**
+     * Пишет замороженные memtable в SSTable своих семейств, ставит их на уровень 0 разом
+     * и только после этого отпускает старые сегменты WAL. Выполняется в потоке flush.
+     */
+    private void flushFrozen(final List<Frozen> frozen, final long lastInFrozen, final long generation)
+            throws IOException {
+        try {
+            for (Frozen f : frozen) {
+                f.memTable().freeze();
+            }
+            // в SSTable номеров нет: всё, что туда попадёт, должно быть уже опубликовано
+            visibleSequence.await(lastInFrozen);
+            final List<SSTable> written = new ArrayList<>(frozen.size());
+            for (Frozen f : frozen) {
+                final var snapshot = f.memTable().snapshot();
+                final var entries = new ArrayList<Entry>(snapshot.size());
+                for (var e : snapshot.entrySet()) {
+                    entries.add(e.getValue());
+                }
+
+                final var ts = System.currentTimeMillis();
+                final var base = f.family().dir + File.separator + "level0-" + ts + "-" + fileNumber.incrementAndGet();
+                // свежие таблицы L0 скоро читают, поэтому flush пишет через page cache
+                written.add(writeTable(f.family(), 0, base, entries, false));
+            }
+
+            levelsLock.writeLock().lock();
             try {
-                final var f = s.file();
-                if (f != null && f.exists() && !f.delete()) {
-                    System.err.println("Failed to delete: " + f.getAbsolutePath());
+                for (int i = 0; i < frozen.size(); i++) {
+                    final ColumnFamily cf = frozen.get(i).family();
+                    cf.levels.computeIfAbsent(0, k -> new ArrayList<>()).add(written.get(i));
+                    cf.immutables.remove(frozen.get(i).memTable());
                 }
-            } catch (Exception ex) {
-                ex.printStackTrace();
+                compact();
+            } finally {
+                levelsLock.writeLock().unlock();
             }
+            // новых срезов с ними уже не будет; память освободит последний из текущих
+            for (Frozen f : frozen) {
+                f.memTable().release();
+            }
+            // данные сегментов старше нового поколения уже в SSTable
+            wal.release(generation);
+        } catch (IOException | RuntimeException e) {
+            backgroundError = e;
+            writeController.abort();
+            throw e;
+        } finally {
+            updateWriteStall();
         }
     }
 
-    private ArrayList<Entry> mergeNewestWins(final List<SSTable> inputs) throws IOException {
-        // соберём все записи с пометкой, из какого источника они пришли
-        final class WithSrc {
-            final Entry e;
+    /**
+     * Пересчитывает торможение записи: таблицы L0, очередь на flush и байты в уровнях,
+     * которые уже перешли порог компакции. Для L0 и очереди берётся худшее семейство,
+     * долг компакции суммируется.
+     */
+    private void updateWriteStall() {
+        int level0 = 0;
+        int immutableCount = 0;
+        long pending = 0;
+        levelsLock.readLock().lock();
+        try {
+            for (ColumnFamily cf : families) {
+                level0 = Math.max(level0, cf.levels.getOrDefault(0, Collections.emptyList()).size());
+                immutableCount = Math.max(immutableCount, cf.immutables.size());
+                for (List<SSTable> tables : cf.levels.values()) {
+                    if (tables.size() > cf.options.compactionTrigger()) {
+                        for (SSTable s : tables) {
+                            pending += s.file().length();
+                        }
+                    }
+                }
+            }
+        } finally {
+            levelsLock.readLock().unlock();
+        }
+        writeController.update(level0, immutableCount, pending);
+    }
 
-            final int src; // 0 — самый новый файл, чем больше — тем старше
+    @Override
+    public void compact() {
+        for (ColumnFamily cf : families) {
+            for (int i = 0; i < cf.levels.size(); i++) {
+                boolean need = cf.levels.getOrDefault(i, Collections.emptyList()).size()
+                        > cf.options.compactionTrigger();
 
-            WithSrc(Entry e, int src) {
-                this.e = e;
-                this.src = src;
+                if (need) {
+                    final int finalI = i;
+                    compactor.submit(() -> {
+                        try {
+                            runCompaction(cf, finalI);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
             }
         }
-        final var all = new ArrayList<WithSrc>();
-        for (int i = 0; i < inputs.size(); i++) {
-            final var sst = inputs.get(i);
-            for (Entry e : sst.getAllEntries()) {
-                all.add(new WithSrc(e, i));
+    }
+
+    @Override
+    public void compactLevel(final ColumnFamilyHandle family, final int level) throws KVException, IOException {
+        final ColumnFamily cf = family(family);
+        awaitCompactor(compactor.submit(() -> {
+            runCompaction(cf, level);
+            return null;
+        }));
+    }
+
+    @Override
+    public void awaitCompactions() throws IOException {
+        // очередь однопоточная: пустая задача выполнится после всех, что уже в ней
+        awaitCompactor(compactor.submit(() -> null));
+    }
+
+    private static void awaitCompactor(final Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
+            throw new IOException("Compaction failed", e.getCause());
         }
+    }
 
-        // сортируем по ключу
-        all.sort((a, b) -> java.util.Arrays.compare(a.e.key(), b.e.key()));
+    private void runCompaction(final ColumnFamily cf, final int level) throws IOException {
+        levelsLock.writeLock().lock();
+        try {
+            compactLevel(cf, level);
+        } finally {
+            levelsLock.writeLock().unlock();
+        }
+        updateWriteStall();
+    }
 
-        // пройдём группами одинаковых ключей и выберем запись с минимальным src
-        final var out = new ArrayList<Entry>();
-        int i = 0;
-        while (i < all.size()) {
-            final var key = all.get(i).e.key();
-            int j = i + 1;
-            int bestIdx = i;
-            int bestSrc = all.get(i).src;
+    // файлы удалятся, когда их отпустят и текущие читатели
+    private void releaseTables(List<SSTable> tables) {
+        for (SSTable s : tables) {
+            s.release();
+        }
+    }
 
-            while (j < all.size() && java.util.Arrays.compare(all.get(j).e.key(), key) == 0) {
-                if (all.get(j).src < bestSrc) {
-                    bestSrc = all.get(j).src;
-                    bestIdx = j;
+    /**
+     * Текущая запись одного входа k-way слияния.
+     *
+     * @param src   номер входа: 0 — самый новый файл, чем больше — тем старше
+     * @param order порядок чтения: у одинаковых ключей одного входа сохраняется порядок файла
+     */
+    private record MergeHead(Entry entry, int src, long order, SSTable.TableIterator cursor) {
+    }
+
+    private static final Comparator<MergeHead> MERGE_ORDER = Comparator
+            .comparing((MergeHead h) -> h.entry().key(), Arrays::compare)
+            .thenComparingInt(MergeHead::src)
+            .thenComparingLong(MergeHead::order);
+
+    /**
+     * Слияние входных таблиц: каждая уже отсортирована, поэтому они читаются потоково через кучу
+     * по {@code (ключ, вход)}, и в памяти лежат только текущие записи входов и результат.
+     *
+     * @param inputBlobs сюда собираются все blob-ссылки входных таблиц
+     */
+    private static ArrayList<Entry> mergeNewestWins(final ColumnFamily cf, final List<SSTable> inputs,
+                                                    final Set<BlobIndex> inputBlobs, final int readaheadBytes,
+                                                    final boolean directIo, final long nowMillis)
+            throws IOException {
+        final PriorityQueue<MergeHead> heap = new PriorityQueue<>(Math.max(1, inputs.size()), MERGE_ORDER);
+        final List<SSTable.TableIterator> cursors = new ArrayList<>(inputs.size());
+        final long[] order = {0};
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                final var sst = inputs.get(i);
+                if (!sst.file().exists()) {
+                    continue;
+                }
+                final SSTable.TableIterator cursor = sst.iterator(readaheadBytes, directIo);
+                cursors.add(cursor);
+                advance(heap, cursor, i, order, inputBlobs);
+            }
+
+            // группы одинаковых ключей приходят подряд и от новых входов к старым:
+            // самая новая запись побеждает, а merge-операнды сворачиваются с тем, что лежит под ними
+            final var out = new ArrayList<Entry>();
+            final var versions = new ArrayList<Entry>();
+            while (!heap.isEmpty()) {
+                final byte[] key = heap.peek().entry().key();
+                versions.clear();
+                while (!heap.isEmpty() && Arrays.equals(heap.peek().entry().key(), key)) {
+                    final MergeHead head = heap.poll();
+                    versions.add(head.entry());
+                    advance(heap, head.cursor(), head.src(), order, inputBlobs);
                 }
-                j++;
+                // операнды сворачиваются с настоящим значением, а не со ссылкой на него
+                if (versions.get(0).merge()) {
+                    for (int v = 0; v < versions.size(); v++) {
+                        versions.set(v, materialize(cf.blobs, versions.get(v)));
+                    }
+                }
+                out.add(MergeHelper.collapse(key, versions, cf.options.mergeOperator(), nowMillis));
+            }
+            return out;
+        } finally {
+            for (SSTable.TableIterator cursor : cursors) {
+                cursor.close();
             }
-            out.add(all.get(bestIdx).e);
-            i = j;
         }
-        return out;
+    }
+
+    // кладёт в кучу следующую запись входа, если она есть
+    private static void advance(final PriorityQueue<MergeHead> heap, final SSTable.TableIterator cursor,
+                                final int src, final long[] order, final Set<BlobIndex> inputBlobs)
+            throws IOException {
+        if (!cursor.hasNext()) {
+            return;
+        }
+        final Entry e = cursor.next();
+        if (e.blob()) {
+            inputBlobs.add(BlobIndex.decode(e.value()));
+        }
+        heap.add(new MergeHead(e, src, order[0]++, cursor));
     }
 
 
     // merge
-    private void compactLevel(final int level) throws IOException {
+    private void compactLevel(final ColumnFamily cf, final int level) throws IOException {
+        final Map<Integer, List<SSTable>> levels = cf.levels;
         final List<SSTable> inputs;
 
         inputs = new ArrayList<>(levels.getOrDefault(level, Collections.emptyList()));
@@ -222,40 +1121,234 @@ public class LSMEngineImpl implements LSMEngine {
         }
 
         // от самых новых к старым
-        inputs.sort(Comparator.comparingLong(SSTable::createdAtMillis).reversed());
+        Collections.reverse(inputs);
 
-        final var merged = mergeNewestWins(inputs);
+        final Set<BlobIndex> inputBlobs = new HashSet<>();
+        // один момент для свёртки merge и отбора истёкших: база, истёкшая при свёртке, не воскреснет
+        final long now = System.currentTimeMillis();
+        final var merged = mergeNewestWins(cf, inputs, inputBlobs,
+                engineOptions.compactionReadaheadBytes(), engineOptions.compactionDirectIo(), now);
 
-        merged.removeIf(Entry::tombstone);
+        final List<SSTable> deeper = tablesBelow(cf, level);
+        dropObsoleteTombstones(merged, deeper, now);
+        applyCompactionFilter(cf, level, merged, deeper);
+        discardDroppedBlobs(cf, inputBlobs, merged);
+        relocateGarbageBlobs(cf, merged);
         if (merged.isEmpty()) {
             levels.put(level, new ArrayList<>());
-            removeFiles(inputs);
+            invalidateFilteredRows(cf);
+            releaseTables(inputs);
             return;
         }
 
         // пишем новый файл на уровень level+1
-        final var outBase = dir + File.separator + "level" + (level + 1) + "-" + System.currentTimeMillis();
-        final var out = new SSTable(outBase, merged);
+        final var outBase = cf.dir + File.separator + "level" + (level + 1) + "-" + System.currentTimeMillis()
+                + "-" + fileNumber.incrementAndGet();
+        final var out = writeTable(cf, level + 1, outBase, merged, engineOptions.compactionDirectIo());
 
         final var cur = new ArrayList<>(levels.getOrDefault(level, Collections.emptyList()));
         cur.removeAll(inputs);
         levels.put(level, cur);
 
         levels.computeIfAbsent(level + 1, k -> new ArrayList<>()).add(out);
+        invalidateFilteredRows(cf);
+
+        // старые файлы удалятся с диска, когда их отпустят читатели
+        releaseTables(inputs);
+    }
+
+    /**
+     * Таблицы уровней глубже {@code level}, включая те, что уже лежат на уровне выхода компакции.
+     */
+    private static List<SSTable> tablesBelow(final ColumnFamily cf, final int level) {
+        final List<SSTable> out = new ArrayList<>();
+        for (List<SSTable> tables : cf.levels.tailMap(level, false).values()) {
+            out.addAll(tables);
+        }
+        return out;
+    }
 
-        // удаляем старые файлы с диска
-        removeFiles(inputs);
+    private static boolean mayExistBelow(final List<SSTable> deeper, final byte[] key) {
+        for (SSTable sst : deeper) {
+            if (sst.mayContain(key)) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    /**
+     * Могильник и истёкшая запись закрывают старые версии ключа на уровнях ниже выхода, поэтому выбросить
+     * их можно, только когда ниже ключа нет. Иначе истёкшая запись остаётся могильником той же версии.
+     */
+    private static void dropObsoleteTombstones(final List<Entry> merged, final List<SSTable> deeper,
+                                               final long nowMillis) {
+        final var it = merged.listIterator();
+        while (it.hasNext()) {
+            final Entry e = it.next();
+            if (!e.tombstone() && !e.expired(nowMillis)) {
+                continue;
+            }
+            if (!mayExistBelow(deeper, e.key())) {
+                it.remove();
+            } else if (!e.tombstone()) {
+                it.set(e.asTombstone());
+            }
+        }
+    }
+
+    // фильтр компакции меняет значения без записи, поэтому кэш строк целиком устаревает;
+    // вызывать после замены таблиц уровня
+    private static void invalidateFilteredRows(final ColumnFamily cf) {
+        if (cf.rowCache != null && cf.options.compactionFilter() != CompactionFilter.NONE) {
+            cf.rowCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Выброшенная фильтром запись, как и удалённая, закрывает старые версии ключа ниже, поэтому
+     * становится могильником той же версии; на дне, где старых версий нет, она просто исчезает.
+     */
+    private static void applyCompactionFilter(final ColumnFamily cf, final int level, final List<Entry> merged,
+                                              final List<SSTable> deeper) throws IOException {
+        final CompactionFilter filter = cf.options.compactionFilter();
+        if (filter == CompactionFilter.NONE) {
+            return;
+        }
+        final var it = merged.listIterator();
+        while (it.hasNext()) {
+            final Entry e = it.next();
+            if (e.merge() || e.tombstone()) {
+                // операнды не фильтруем: база для них может лежать на нижних уровнях; у могильника нет значения
+                continue;
+            }
+            final byte[] value = e.blob() ? cf.blobs.read(e.value()) : e.value();
+            final var decision = filter.filter(level, e.key(), value);
+            switch (decision.action()) {
+                case KEEP -> {
+                }
+                case REMOVE -> {
+                    if (mayExistBelow(deeper, e.key())) {
+                        it.set(e.asTombstone());
+                    } else {
+                        it.remove();
+                    }
+                }
+                case CHANGE_VALUE -> it.set(e.withValue(decision.newValue()));
+            }
+        }
+    }
+
+    /**
+     * Ссылки входных таблиц, которых нет в выходе компакции, — мусор в своих blob-файлах.
+     */
+    private static void discardDroppedBlobs(final ColumnFamily cf, final Set<BlobIndex> inputBlobs,
+                                            final List<Entry> merged) {
+        if (inputBlobs.isEmpty()) {
+            return;
+        }
+        final Set<BlobIndex> live = new HashSet<>();
+        for (Entry e : merged) {
+            if (e.blob()) {
+                live.add(BlobIndex.decode(e.value()));
+            }
+        }
+        for (BlobIndex index : inputBlobs) {
+            if (!live.contains(index)) {
+                cf.blobs.discard(index);
+            }
+        }
+    }
+
+    /**
+     * Живые значения из blob-файлов, где набралось много мусора, читаются обратно и уходят
+     * в новый blob-файл вместе с выходом компакции; старый файл удалится, когда его отпустят все таблицы.
+     */
+    private static void relocateGarbageBlobs(final ColumnFamily cf, final List<Entry> merged) throws IOException {
+        final var it = merged.listIterator();
+        while (it.hasNext()) {
+            final Entry e = it.next();
+            if (!e.blob()) {
+                continue;
+            }
+            final BlobIndex index = BlobIndex.decode(e.value());
+            if (cf.blobs.isGarbageHeavy(index)) {
+                it.set(e.withValue(cf.blobs.read(e.value())));
+                cf.blobs.discard(index);
+            }
+        }
+    }
+
+    /**
+     * Пишет SSTable уровня {@code level} семейства со сжатием этого уровня. Значения не короче {@code minBlobSize} уходят в новый blob-файл,
+     * а таблица держит ссылки на все blob-файлы, которые упоминает, и отпускает их при удалении.
+     *
+     * @param directIo писать таблицу мимо page cache
+     */
+    private SSTable writeTable(final ColumnFamily cf, final int level, final String base, final List<Entry> entries,
+                               final boolean directIo) throws IOException {
+        try (BlobStore.Writer writer = cf.blobs.newWriter()) {
+            final int minBlobSize = cf.options.minBlobSize();
+            List<Entry> out = entries;
+            if (minBlobSize > 0) {
+                out = new ArrayList<>(entries.size());
+                for (Entry e : entries) {
+                    final boolean separate = !e.tombstone() && !e.merge() && !e.blob()
+                            && e.value() != null && e.value().length >= minBlobSize;
+                    out.add(separate
+                            ? new Entry(e.key(), writer.add(e.value()), false, false, true, e.version(), e.expireAtMillis())
+                            : e);
+                }
+                writer.finish();
+            }
+            final SSTable table = new SSTable(base, out, cf.options.tableOptions(level), blockCache, directIo);
+            final Set<Long> referenced = new HashSet<>();
+            for (Entry e : out) {
+                if (e.blob()) {
+                    referenced.add(BlobIndex.decode(e.value()).file());
+                }
+            }
+            if (!referenced.isEmpty()) {
+                for (long number : referenced) {
+                    cf.blobs.retain(number);
+                }
+                table.whenDeleted(() -> {
+                    for (long number : referenced) {
+                        cf.blobs.release(number);
+                    }
+                });
+            }
+            return table;
+        }
+    }
+
+    private MemTable newMemTable(final ColumnFamily cf) {
+        return new MemTable(cf.memSize, cf.options.mergeOperator(), engineOptions.memTableRep(),
+                engineOptions.offHeapMemTable());
+    }
 
     private void replayWAL() throws IOException {
         wal.recover(walEntry -> {
+            final int id = walEntry.columnFamily();
+            if (id < 0 || id >= families.length) {
+                // реестр семейств потерян или подменён: молча терять записи нельзя
+                throw new IllegalStateException("WAL references unknown column family " + id);
+            }
             final Entry entry = new Entry(
                     walEntry.key(),
                     walEntry.value(),
-                    walEntry.tombstone()
+                    walEntry.tombstone(),
+                    walEntry.operationType() == WALOperationType.MERGE,
+                    false,
+                    0,
+                    walEntry.expireAtMillis()
             );
-            memTable.set(entry);
+            families[id].memTable.set(entry, walEntry.id());
         });
+        long last = 0;
+        for (ColumnFamily cf : families) {
+            last = Math.max(last, cf.memTable.lastSequence());
+        }
+        visibleSequence.reset(last);
     }
 }
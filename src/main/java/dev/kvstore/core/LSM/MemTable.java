@@ -2,66 +2,197 @@ package dev.kvstore.core.LSM;
 
 import dev.kvstore.core.model.Entry;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * Memtable хранит все версии ключа, а не только последнюю: merge-операнды
+ * должны лежать по отдельности, чтобы сворачиваться лениво.
+ * Внутренний ключ — {@code (key, seq)}, версии одного ключа идут от новой к старой.
+ * Где и как лежат версии, решает {@link MemTableRep}: skiplist на куче или в off-heap арене,
+ * хэш-таблица или массив, см. {@link MemTableRepType}.
+ */
 public class MemTable {
-    private final ConcurrentSkipListMap<byte[], Entry> skipList =
-            new ConcurrentSkipListMap<>(Arrays::compare); // лексикографическая сортировка по байтам
+    // размер чанка арены: не больше 4 МиБ и не мельче 1/8 лимита, чтобы хвосты чанков не съедали память
+    private static final int MIN_ARENA_CHUNK = 4 << 10;
 
-    private final AtomicLong sizeInBytes = new AtomicLong(0);
+    private static final int MAX_ARENA_CHUNK = 4 << 20;
+
+    private final MemTableRep rep;
+
+    private final AtomicLong seq = new AtomicLong(0);
 
     private final long maxSize;
 
+    private final MergeOperator mergeOperator;
+
+    // одна ссылка у движка, пока memtable активна или ждёт flush, и по одной у каждого среза чтения;
+    // последний отпустивший освобождает память представления, off-heap арена — сразу
+    private final AtomicInteger refs = new AtomicInteger(1);
+
     public MemTable(final long maxSize) {
-        this.maxSize = maxSize;
-    } // лимит
+        this(maxSize, null);
+    }
+
+    public MemTable(final long maxSize, final MergeOperator mergeOperator) {
+        this(maxSize, mergeOperator, false);
+    }
+
+    /**
+     * @param offHeap держать ключи и значения в off-heap арене, а не на куче
+     */
+    public MemTable(final long maxSize, final MergeOperator mergeOperator, final boolean offHeap) {
+        this(maxSize, mergeOperator, MemTableRepType.SKIP_LIST, offHeap);
+    }
+
+    /**
+     * @param offHeap держать ключи и значения в off-heap арене; только для {@link MemTableRepType#SKIP_LIST}
+     */
+    public MemTable(final long maxSize, final MergeOperator mergeOperator, final MemTableRepType type,
+                    final boolean offHeap) {
+        if (offHeap && type != MemTableRepType.SKIP_LIST) {
+            throw new IllegalArgumentException("Off-heap memtable requires the SKIP_LIST representation");
+        }
+        this.maxSize = maxSize; // лимит
+        this.mergeOperator = mergeOperator;
+        this.rep = switch (type) {
+            case SKIP_LIST -> offHeap
+                    ? new ArenaSkipListRep((int) Math.max(MIN_ARENA_CHUNK, Math.min(MAX_ARENA_CHUNK, maxSize / 8)))
+                    : new SkipListRep();
+            case HASH -> new HashRep();
+            case VECTOR -> new VectorRep();
+        };
+    }
 
     public void set(final Entry entry) {
-        final long oldSize = getValueSize(entry.key());
-        skipList.put(entry.key(), entry);
-        sizeInBytes.addAndGet(calculateEntrySize(entry) - oldSize);
+        set(entry, seq.incrementAndGet());
+    }
+
+    /**
+     * Вставляет версию с номером последовательности, выданным движком; номер становится версией записи.
+     */
+    public void set(final Entry entry, final long sequence) {
+        seq.accumulateAndGet(sequence, Math::max);
+        rep.insert(entry.withVersion(sequence), sequence);
     }
 
+    /**
+     * Последняя версия каждого ключа.
+     */
     public Set<Map.Entry<byte[], Entry>> getAllEntries() {
-        return skipList.entrySet();
+        final Set<Map.Entry<byte[], Entry>> out = new LinkedHashSet<>();
+        byte[] prev = null;
+        for (Iterator<Entry> it = rep.iterator(); it.hasNext(); ) {
+            final Entry e = it.next();
+            if (prev == null || !Arrays.equals(prev, e.key())) {
+                out.add(new AbstractMap.SimpleImmutableEntry<>(e.key(), e));
+                prev = e.key();
+            }
+        }
+        return out;
     }
 
+    /**
+     * Последняя версия ключа как есть (может оказаться merge-операндом).
+     */
     public Entry get(final byte[] key) {
-        return skipList.get(key);
+        final Iterator<Entry> it = rep.versions(key, Long.MAX_VALUE).iterator();
+        return it.hasNext() ? it.next() : null;
     }
 
-    public boolean isFull() {
-        return sizeInBytes.get() > maxSize;
+    /**
+     * Все версии ключа, от новой к старой.
+     */
+    public Iterable<Entry> getVersions(final byte[] key) {
+        return getVersions(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Версии ключа с номером не больше {@code maxSequence}, от новой к старой.
+     */
+    public Iterable<Entry> getVersions(final byte[] key, final long maxSequence) {
+        return rep.versions(key, maxSequence);
     }
 
-    /// суммируется длина ключа + длина значения + 1 байт под tombstone
-    private long calculateEntrySize(final Entry entry) {
-        if (entry == null) {
-            return 0;
+    /**
+     * Наибольший номер последовательности среди вставленных версий.
+     */
+    public long lastSequence() {
+        return seq.get();
+    }
+
+    /**
+     * Сколько памяти занимают данные memtable; для off-heap арены — точное число байт.
+     */
+    public long memoryUsage() {
+        return rep.memoryUsage();
+    }
+
+    public boolean isEmpty() {
+        return rep.isEmpty();
+    }
+
+    public void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Отпускает ссылку; после последней читать memtable нельзя.
+     */
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            rep.clear();
         }
-        return (entry.key() != null ? entry.key().length : 0) + (entry.tombstone() ? 0 : entry.value() != null ? entry.value().length : 0) + 1; // tombstone
     }
 
-    private long getValueSize(final byte[] key) {
-        final Entry existing = skipList.get(key);
-        return existing != null ? calculateEntrySize(existing) : 0;
+    /**
+     * Memtable стала неизменяемой; представление может подготовиться к чтению и flush.
+     */
+    public void freeze() {
+        rep.freeze();
+    }
+
+    public boolean isFull() {
+        return rep.memoryUsage() > maxSize;
     }
 
     // получить неизменяемый снимок и обнулить memtable
     public NavigableMap<byte[], Entry> snapshotAndClear() {
+        final var snap = snapshot();
+        rep.clear();
+        return snap;
+    }
+
+    // неизменяемый снимок: по одной записи на ключ, операнды свёрнуты
+    public NavigableMap<byte[], Entry> snapshot() {
         // сохраняем порядок байтового лексикографического компаратора
         final var snap = new java.util.TreeMap<byte[], Entry>(java.util.Arrays::compare);
-        snap.putAll(skipList);
-        skipList.clear();
-        sizeInBytes.set(0);
+        final List<Entry> versions = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        byte[] cur = null;
+        for (Iterator<Entry> it = rep.iterator(); it.hasNext(); ) {
+            final Entry e = it.next();
+            final byte[] key = e.key();
+            if (cur != null && !Arrays.equals(cur, key)) {
+                snap.put(cur, MergeHelper.collapse(cur, versions, mergeOperator, now));
+                versions.clear();
+            }
+            cur = key;
+            versions.add(e);
+        }
+        if (cur != null) {
+            snap.put(cur, MergeHelper.collapse(cur, versions, mergeOperator, now));
+        }
         return java.util.Collections.unmodifiableNavigableMap(snap);
     }
-
-
 }
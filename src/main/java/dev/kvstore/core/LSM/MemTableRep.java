@@ -0,0 +1,41 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.Iterator;
+
+
+/**
+ * Хранилище версий для {@link MemTable}. Версия ключа — пара {@code (key, seq)};
+ * обход идёт по ключу по возрастанию, версии одного ключа — от новой к старой.
+ * Вставки конкурентные, чтения идут параллельно со вставками.
+ */
+interface MemTableRep {
+
+    void insert(Entry entry, long seq);
+
+    /**
+     * Версии ключа с номером не больше {@code maxSeq}, от новой к старой.
+     */
+    Iterable<Entry> versions(byte[] key, long maxSeq);
+
+    /**
+     * Все версии всех ключей в порядке обхода.
+     */
+    Iterator<Entry> iterator();
+
+    /**
+     * Сколько памяти занимают данные; по этому числу memtable считается заполненной.
+     */
+    long memoryUsage();
+
+    boolean isEmpty();
+
+    /**
+     * Memtable больше не принимает записи и ждёт flush.
+     */
+    default void freeze() {
+    }
+
+    void clear();
+}
@@ -0,0 +1,22 @@
+package dev.kvstore.core.LSM;
+
+/**
+ * Как memtable хранит версии.
+ */
+public enum MemTableRepType {
+    /**
+     * Конкурентный skiplist: упорядочен всегда, get за O(log n). Может жить в off-heap арене.
+     */
+    SKIP_LIST,
+
+    /**
+     * Хэш-таблица ключей: get за O(1), ключи сортируются только при обходе (flush).
+     */
+    HASH,
+
+    /**
+     * Массив в порядке вставки для массовой загрузки: вставка дешевле всех,
+     * сортируется один раз при заморозке; до неё get — линейный просмотр.
+     */
+    VECTOR
+}
@@ -0,0 +1,77 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.List;
+
+/**
+ * Сворачивание merge-операндов одного ключа. Общая логика для get, flush и компакции.
+ */
+final class MergeHelper {
+    private MergeHelper() {
+    }
+
+    /**
+     * Применяет операнды к базовой записи и возвращает готовое значение.
+     *
+     * Истёкшая к {@code now} база — то же, что могильник: операнды начинают с пустого значения,
+     * и у результата нет TTL. Так get, flush и компакция сходятся в одном ответе.
+     *
+     * @param base                базовая запись (значение или могильник); {@code null}, если её нет
+     * @param operandsNewestFirst операнды от нового к старому
+     * @param nowMillis           момент, на который проверяется TTL базы
+     */
+    static Entry resolve(final byte[] key, final Entry base, final List<byte[]> operandsNewestFirst,
+                         final MergeOperator operator, final long nowMillis) {
+        if (operandsNewestFirst.isEmpty()) {
+            return base;
+        }
+        requireOperator(operator);
+        final boolean absent = base == null || base.tombstone() || base.expired(nowMillis);
+        byte[] acc = absent ? null : base.value();
+        for (int i = operandsNewestFirst.size() - 1; i >= 0; i--) {
+            acc = operator.merge(key, acc, operandsNewestFirst.get(i));
+        }
+        // TTL остаётся от живой базы: операнды его не продлевают
+        return absent ? new Entry(key, acc, false) : base.withValue(acc);
+    }
+
+    /**
+     * Сворачивает версии одного ключа (от новой к старой) в одну запись.
+     * Если под операндами нет базовой записи, результат — один склеенный операнд:
+     * база может лежать глубже, в SSTable, которых тут не видно.
+     *
+     * @param nowMillis момент, на который проверяется TTL базы, см. {@link #resolve}
+     */
+    static Entry collapse(final byte[] key, final List<Entry> versionsNewestFirst, final MergeOperator operator,
+                          final long nowMillis) {
+        final Entry newest = versionsNewestFirst.get(0);
+        if (!newest.merge()) {
+            return newest;
+        }
+        int i = 0;
+        while (i < versionsNewestFirst.size() && versionsNewestFirst.get(i).merge()) {
+            i++;
+        }
+        if (i < versionsNewestFirst.size()) {
+            final var operands = versionsNewestFirst.subList(0, i).stream().map(Entry::value).toList();
+            return resolve(key, versionsNewestFirst.get(i), operands, operator, nowMillis)
+                    .withVersion(newest.version());
+        }
+        if (i == 1) {
+            return newest;
+        }
+        requireOperator(operator);
+        byte[] acc = versionsNewestFirst.get(i - 1).value();
+        for (int j = i - 2; j >= 0; j--) {
+            acc = operator.merge(key, acc, versionsNewestFirst.get(j).value());
+        }
+        return Entry.mergeOperand(key, acc).withVersion(newest.version());
+    }
+
+    private static void requireOperator(final MergeOperator operator) {
+        if (operator == null) {
+            throw new IllegalStateException("Merge operand found but no MergeOperator is configured");
+        }
+    }
+}
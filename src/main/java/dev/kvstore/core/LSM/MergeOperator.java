@@ -0,0 +1,24 @@
+package dev.kvstore.core.LSM;
+
+/**
+ * Ассоциативный оператор слияния для read-modify-write без чтения:
+ * счётчики, append-only списки и т.п.
+ * <p>
+ * {@code merge(key, ...)} только дописывает операнд в WAL и memtable,
+ * операнды сворачиваются лениво на {@code get}, а также при flush и компакции.
+ * <p>
+ * Оператор обязан быть ассоциативным: {@code merge(merge(a, b), c) == merge(a, merge(b, c))},
+ * а значение и операнд должны иметь один формат. Тогда одним и тем же методом
+ * можно и применить операнд к значению, и склеить два соседних операнда.
+ */
+@FunctionalInterface
+public interface MergeOperator {
+
+    /**
+     * @param key      ключ
+     * @param existing текущее значение или более старый операнд; {@code null}, если ключа нет или он удалён
+     * @param operand  более новый операнд
+     * @return результат слияния, не {@code null}
+     */
+    byte[] merge(byte[] key, byte[] existing, byte[] operand);
+}
@@ -0,0 +1,75 @@
+package dev.kvstore.core.LSM;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Встроенные операторы слияния, которые можно выбрать из конфигурации.
+ * Значения и операнды — текст UTF-8, как их принимает HTTP API.
+ */
+public enum MergeOperatorType {
+    /**
+     * Merge выключен: запись операнда завершается ошибкой.
+     */
+    NONE,
+
+    /**
+     * Счётчик: значение и операнд — десятичные long, результат — их сумма.
+     * Не-число в базе считается нулём, чтобы один плохой put не ломал flush и компакцию ключа.
+     */
+    ADD,
+
+    /**
+     * Дописывание: операнд приклеивается к концу значения.
+     */
+    APPEND;
+
+    private static final MergeOperator ADD_OPERATOR = (key, existing, operand) ->
+            Long.toString(parse(existing) + parse(operand)).getBytes(StandardCharsets.UTF_8);
+
+    private static final MergeOperator APPEND_OPERATOR = (key, existing, operand) -> {
+        if (existing == null) {
+            return operand;
+        }
+        final byte[] out = new byte[existing.length + operand.length];
+        System.arraycopy(existing, 0, out, 0, existing.length);
+        System.arraycopy(operand, 0, out, existing.length, operand.length);
+        return out;
+    };
+
+    /**
+     * @return {@code null} для {@link #NONE}
+     */
+    public MergeOperator operator() {
+        return switch (this) {
+            case NONE -> null;
+            case ADD -> ADD_OPERATOR;
+            case APPEND -> APPEND_OPERATOR;
+        };
+    }
+
+    /**
+     * Годится ли операнд оператору; проверяется при записи, чтобы ошибка дошла до клиента, а не всплыла на чтении.
+     */
+    public boolean accepts(final byte[] operand) {
+        if (this != ADD) {
+            return true;
+        }
+        try {
+            Long.parseLong(new String(operand, StandardCharsets.UTF_8));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long parse(final byte[] value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(value, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package dev.kvstore.core.LSM;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Последовательное чтение файла большими кусками с упреждением: пока вызывающий разбирает текущий кусок,
+ * следующий уже читается в фоне. Вместо открытия, seek и чтения на каждый блок — один вызов на кусок.
+ * <p>
+ * Куски идут с шагом {@code chunkBytes} от начала файла, два буфера меняются ролями.
+ * Чтения вперёд дешёвые, переход назад перечитывает кусок синхронно.
+ * В режиме O_DIRECT куски и буферы выровнены по блоку файловой системы, см. {@link DirectIO}.
+ */
+final class ReadaheadReader implements Closeable {
+    static final int DEFAULT_CHUNK_BYTES = 2 << 20;
+
+    private static final ExecutorService PREFETCH = VirtualThreads.newExecutor("sst-readahead");
+
+    private final FileChannel channel;
+
+    // сколько байт от начала файла нужно вызывающему; дальше не читаем
+    private final long length;
+
+    private final int alignment;
+
+    private final int chunkBytes;
+
+    private ByteBuffer current;
+
+    private long currentStart = -1;
+
+    private ByteBuffer spare;
+
+    // кусок, который читается в spare; null — упреждение не запущено
+    private CompletableFuture<Void> prefetch;
+
+    private long prefetchStart = -1;
+
+    ReadaheadReader(final Path path, final long length, final int chunkBytes, final boolean directIo)
+            throws IOException {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("chunkBytes must be > 0");
+        }
+        this.channel = directIo ? DirectIO.openForRead(path) : FileChannel.open(path, StandardOpenOption.READ);
+        this.length = length;
+        this.alignment = directIo ? DirectIO.alignment(path) : 1;
+        // небольшой таблице хватает куска по её размеру
+        final long wanted = Math.max(1, Math.min(chunkBytes, length));
+        this.chunkBytes = (int) ((wanted + alignment - 1) / alignment * alignment);
+        this.current = DirectIO.allocate(this.chunkBytes, alignment);
+        this.spare = DirectIO.allocate(this.chunkBytes, alignment);
+    }
+
+    /**
+     * Читает {@code dst.length} байт начиная с {@code position}; диапазон может пересекать границу кусков.
+     */
+    void read(long position, final byte[] dst) throws IOException {
+        if (position + dst.length > length) {
+            throw new EOFException("Read past " + length + " bytes at position " + position);
+        }
+        int done = 0;
+        while (done < dst.length) {
+            final long start = position / chunkBytes * chunkBytes;
+            if (start != currentStart) {
+                advance(start);
+            }
+            final int off = (int) (position - start);
+            if (off >= current.limit()) {
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            final int n = Math.min(dst.length - done, current.limit() - off);
+            current.get(off, dst, done, n);
+            done += n;
+            position += n;
+        }
+    }
+
+    // делает кусок с началом start текущим и запускает чтение следующего
+    private void advance(final long start) throws IOException {
+        final boolean ready = prefetchStart == start;
+        // spare переиспользуется, только когда фоновое чтение в него закончилось
+        awaitPrefetch();
+        if (!ready) {
+            fill(spare, start);
+        }
+        final ByteBuffer previous = current;
+        current = spare;
+        spare = previous;
+        currentStart = start;
+
+        final long next = start + chunkBytes;
+        if (next < length) {
+            final ByteBuffer target = spare;
+            prefetchStart = next;
+            prefetch = CompletableFuture.runAsync(() -> {
+                try {
+                    fill(target, next);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, PREFETCH);
+        }
+    }
+
+    private void awaitPrefetch() throws IOException {
+        if (prefetch == null) {
+            return;
+        }
+        final CompletableFuture<Void> pending = prefetch;
+        prefetch = null;
+        prefetchStart = -1;
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // читает кусок целиком или до конца файла; limit буфера — сколько прочитано
+    private void fill(final ByteBuffer buf, final long start) throws IOException {
+        final long end = Math.min(start + chunkBytes, length);
+        final long aligned = (end - start + alignment - 1) / alignment * alignment;
+        buf.clear().limit((int) aligned);
+        while (buf.hasRemaining()) {
+            // короткое чтение у конца файла: дальше читать нечего
+            if (channel.read(buf, start + buf.position()) <= 0 || buf.position() % alignment != 0) {
+                break;
+            }
+        }
+        buf.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitPrefetch();
+        } catch (IOException | CompletionException e) {
+            // ошибка упреждающего чтения никому не нужна, если до куска не дошли
+        } finally {
+            channel.close();
+        }
+    }
+}
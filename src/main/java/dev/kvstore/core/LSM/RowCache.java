@@ -0,0 +1,154 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Кэш полностью разрешённых записей перед путём чтения: запись после merge или «ключа нет».
+ * Запись хранится целиком, с версией и TTL: истёкшую отсекает читатель.
+ * Шарды по хэшу ключа, в каждом LRU со своим бюджетом байт под монитором шарда.
+ * <p>
+ * Чтение может закончиться позже записи того же ключа, поэтому заполнение идёт по штампу:
+ * {@link #stamp} берётся до среза чтения, а {@link #fill} ничего не кладёт,
+ * если шард с тех пор инвалидировали. Запись инвалидирует ключ после публикации.
+ */
+final class RowCache {
+    // заголовки объектов, ключ в мапе и узел LRU
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final Entry ABSENT = new Entry(new byte[0], null, true);
+
+    private final Shard[] shards;
+
+    RowCache(final long capacityBytes, final int shardCount) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(1, capacityBytes / shardCount));
+        }
+    }
+
+    /**
+     * Результат поиска: {@code null} — промах, {@link #isAbsent} — закэшировано «ключа нет».
+     */
+    Entry get(final byte[] key) {
+        final Key k = new Key(key);
+        return shard(k).get(k);
+    }
+
+    static boolean isAbsent(final Entry cached) {
+        return cached == ABSENT;
+    }
+
+    long stamp(final byte[] key) {
+        return shard(new Key(key)).stamp();
+    }
+
+    /**
+     * @param entry разрешённая запись или {@code null}, если ключа нет
+     */
+    void fill(final byte[] key, final Entry entry, final long stamp) {
+        // ключ копируем: вызывающий может переиспользовать свой массив
+        final Key k = new Key(key.clone());
+        shard(k).fill(k, entry == null ? ABSENT : entry, stamp);
+    }
+
+    void invalidate(final byte[] key) {
+        final Key k = new Key(key);
+        shard(k).invalidate(k);
+    }
+
+    void invalidateAll() {
+        for (Shard shard : shards) {
+            shard.invalidateAll();
+        }
+    }
+
+    private Shard shard(final Key k) {
+        // старшие биты хэша подмешиваем, чтобы соседние ключи не падали в один шард
+        final int h = k.hash ^ (k.hash >>> 16);
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
+    private static long weight(final Key k, final Entry entry) {
+        return k.bytes.length + (entry.value() == null ? 0 : entry.value().length) + ENTRY_OVERHEAD;
+    }
+
+    private static final class Shard {
+        private final long capacity;
+
+        private final LinkedHashMap<Key, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long used;
+
+        // растёт при каждой инвалидации шарда
+        private long version;
+
+        Shard(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Entry get(final Key k) {
+            return lru.get(k);
+        }
+
+        synchronized long stamp() {
+            return version;
+        }
+
+        synchronized void fill(final Key k, final Entry value, final long stamp) {
+            if (stamp != version) {
+                return;
+            }
+            final long weight = weight(k, value);
+            if (weight > capacity) {
+                return;
+            }
+            final Entry old = lru.put(k, value);
+            if (old != null) {
+                used -= weight(k, old);
+            }
+            used += weight;
+            final Iterator<Map.Entry<Key, Entry>> it = lru.entrySet().iterator();
+            while (used > capacity && it.hasNext()) {
+                final Map.Entry<Key, Entry> eldest = it.next();
+                used -= weight(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+
+        synchronized void invalidate(final Key k) {
+            version++;
+            final Entry old = lru.remove(k);
+            if (old != null) {
+                used -= weight(k, old);
+            }
+        }
+
+        synchronized void invalidateAll() {
+            version++;
+            lru.clear();
+            used = 0;
+        }
+    }
+
+    private record Key(byte[] bytes, int hash) {
+        Key(final byte[] bytes) {
+            this(bytes, Arrays.hashCode(bytes));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key k && hash == k.hash && Arrays.equals(bytes, k.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,29 +1,121 @@
 package dev.kvstore.core.LSM;
 
 import dev.kvstore.codec.BlockBuilder;
+import dev.kvstore.codec.BlockCompression;
+import dev.kvstore.codec.CodecFormatException;
+import dev.kvstore.codec.CompressionDictionary;
+import dev.kvstore.codec.DictionaryTrainer;
+import dev.kvstore.codec.ValueCodec;
 import dev.kvstore.codec.VarInts;
+import dev.kvstore.core.model.CompressionType;
 import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.TableOptions;
+import dev.kvstore.core.model.ValueRecord;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.function.Consumer;
-
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Файл: {@code [блоки данных][словарь значений, если обучен][индекс][футер]}.
+ * <p>
+ * Футер фиксированной длины: {@code [длина словаря (4)][длина индекса (4)][формат записей (1)][magic (4)]}.
+ * По нему {@link #open(File)} находит индекс и словарь и узнаёт формат, не полагаясь на {@link TableOptions}.
+ * <p>
+ * Блок на диске: {@code [блок BlockBuilder или его сжатое представление][тип сжатия (1 байт)]}.
+ * Длина в индексе включает байт типа.
+ * <p>
+ * Value record в формате v1 — {@code [значение][тип записи]}, в v2 — {@code [запись ValueCodec][тип записи]}:
+ * версия и TTL пишутся дельтами к базам блока, базы — минимумы по блоку в трейлере BlockBuilder.
+ * Формат при записи задаёт {@link TableOptions#formatVersion()}, при чтении — футер; таблицы обоих форматов
+ * читаются рядом.
+ */
 public class SSTable {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
     private final File file;
     private final List<IndexEntry> index;
-    private static final int BLOCK_SIZE = 128;
-    private static final int RESTART_INTERVAL = 16; // рестарт каждые 16 ключей
+    // null у таблицы, открытой с диска: опции нужны только при записи
+    private final TableOptions options;
+    // формат записей из футера; по нему, а не по опциям, разбираются value record
+    private final int formatVersion;
+    // ключ таблицы в кэше блоков
+    private final long id = NEXT_ID.incrementAndGet();
+    // null — блоки каждый раз читаются с диска
+    private final BlockCache blockCache;
+    // null — значения не сжаты
+    private CompressionDictionary dictionary;
+    // наибольший ключ таблицы, наименьший — начало первого блока в индексе; null у пустой таблицы
+    private byte[] largestKey;
+    // три varint перед ключом записи: shared, unshared, длина value record
+    private static final int MAX_ENTRY_HEADER = 15;
+    // соседние блоки multiSearch читает одним вызовом, но не больше этого
+    private static final int MAX_COALESCED_READ = 256 << 10;
+
+    // последний байт value record — тип записи
+    private static final byte KIND_VALUE = 0;
+    private static final byte KIND_TOMBSTONE = 1;
+    private static final byte KIND_MERGE = 2;
+    // значение в blob-файле, в таблице только BlobIndex
+    private static final byte KIND_BLOB = 3;
+    // флаг поверх типа: значение сжато словарём таблицы; в v2 вместо него FLAG_COMP ValueCodec
+    private static final byte FLAG_DICT = 0x10;
+    // флаги, ZigZag-дельты версии и TTL по varlong, длина payload
+    private static final int MAX_CODEC_OVERHEAD = 1 + 10 + 10 + 5;
+    // образцов для словаря не больше, чем во столько раз больше его размера
+    private static final int DICT_SAMPLE_RATIO = 32;
+    // "KVST"
+    private static final int FOOTER_MAGIC = 0x4B565354;
+    private static final int FOOTER_BYTES = 4 + 4 + 1 + 4;
+
+    // одна ссылка у уровня движка и по одной у каждого среза чтения;
+    // файл удаляется, когда компакция убрала таблицу и последний читатель её отпустил
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    // вызывается после удаления файла: отпускает blob-файлы, на которые ссылается таблица
+    private volatile Runnable onDelete;
 
     public File file() {
         return file;
     }
 
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        if (file.exists() && !file.delete()) {
+            System.err.println("Failed to delete: " + file.getAbsolutePath());
+        }
+        final Runnable hook = onDelete;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    void whenDeleted(final Runnable hook) {
+        this.onDelete = hook;
+    }
+
     public long createdAtMillis() {
         return file.lastModified();
     }
@@ -31,10 +123,15 @@ public class SSTable {
     private static final class Trailer {
         final int dataEnd; // позиция начала
         final List<Integer> restartOffsets;
+        // базы дельт ValueCodec; в блоках v1 нули
+        final long baseVersion;
+        final long baseExpire;
 
-        Trailer(int dataEnd, List<Integer> restartOffsets) {
+        Trailer(int dataEnd, List<Integer> restartOffsets, long baseVersion, long baseExpire) {
             this.dataEnd = dataEnd;
             this.restartOffsets = restartOffsets;
+            this.baseVersion = baseVersion;
+            this.baseExpire = baseExpire;
         }
     }
 
@@ -43,14 +140,15 @@ public class SSTable {
         p -= 4; // crc32c
         buf.position(p);
 
-        // читаем varint'ы с конца; нам нужны только restartOffsets и граница данных
+        // читаем varint'ы с конца: базы, restartOffsets и граница данных
         // [entriesCount][restartOffsets...][restartCount][blockBaseVersion][blockBaseExpire][crc]
         final int[] tmp = new int[1];
+        final long[] bases = new long[2];
 
         // blockBaseExpire
-        p = readVarIntBackwards(buf, p - 1, v -> tmp[0] = v);
+        p = readVarLongBackwards(buf, p - 1, v -> bases[1] = v);
         // blockBaseVersion
-        p = readVarIntBackwards(buf, p - 1, v -> tmp[0] = v);
+        p = readVarLongBackwards(buf, p - 1, v -> bases[0] = v);
 
         // restartCount
         List<Integer> restartOffsets = new ArrayList<>();
@@ -66,59 +164,395 @@ public class SSTable {
 
         // entriesCount считываем, чтобы получить границу данных
         p = readVarIntBackwards(buf, p - 1, v -> tmp[0] = v);
-        return new Trailer(p, restartOffsets);
+        return new Trailer(p, restartOffsets, bases[0], bases[1]);
     }
 
     public SSTable(String path, List<Entry> entries) throws IOException {
+        this(path, entries, TableOptions.DEFAULT);
+    }
+
+    public SSTable(String path, List<Entry> entries, TableOptions options) throws IOException {
+        this(path, entries, options, null);
+    }
+
+    SSTable(String path, List<Entry> entries, TableOptions options, BlockCache blockCache) throws IOException {
+        this(path, entries, options, blockCache, false);
+    }
+
+    /**
+     * @param directIo писать файл мимо page cache, см. {@link DirectIO}
+     */
+    SSTable(String path, List<Entry> entries, TableOptions options, BlockCache blockCache, boolean directIo)
+            throws IOException {
         this.file = new File(path + ".sstable"); // для демо ок, но не очень красиво в будущем
         this.index = new ArrayList<>();
-        writeData(entries);
+        this.options = options;
+        this.formatVersion = options.formatVersion();
+        this.blockCache = blockCache;
+        writeData(entries, directIo);
+        this.largestKey = entries.isEmpty() ? null : entries.get(entries.size() - 1).key();
     }
 
-    private void writeData(final List<Entry> entries) throws IOException {
-        try (final FileOutputStream fos = new FileOutputStream(file)) {
-            ByteBuffer blockBuf = ByteBuffer.allocate(BLOCK_SIZE); // бьём файл на блоки
-            BlockBuilder builder = new BlockBuilder(blockBuf, RESTART_INTERVAL);
-            byte[] firstKey = null; // Теперь byte[]
-            long blockOffset = 0;
+    private SSTable(final File file, final BlockCache blockCache) throws IOException {
+        this.file = file;
+        this.index = new ArrayList<>();
+        this.options = null;
+        this.blockCache = blockCache;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final long size = raf.length();
+            if (size < FOOTER_BYTES) {
+                throw new IOException("Too short for an SSTable footer: " + file);
+            }
+            final byte[] footerBytes = new byte[FOOTER_BYTES];
+            raf.seek(size - FOOTER_BYTES);
+            raf.readFully(footerBytes);
+            final ByteBuffer footer = ByteBuffer.wrap(footerBytes);
+            final int dictionaryLength = footer.getInt();
+            final int indexLength = footer.getInt();
+            final int format = Byte.toUnsignedInt(footer.get());
+            if (footer.getInt() != FOOTER_MAGIC) {
+                throw new IOException("Bad SSTable footer magic in " + file);
+            }
+            if (format != TableOptions.FORMAT_V1 && format != TableOptions.FORMAT_V2) {
+                throw new IOException("Unknown SSTable format " + format + " in " + file);
+            }
+            final long indexOffset = size - FOOTER_BYTES - indexLength;
+            final long dictionaryOffset = indexOffset - dictionaryLength;
+            if (dictionaryLength < 0 || indexLength < 0 || dictionaryOffset < 0) {
+                throw new IOException("Corrupted SSTable footer in " + file);
+            }
+            this.formatVersion = format;
+
+            final byte[] indexBytes = new byte[indexLength];
+            raf.seek(indexOffset);
+            raf.readFully(indexBytes);
+            readIndex(ByteBuffer.wrap(indexBytes));
+
+            if (dictionaryLength > 0) {
+                final byte[] dictionaryBytes = new byte[dictionaryLength];
+                raf.seek(dictionaryOffset);
+                raf.readFully(dictionaryBytes);
+                dictionary = new CompressionDictionary(dictionaryBytes);
+            }
+            if (!index.isEmpty()) {
+                final List<Entry> last = new ArrayList<>();
+                readEntries(block(index.size() - 1, false), index.get(index.size() - 1).offset, last);
+                largestKey = last.isEmpty() ? null : last.get(last.size() - 1).key();
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException
+                 | CodecFormatException e) {
+            throw new IOException("Corrupted SSTable metadata in " + file, e);
+        }
+    }
 
-            for (int i = 0; i < entries.size(); i++) {
-                final Entry entry = entries.get(i);
-                final ByteBuffer valueRecord = serializeValueRecord(entry);
+    /**
+     * Открывает записанную ранее таблицу: индекс, словарь и формат записей берутся из футера файла.
+     */
+    public static SSTable open(final File file) throws IOException {
+        return open(file, null);
+    }
 
-                if (blockBuf.position() == 0) {
-                    firstKey = entry.key(); // Сохраняем как byte[]
-                }
+    static SSTable open(final File file, final BlockCache blockCache) throws IOException {
+        return new SSTable(file, blockCache);
+    }
+
+    private void writeData(final List<Entry> entries, final boolean directIo) throws IOException {
+        if (options.dictionaryBytes() > 0) {
+            dictionary = DictionaryTrainer.train(sampleValues(entries), options.dictionaryBytes());
+        }
+        final boolean v2 = options.formatVersion() == TableOptions.FORMAT_V2;
+        // в v2 границы блоков считаются по записям от баз всей таблицы: базы блока не меньше,
+        // дельты к ним не длиннее, поэтому перекодированный блок влезает в тот же буфер
+        long tableBaseVersion = Long.MAX_VALUE;
+        long tableBaseExpire = Long.MAX_VALUE;
+        for (Entry e : entries) {
+            tableBaseVersion = Math.min(tableBaseVersion, e.version());
+            if (e.expireAtMillis() != 0) {
+                tableBaseExpire = Math.min(tableBaseExpire, e.expireAtMillis());
+            }
+        }
+        try (final OutputStream fos = directIo ? DirectIO.newOutput(file.toPath()) : new FileOutputStream(file);
+             final CompressionDictionary.Compressor compressor =
+                     dictionary == null ? null : dictionary.newCompressor()) {
+            ByteBuffer blockBuf = null; // бьём файл на блоки
+            BlockBuilder builder = null;
+            byte[] firstKey = null;
+            final List<Pending> inBlock = new ArrayList<>();
+            long blockOffset = 0;
 
+            for (final Entry entry : entries) {
+                final Pending pending = v2 ? prepare(entry, compressor) : null;
+                final ByteBuffer valueRecord = v2
+                        ? serializeV2(pending, tableBaseVersion, baseOrNull(tableBaseExpire))
+                        : serializeValueRecord(entry, compressor);
+                final int need = MAX_ENTRY_HEADER + entry.key().length + valueRecord.remaining();
+
+                if (builder != null
+                        && blockBuf.position() + need + trailerBytes(inBlock.size() + 1) > blockBuf.capacity()) {
+                    blockOffset += v2
+                            ? finishBlockV2(fos, blockBuf.capacity(), inBlock, blockOffset)
+                            : finishBlock(fos, blockBuf, builder, firstKey, blockOffset);
+                    builder = null;
+                }
+                if (builder == null) {
+                    // запись крупнее блока получает блок под себя, а не переполняет буфер
+                    blockBuf = ByteBuffer.allocate(Math.max(options.blockSize(), need + trailerBytes(1)));
+                    builder = new BlockBuilder(blockBuf, options.restartInterval());
+                    firstKey = entry.key();
+                    inBlock.clear();
+                }
                 builder.add(entry.key(), valueRecord);
+                inBlock.add(pending);
+            }
+            if (builder != null) {
+                blockOffset += v2
+                        ? finishBlockV2(fos, blockBuf.capacity(), inBlock, blockOffset)
+                        : finishBlock(fos, blockBuf, builder, firstKey, blockOffset);
+            }
+            if (dictionary != null) {
+                fos.write(dictionary.bytes());
+            }
+            final int indexLength = writeIndex(fos);
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            footer.putInt(dictionary == null ? 0 : dictionary.bytes().length);
+            footer.putInt(indexLength);
+            footer.put((byte) formatVersion);
+            footer.putInt(FOOTER_MAGIC);
+            fos.write(footer.array());
+        }
+    }
+
+    private int finishBlock(final OutputStream fos, final ByteBuffer blockBuf, final BlockBuilder builder,
+                            final byte[] firstKey, final long blockOffset) throws IOException {
+        builder.finish();
+        blockBuf.flip();
+        final byte[] compressed = BlockCompression.compress(options.compression(), blockBuf.array(), 0, blockBuf.limit());
+        final int length;
+        if (compressed == null) {
+            fos.write(blockBuf.array(), 0, blockBuf.limit());
+            fos.write(CompressionType.NONE.id());
+            length = blockBuf.limit() + 1;
+        } else {
+            fos.write(compressed);
+            fos.write(options.compression().id());
+            length = compressed.length + 1;
+        }
+        index.add(new IndexEntry(firstKey, blockOffset, length));
+        return length;
+    }
+
+    /**
+     * Блок v2 перекодируется от своих баз — минимальных версии и expireAt среди записей блока.
+     */
+    private int finishBlockV2(final OutputStream fos, final int capacity, final List<Pending> block,
+                              final long blockOffset) throws IOException {
+        long baseVersion = Long.MAX_VALUE;
+        long baseExpire = Long.MAX_VALUE;
+        for (Pending p : block) {
+            baseVersion = Math.min(baseVersion, p.entry().version());
+            if (p.entry().expireAtMillis() != 0) {
+                baseExpire = Math.min(baseExpire, p.entry().expireAtMillis());
+            }
+        }
+        final ByteBuffer blockBuf = ByteBuffer.allocate(capacity);
+        final BlockBuilder builder = new BlockBuilder(blockBuf, options.restartInterval());
+        builder.blockBaseVersion = baseVersion;
+        builder.blockBaseExpire = baseOrNull(baseExpire);
+        for (Pending p : block) {
+            builder.add(p.entry().key(), serializeV2(p, baseVersion, builder.blockBaseExpire));
+        }
+        return finishBlock(fos, blockBuf, builder, block.get(0).entry().key(), blockOffset);
+    }
+
+    // Long.MAX_VALUE — ни у одной записи нет TTL
+    private static Long baseOrNull(final long minExpire) {
+        return minExpire == Long.MAX_VALUE ? null : minExpire;
+    }
+
+    /**
+     * Блок BlockBuilder из того, что лежит на диске: снимает байт типа и распаковывает.
+     */
+    private static ByteBuffer decodeBlock(final byte[] data, final int off, final int length) throws IOException {
+        final CompressionType type;
+        try {
+            type = CompressionType.fromId(data[off + length - 1]);
+            if (type == CompressionType.NONE) {
+                return ByteBuffer.wrap(data, off, length - 1).slice();
+            }
+            return ByteBuffer.wrap(BlockCompression.decompress(type, data, off, length - 1));
+        } catch (IllegalArgumentException | CodecFormatException e) {
+            throw new IOException("Corrupted block at offset " + off, e);
+        }
+    }
+
+    // блок в собственном массиве ровно своего размера
+    private static ByteBuffer ownArray(final ByteBuffer block) {
+        if (block.arrayOffset() == 0 && block.array().length == block.capacity()) {
+            return block;
+        }
+        final byte[] copy = new byte[block.capacity()];
+        block.duplicate().clear().get(copy);
+        return ByteBuffer.wrap(copy);
+    }
 
-                if (blockBuf.position() > BLOCK_SIZE - 100 || i == entries.size() - 1) {
-                    builder.finish();
-                    blockBuf.flip();
-                    fos.write(blockBuf.array(), 0, blockBuf.limit());
-                    index.add(new IndexEntry(firstKey, blockOffset, blockBuf.limit()));
-                    blockOffset += blockBuf.limit();
-                    blockBuf = ByteBuffer.allocate(BLOCK_SIZE);
-                    builder = new BlockBuilder(blockBuf, RESTART_INTERVAL);
-                    firstKey = null;
+    /**
+     * Блок по номеру в индексе: из кэша или с диска с заполнением кэша.
+     *
+     * @param verify сверить контрольную сумму; блок из кэша тоже проверяется,
+     *               его мог положить туда читатель без проверки
+     */
+    private ByteBuffer block(final int position, final boolean verify) throws IOException {
+        final IndexEntry ie = index.get(position);
+        if (blockCache != null) {
+            final ByteBuffer cached = blockCache.get(id, ie.offset);
+            if (cached != null) {
+                if (verify) {
+                    verifyChecksum(cached, ie.offset);
                 }
+                return cached;
+            }
+        }
+        final ByteBuffer block = decodeBlock(readBlock(ie.offset, ie.length), 0, ie.length);
+        if (verify) {
+            verifyChecksum(block, ie.offset);
+        }
+        if (blockCache != null) {
+            blockCache.put(id, ie.offset, block);
+        }
+        return block;
+    }
+
+    /**
+     * Сверяет CRC32C, который {@link BlockBuilder#finish()} пишет в последние 4 байта блока.
+     * Сумма считается по распакованному блоку, поэтому ловит и порчу, которую распаковка пропустила.
+     */
+    private void verifyChecksum(final ByteBuffer block, final long offset) throws IOException {
+        final int end = block.limit() - 4;
+        if (end < 0) {
+            throw new IOException("Truncated block at offset " + offset + " in " + file);
+        }
+        final ByteBuffer view = block.duplicate();
+        view.position(0).limit(end);
+        final CRC32C crc = new CRC32C();
+        crc.update(view);
+        if ((int) crc.getValue() != block.getInt(end)) {
+            throw new IOException("Checksum mismatch in block at offset " + offset + " in " + file);
+        }
+    }
+
+    /**
+     * Проверяет контрольные суммы всех блоков таблицы, читая файл по порядку с упреждением мимо кэша блоков.
+     *
+     * @param beforeRead получает длину блока перед его чтением; через него вызывающий ограничивает скорость
+     * @throws IOException на первом битом блоке
+     */
+    public void verifyChecksums(final LongConsumer beforeRead) throws IOException {
+        try (final ReadaheadReader reader = new ReadaheadReader(file.toPath(), dataEnd(),
+                ReadaheadReader.DEFAULT_CHUNK_BYTES, false)) {
+            for (IndexEntry ie : index) {
+                beforeRead.accept(ie.length);
+                final byte[] data = new byte[ie.length];
+                reader.read(ie.offset, data);
+                verifyChecksum(decodeBlock(data, 0, ie.length), ie.offset);
+            }
+        }
+    }
+
+    // entriesCount, рестарты, restartCount, две базы по varlong и crc32c
+    private int trailerBytes(final int entries) {
+        final int restarts = (entries + options.restartInterval() - 1) / options.restartInterval();
+        return 5 + 5 * restarts + 5 + 10 + 10 + 4;
+    }
+
+    /**
+     * Равномерная выборка обычных значений таблицы для обучения словаря.
+     */
+    private List<byte[]> sampleValues(final List<Entry> entries) {
+        final long budget = (long) options.dictionaryBytes() * DICT_SAMPLE_RATIO;
+        long total = 0;
+        for (Entry e : entries) {
+            if (isPlainValue(e)) {
+                total += e.value().length;
+            }
+        }
+        // после взятого значения пропускаем в stride раз больше байт, чем взяли
+        final long stride = Math.max(1, total / budget);
+        final List<byte[]> samples = new ArrayList<>();
+        long seen = 0;
+        long next = 0;
+        long taken = 0;
+        for (Entry e : entries) {
+            if (!isPlainValue(e)) {
+                continue;
+            }
+            if (seen >= next && taken < budget) {
+                samples.add(e.value());
+                taken += e.value().length;
+                next = seen + e.value().length * stride;
+            }
+            seen += e.value().length;
+        }
+        return samples;
+    }
+
+    private static boolean isPlainValue(final Entry e) {
+        return !e.tombstone() && !e.merge() && !e.blob() && e.value() != null;
+    }
+
+    /**
+     * Payload записи v2: значение, сжатое словарём, если это выгодно; у могильника пустой.
+     */
+    private static Pending prepare(final Entry entry, final CompressionDictionary.Compressor compressor) {
+        final byte[] value = (entry.tombstone() || entry.value() == null) ? new byte[0] : entry.value();
+        if (compressor != null && isPlainValue(entry)) {
+            final byte[] compressed = compressor.compress(value);
+            if (compressed != null) {
+                return new Pending(entry, compressed, true);
             }
-            writeIndex(fos);
         }
+        return new Pending(entry, value, false);
     }
 
-    private ByteBuffer serializeValueRecord(final Entry entry) {
-        final int valLen = (entry.tombstone() || entry.value() == null) ? 0 : entry.value().length;
+    private static ByteBuffer serializeV2(final Pending p, final long baseVersion, final Long baseExpire) {
+        final Entry e = p.entry();
+        final ByteBuffer buf = ByteBuffer.allocate(MAX_CODEC_OVERHEAD + p.payload().length + 1);
+        final ValueRecord vr = new ValueRecord(p.payload(), e.version(),
+                e.expireAtMillis() == 0 ? null : e.expireAtMillis());
+        ValueCodec.write(vr, baseVersion, baseExpire, buf, p.payload(), p.compressed());
+        buf.put(kind(e));
+        buf.flip();
+        return buf;
+    }
+
+    private static byte kind(final Entry entry) {
+        return entry.tombstone() ? KIND_TOMBSTONE
+                : entry.merge() ? KIND_MERGE
+                : entry.blob() ? KIND_BLOB
+                : KIND_VALUE;
+    }
+
+    private ByteBuffer serializeValueRecord(final Entry entry, final CompressionDictionary.Compressor compressor) {
+        byte[] value = (entry.tombstone() || entry.value() == null) ? null : entry.value();
+        byte flags = 0;
+        if (compressor != null && isPlainValue(entry)) {
+            final byte[] compressed = compressor.compress(value);
+            if (compressed != null) {
+                value = compressed;
+                flags = FLAG_DICT;
+            }
+        }
+        final int valLen = value == null ? 0 : value.length;
         final ByteBuffer buf = ByteBuffer.allocate(valLen + 1);
         if (valLen > 0) {
-            buf.put(entry.value());
+            buf.put(value);
         }
-        buf.put((byte) (entry.tombstone() ? 1 : 0));
+        buf.put((byte) (flags | kind(entry)));
         buf.flip();
         return buf;
     }
 
-    private void writeIndex(FileOutputStream fos) throws IOException {
+    // возвращает длину индекса в байтах
+    private int writeIndex(OutputStream fos) throws IOException {
         final ByteBuffer indexBuf = ByteBuffer.allocate(estimateIndexSize());
         VarInts.putVarInt(index.size(), indexBuf);
         for (IndexEntry ie : index) {
@@ -129,70 +563,270 @@ public class SSTable {
         }
         indexBuf.flip();
         fos.write(indexBuf.array(), 0, indexBuf.limit());
+        return indexBuf.limit();
+    }
+
+    private void readIndex(final ByteBuffer indexBuf) {
+        final int count = VarInts.getVarInt(indexBuf);
+        for (int i = 0; i < count; i++) {
+            final byte[] startKey = new byte[VarInts.getVarInt(indexBuf)];
+            indexBuf.get(startKey);
+            final long offset = VarInts.getVarLong(indexBuf);
+            index.add(new IndexEntry(startKey, offset, VarInts.getVarInt(indexBuf)));
+        }
     }
 
     private int estimateIndexSize() {
-        return 4 + index.size() * 100; // Упрощенная оценка
+        int size = 5;
+        for (IndexEntry ie : index) {
+            size += 5 + ie.startKey.length + 10 + 5;
+        }
+        return size;
     }
 
     public List<Entry> getAllEntries() throws IOException {
+        return getAllEntries(false);
+    }
+
+    /**
+     * @param directIo читать файл мимо page cache, см. {@link DirectIO}
+     */
+    public List<Entry> getAllEntries(final boolean directIo) throws IOException {
         if (!file.exists()) return java.util.Collections.emptyList();
 
-        List<Entry> out = new ArrayList<>();
-        for (IndexEntry ie : index) {
-            byte[] blockData = readBlock(ie.offset, ie.length);
-            ByteBuffer buf = ByteBuffer.wrap(blockData);
-
-            Trailer tr = readTrailer(buf);
-            int p = tr.dataEnd;
-            List<Integer> restartOffsets = tr.restartOffsets;
-
-            buf.position(0);
-            byte[] lastKey = new byte[0];
-            int rIdx = 0;
-            int nextRestart = restartOffsets.isEmpty() ? Integer.MAX_VALUE : restartOffsets.get(0);
-
-            while (buf.position() < p) {
-                if (buf.position() == nextRestart) {
-                    lastKey = new byte[0];
-                    nextRestart = (++rIdx < restartOffsets.size()) ? restartOffsets.get(rIdx) : Integer.MAX_VALUE;
-                }
+        final List<Entry> out = new ArrayList<>();
+        try (TableIterator it = iterator(ReadaheadReader.DEFAULT_CHUNK_BYTES, directIo)) {
+            while (it.hasNext()) {
+                out.add(it.next());
+            }
+        }
+        return out;
+    }
 
-                int shared = VarInts.getVarInt(buf);
-                int unshared = VarInts.getVarInt(buf);
-                int valueLen = VarInts.getVarInt(buf);
+    /**
+     * Последовательный обход всех записей таблицы в порядке ключей без загрузки её целиком:
+     * данные читаются кусками по {@code readaheadBytes}, следующий кусок подгружается в фоне,
+     * пока разбираются блоки текущего. Блоки не кладутся в кэш, чтобы не вытеснять горячие;
+     * сумма сверяется всегда: компакция не должна переносить порчу в новые таблицы.
+     *
+     * @param directIo читать файл мимо page cache, см. {@link DirectIO}
+     */
+    public TableIterator iterator(final int readaheadBytes, final boolean directIo) throws IOException {
+        return new TableIterator(readaheadBytes, directIo);
+    }
 
-                if (shared > lastKey.length) shared = 0;
+    // конец области блоков: за ней словарь и индекс
+    private long dataEnd() {
+        if (index.isEmpty()) {
+            return 0;
+        }
+        final IndexEntry last = index.get(index.size() - 1);
+        return last.offset + last.length;
+    }
 
-                byte[] keyBytes = new byte[shared + unshared];
-                if (shared > 0) System.arraycopy(lastKey, 0, keyBytes, 0, shared);
-                buf.get(keyBytes, shared, unshared);
+    /**
+     * Курсор по записям таблицы; держит файл открытым до {@link #close()}.
+     */
+    public final class TableIterator implements Closeable {
+        private final ReadaheadReader reader;
 
-                byte[] valueRecord = new byte[valueLen];
-                buf.get(valueRecord);
+        // следующий блок по индексу
+        private int block;
 
-                lastKey = keyBytes;
+        // записи разобранного блока и позиция в них
+        private final List<Entry> decoded = new ArrayList<>();
+
+        private int at;
+
+        private TableIterator(final int readaheadBytes, final boolean directIo) throws IOException {
+            this.reader = new ReadaheadReader(file.toPath(), dataEnd(), readaheadBytes, directIo);
+        }
 
-                boolean tombstone = valueRecord[valueRecord.length - 1] == 1;
-                byte[] value = new byte[valueRecord.length - 1];
-                if (value.length > 0) System.arraycopy(valueRecord, 0, value, 0, value.length);
+        public boolean hasNext() throws IOException {
+            while (at == decoded.size()) {
+                if (block == index.size()) {
+                    return false;
+                }
+                final IndexEntry ie = index.get(block++);
+                final byte[] data = new byte[ie.length];
+                reader.read(ie.offset, data);
+                decoded.clear();
+                at = 0;
+                readEntries(decodeBlock(data, 0, ie.length), ie.offset, decoded);
+            }
+            return true;
+        }
 
-                out.add(new Entry(keyBytes, value, tombstone));
+        public Entry next() {
+            if (at == decoded.size()) {
+                throw new NoSuchElementException();
             }
+            return decoded.get(at++);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // все записи распакованного блока по порядку
+    private void readEntries(final ByteBuffer buf, final long offset, final List<Entry> out) throws IOException {
+        verifyChecksum(buf, offset);
+
+        Trailer tr = readTrailer(buf);
+        int p = tr.dataEnd;
+        List<Integer> restartOffsets = tr.restartOffsets;
+
+        buf.position(0);
+        byte[] lastKey = new byte[0];
+        int rIdx = 0;
+        int nextRestart = restartOffsets.isEmpty() ? Integer.MAX_VALUE : restartOffsets.get(0);
+
+        while (buf.position() < p) {
+            if (buf.position() == nextRestart) {
+                lastKey = new byte[0];
+                nextRestart = (++rIdx < restartOffsets.size()) ? restartOffsets.get(rIdx) : Integer.MAX_VALUE;
+            }
+
+            int shared = VarInts.getVarInt(buf);
+            int unshared = VarInts.getVarInt(buf);
+            int valueLen = VarInts.getVarInt(buf);
+
+            if (shared > lastKey.length) shared = 0;
+
+            byte[] keyBytes = new byte[shared + unshared];
+            if (shared > 0) System.arraycopy(lastKey, 0, keyBytes, 0, shared);
+            buf.get(keyBytes, shared, unshared);
+
+            byte[] valueRecord = new byte[valueLen];
+            buf.get(valueRecord);
+
+            lastKey = keyBytes;
+
+            out.add(toEntry(keyBytes, valueRecord, tr));
         }
-        return out;
     }
 
     public Entry search(final byte[] key) throws IOException {
-        final IndexEntry block = searchIndex(key);
-        if (block == null) {
+        return search(key, true);
+    }
+
+    /**
+     * Может ли ключ быть в таблице: попадает ли он в её диапазон ключей. Диск не читается.
+     */
+    boolean mayContain(final byte[] key) {
+        return largestKey != null
+                && Arrays.compare(key, index.get(0).startKey) >= 0
+                && Arrays.compare(key, largestKey) <= 0;
+    }
+
+    /**
+     * @param verifyChecksums сверять контрольную сумму прочитанного блока
+     */
+    public Entry search(final byte[] key, final boolean verifyChecksums) throws IOException {
+        final int position = searchIndexPosition(key);
+        if (position < 0) {
             return null;
         }
-        final byte[] blockData = readBlock(block.offset, block.length);
-        return searchInBlock(blockData, key);
+        final ByteBuffer block = block(position, verifyChecksums);
+        return searchInBlock(block, readTrailer(block), key);
+    }
+
+    /**
+     * Ищет несколько ключей за один проход по таблице; ключи должны быть отсортированы.
+     * Ключи из одного блока разбирают один прочитанный блок, подряд идущие блоки читаются одним вызовом.
+     *
+     * @return записи в порядке ключей; {@code null} — ключа в таблице нет
+     */
+    public Entry[] multiSearch(final List<byte[]> sortedKeys) throws IOException {
+        return multiSearch(sortedKeys, true);
+    }
+
+    public Entry[] multiSearch(final List<byte[]> sortedKeys, final boolean verifyChecksums) throws IOException {
+        final int n = sortedKeys.size();
+        final Entry[] out = new Entry[n];
+        // ключи отсортированы, поэтому номера блоков не убывают
+        final int[] blockOf = new int[n];
+        boolean any = false;
+        for (int i = 0; i < n; i++) {
+            blockOf[i] = searchIndexPosition(sortedKeys.get(i));
+            any |= blockOf[i] >= 0;
+        }
+        if (!any) {
+            return out;
+        }
+
+        // блоки из кэша берём сразу, остальные подряд идущие читаем одним вызовом
+        final Map<Integer, ByteBuffer> blocks = new HashMap<>();
+        final List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int b = blockOf[i];
+            if (b < 0 || blocks.containsKey(b) || !missing.isEmpty() && missing.get(missing.size() - 1) == b) {
+                continue;
+            }
+            final ByteBuffer cached = blockCache == null ? null : blockCache.get(id, index.get(b).offset);
+            if (cached != null) {
+                blocks.put(b, cached);
+            } else {
+                missing.add(b);
+            }
+        }
+        if (!missing.isEmpty()) {
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                int i = 0;
+                while (i < missing.size()) {
+                    final long start = index.get(missing.get(i)).offset;
+                    int j = i + 1;
+                    while (j < missing.size() && missing.get(j) - missing.get(j - 1) == 1
+                            && end(missing.get(j)) - start <= MAX_COALESCED_READ) {
+                        j++;
+                    }
+                    final byte[] range = new byte[(int) (end(missing.get(j - 1)) - start)];
+                    raf.seek(start);
+                    raf.readFully(range);
+                    for (int k = i; k < j; k++) {
+                        final IndexEntry ie = index.get(missing.get(k));
+                        // несжатый блок — срез общего диапазона; в кэш он уходит своей копией,
+                        // иначе держал бы весь диапазон, а кэш считал бы только срез
+                        final ByteBuffer block = ownArray(
+                                decodeBlock(range, (int) (ie.offset - start), ie.length));
+                        blocks.put(missing.get(k), block);
+                        if (blockCache != null) {
+                            blockCache.put(id, ie.offset, block);
+                        }
+                    }
+                    i = j;
+                }
+            }
+        }
+
+        int current = -1;
+        ByteBuffer block = null;
+        Trailer trailer = null;
+        for (int k = 0; k < n; k++) {
+            if (blockOf[k] < 0) {
+                continue;
+            }
+            if (blockOf[k] != current) {
+                current = blockOf[k];
+                block = blocks.get(current);
+                if (verifyChecksums) {
+                    verifyChecksum(block, index.get(current).offset);
+                }
+                trailer = readTrailer(block);
+            }
+            out[k] = searchInBlock(block, trailer, sortedKeys.get(k));
+        }
+        return out;
+    }
+
+    private long end(final int block) {
+        final IndexEntry ie = index.get(block);
+        return ie.offset + ie.length;
     }
 
-    private IndexEntry searchIndex(final byte[] key) {
+    private int searchIndexPosition(final byte[] key) {
         int low = 0;
         int high = index.size() - 1;
 
@@ -201,7 +835,7 @@ public class SSTable {
             IndexEntry midEntry = index.get(mid);
             int cmp = Arrays.compare(key, midEntry.startKey);
             if (cmp >= 0 && (mid == index.size() - 1 || Arrays.compare(key, index.get(mid + 1).startKey) < 0)) {
-                return midEntry;
+                return mid;
             }
             if (cmp < 0) {
                 high = mid - 1;
@@ -209,7 +843,7 @@ public class SSTable {
                 low = mid + 1;
             }
         }
-        return null;
+        return -1;
     }
 
     private byte[] readBlock(final long offset, final int length) throws IOException {
@@ -221,10 +855,7 @@ public class SSTable {
         }
     }
 
-    private Entry searchInBlock(final byte[] blockData, final byte[] key) {
-        ByteBuffer buf = ByteBuffer.wrap(blockData);
-
-        Trailer tr = readTrailer(buf);
+    private Entry searchInBlock(final ByteBuffer buf, final Trailer tr, final byte[] key) throws IOException {
         int p = tr.dataEnd;
         List<Integer> restartOffsets = tr.restartOffsets;
 
@@ -251,15 +882,41 @@ public class SSTable {
             lastKey = keyBytes;
 
             if (Arrays.equals(keyBytes, key)) {
-                boolean tombstone = valueRecord[valueRecord.length - 1] == 1;
-                byte[] value = new byte[valueRecord.length - 1];
-                if (value.length > 0) System.arraycopy(valueRecord, 0, value, 0, value.length);
-                return new Entry(keyBytes, value, tombstone);
+                return toEntry(keyBytes, valueRecord, tr);
             }
         }
         return null;
     }
 
+    private Entry toEntry(final byte[] key, final byte[] valueRecord, final Trailer tr) throws IOException {
+        final byte last = valueRecord[valueRecord.length - 1];
+        if (formatVersion == TableOptions.FORMAT_V2) {
+            final ValueRecord vr;
+            try {
+                vr = ValueCodec.read(ByteBuffer.wrap(valueRecord, 0, valueRecord.length - 1),
+                        tr.baseVersion, tr.baseExpire, dictionary);
+            } catch (CodecFormatException e) {
+                throw new IOException("Corrupted value record in " + file, e);
+            }
+            return new Entry(key, vr.value(), last == KIND_TOMBSTONE, last == KIND_MERGE, last == KIND_BLOB,
+                    vr.version(), vr.expireAtMillis() == null ? 0 : vr.expireAtMillis());
+        }
+        final byte kind = (byte) (last & ~FLAG_DICT);
+        byte[] value = new byte[valueRecord.length - 1];
+        if (value.length > 0) System.arraycopy(valueRecord, 0, value, 0, value.length);
+        if ((last & FLAG_DICT) != 0) {
+            if (dictionary == null) {
+                throw new IOException("Value is dictionary-compressed but " + file + " has no dictionary");
+            }
+            try {
+                value = dictionary.decompress(value);
+            } catch (CodecFormatException e) {
+                throw new IOException("Corrupted compressed value in " + file, e);
+            }
+        }
+        return new Entry(key, value, kind == KIND_TOMBSTONE, kind == KIND_MERGE, kind == KIND_BLOB);
+    }
+
     private int binarySearchRestartPoints(ByteBuffer buf, List<Integer> restartOffsets, byte[] key) {
         if (restartOffsets == null || restartOffsets.isEmpty()) {
             return 0; // нет рестартов — сканируем блок целиком
@@ -302,40 +959,36 @@ public class SSTable {
         }
     }
 
-    // Вспомогательные методы для чтения varint назад
-    private int readVarIntBackwards(ByteBuffer buf, int position, Consumer<Integer> consumer) {
-        long result = 0;
-        int shift = 0;
-        int bytesRead = 0;
-
-        while (bytesRead < 5) {
-            byte b = buf.get(position - bytesRead);
-            result |= (long) (b & 0x7F) << shift;
-            bytesRead++;
-            if (b >= 0) {
-                consumer.accept((int) result);
-                return position - bytesRead + 1;
-            }
-            shift += 7;
-        }
-        throw new IllegalArgumentException("Malformed varint at position " + position);
+    private int readVarIntBackwards(ByteBuffer buf, int position, IntConsumer consumer) {
+        return readVarLongBackwards(buf, position, v -> consumer.accept((int) v));
     }
 
-    private long readVarIntLong(ByteBuffer buf, int position) {
+    /**
+     * Читает varint, последний байт которого лежит на {@code position}, и возвращает позицию его начала.
+     * Начало — первый из идущих подряд байтов с флагом продолжения перед последним байтом.
+     * Граница однозначна: перед каждым полем трейлера стоит конец другого varint,
+     * а перед entriesCount — байт типа последней записи, у обоих старший бит сброшен.
+     */
+    private int readVarLongBackwards(ByteBuffer buf, int position, LongConsumer consumer) {
+        if (buf.get(position) < 0) {
+            throw new IllegalArgumentException("Malformed varint at position " + position);
+        }
+        int start = position;
+        while (start > 0 && position - start < 9 && buf.get(start - 1) < 0) {
+            start--;
+        }
         long result = 0;
         int shift = 0;
-        int bytesRead = 0;
-
-        while (bytesRead < 10) {
-            byte b = buf.get(position - bytesRead);
-            result |= (long) (b & 0x7F) << shift;
-            bytesRead++;
-            if (b >= 0) {
-                return result;
-            }
+        for (int i = start; i <= position; i++) {
+            result |= (long) (buf.get(i) & 0x7F) << shift;
             shift += 7;
         }
-        throw new IllegalArgumentException("Malformed varint at position " + position);
+        consumer.accept(result);
+        return start;
+    }
+
+    // запись v2, ждущая конца блока: payload уже сжат, осталось закодировать от баз блока
+    private record Pending(Entry entry, byte[] payload, boolean compressed) {
     }
 
     class IndexEntry {
@@ -0,0 +1,320 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.KVException;
+import dev.kvstore.core.PartialWriteException;
+import dev.kvstore.core.model.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Несколько независимых движков в одном процессе, ключи делятся по хэшу.
+ * У каждого шарда свой каталог, WAL, memtable и компакция, поэтому запись не упирается
+ * в один мьютекс WAL. Пакет атомарен только в пределах шарда: {@link #write} отклоняет пакет на несколько
+ * шардов, {@link #writePerShard} применяет его по частям.
+ * <p>
+ * Число шардов записано в каталоге: с другим числом данные оказались бы не в том шарде.
+ */
+public final class ShardedLSMEngine implements LSMEngine {
+
+    private static final String SHARDS_FILE = "SHARDS";
+
+    private final LSMEngineImpl[] shards;
+
+    /**
+     * @param memSize общий бюджет memtable, делится между шардами поровну
+     */
+    public ShardedLSMEngine(final String dir, final long memSize, final int shardCount,
+                            final EngineOptions options) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be >= 1");
+        }
+        checkShardCount(Path.of(dir), shardCount);
+        this.shards = new LSMEngineImpl[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new LSMEngineImpl(dir + File.separator + "shard-" + i, memSize / shardCount, options);
+        }
+    }
+
+    private static void checkShardCount(final Path dir, final int shardCount) throws IOException {
+        Files.createDirectories(dir);
+        final Path file = dir.resolve(SHARDS_FILE);
+        if (Files.exists(file)) {
+            final int existing = Integer.parseInt(Files.readString(file, StandardCharsets.UTF_8).trim());
+            if (existing != shardCount) {
+                throw new IOException("Data dir " + dir + " was created with " + existing
+                        + " shards, configured " + shardCount);
+            }
+            return;
+        }
+        Files.writeString(file, Integer.toString(shardCount), StandardCharsets.UTF_8);
+    }
+
+    private int shardOf(final byte[] key) {
+        // Arrays.hashCode не зависит от запуска, значит и раскладка по шардам тоже
+        final int h = Arrays.hashCode(key);
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    private LSMEngineImpl shard(final byte[] key) {
+        return shards[shardOf(key)];
+    }
+
+    /**
+     * Семейства во всех шардах открываются с одними настройками, поэтому и номера у них одинаковые.
+     */
+    @Override
+    public ColumnFamilyHandle columnFamily(final String name) throws KVException {
+        return shards[0].columnFamily(name);
+    }
+
+    @Override
+    public Entry get(final ColumnFamilyHandle family, final byte[] key, final ReadOptions options)
+            throws KVException, IOException {
+        return shard(key).get(family, key, options);
+    }
+
+    @Override
+    public CompletableFuture<Entry> getAsync(final ColumnFamilyHandle family, final byte[] key,
+                                             final ReadOptions options) {
+        return shard(key).getAsync(family, key, options);
+    }
+
+    @Override
+    public List<Entry> multiGet(final ColumnFamilyHandle family, final List<byte[]> keys,
+                                final ReadOptions options) throws KVException, IOException {
+        final List<List<Integer>> positions = positionsByShard(keys);
+        final Entry[] out = new Entry[keys.size()];
+        for (int s = 0; s < shards.length; s++) {
+            final List<Integer> mine = positions.get(s);
+            if (mine.isEmpty()) {
+                continue;
+            }
+            final List<Entry> found = shards[s].multiGet(family, keysAt(keys, mine), options);
+            for (int k = 0; k < mine.size(); k++) {
+                out[mine.get(k)] = found.get(k);
+            }
+        }
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Шарды читают свои ключи параллельно; future завершается, когда ответят все.
+     */
+    @Override
+    public CompletableFuture<List<Entry>> multiGetAsync(final ColumnFamilyHandle family, final List<byte[]> keys,
+                                                        final ReadOptions options) {
+        final List<List<Integer>> positions = positionsByShard(keys);
+        final Entry[] out = new Entry[keys.size()];
+        final List<CompletableFuture<Void>> parts = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            final List<Integer> mine = positions.get(s);
+            if (mine.isEmpty()) {
+                continue;
+            }
+            parts.add(shards[s].multiGetAsync(family, keysAt(keys, mine), options).thenAccept(found -> {
+                for (int k = 0; k < mine.size(); k++) {
+                    out[mine.get(k)] = found.get(k);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> Arrays.asList(out));
+    }
+
+    // позиции ключей по шардам, в порядке keys
+    private List<List<Integer>> positionsByShard(final List<byte[]> keys) {
+        final List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            positions.get(shardOf(keys.get(i))).add(i);
+        }
+        return positions;
+    }
+
+    private static List<byte[]> keysAt(final List<byte[]> keys, final List<Integer> positions) {
+        final List<byte[]> out = new ArrayList<>(positions.size());
+        for (int pos : positions) {
+            out.add(keys.get(pos));
+        }
+        return out;
+    }
+
+    @Override
+    public boolean put(final ColumnFamilyHandle family, final byte[] key, final byte[] value,
+                       final PutOptions options) throws KVException, IOException {
+        return shard(key).put(family, key, value, options);
+    }
+
+    @Override
+    public boolean delete(final ColumnFamilyHandle family, final byte[] key, final DeleteOptions options)
+            throws KVException, IOException {
+        return shard(key).delete(family, key, options);
+    }
+
+    @Override
+    public boolean merge(final ColumnFamilyHandle family, final byte[] key, final byte[] operand,
+                         final PutOptions options) throws KVException, IOException {
+        return shard(key).merge(family, key, operand, options);
+    }
+
+    /**
+     * Атомарность есть только внутри шарда, поэтому пакет, ключи которого лежат в разных шардах,
+     * отклоняется до записи. Такой пакет пишется через {@link #writePerShard}.
+     */
+    @Override
+    public void write(final List<Entry> batch, final List<ColumnFamilyHandle> families, final boolean sync)
+            throws KVException, IOException {
+        final List<List<Integer>> positions = positionsByShard(batch, families);
+        int used = -1;
+        for (int s = 0; s < shards.length; s++) {
+            if (positions.get(s).isEmpty()) {
+                continue;
+            }
+            if (used >= 0) {
+                throw new KVException("Batch spans several shards and cannot be applied atomically");
+            }
+            used = s;
+        }
+        if (used >= 0) {
+            shards[used].write(batch, families, sync);
+        }
+    }
+
+    /**
+     * Пакет делится по шардам с сохранением порядка, каждая часть применяется атомарно в своём шарде.
+     * Все части проверяются до записи первой, так что отказ из-за самого пакета ничего не применяет.
+     * Ошибка записи в шарде после того, как другие шарды уже записали свои части, даёт
+     * {@link PartialWriteException} с номерами применённых записей.
+     */
+    @Override
+    public void writePerShard(final List<Entry> batch, final List<ColumnFamilyHandle> families, final boolean sync)
+            throws KVException, IOException {
+        final List<List<Integer>> positions = positionsByShard(batch, families);
+        final List<List<Entry>> parts = new ArrayList<>(shards.length);
+        final List<List<ColumnFamilyHandle>> partFamilies = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            final List<Entry> part = new ArrayList<>(positions.get(s).size());
+            final List<ColumnFamilyHandle> fams = families == null ? null : new ArrayList<>(part.size());
+            for (int pos : positions.get(s)) {
+                part.add(batch.get(pos));
+                if (fams != null) {
+                    fams.add(families.get(pos));
+                }
+            }
+            shards[s].checkBatch(part, fams);
+            parts.add(part);
+            partFamilies.add(fams);
+        }
+        final List<Integer> applied = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            if (parts.get(s).isEmpty()) {
+                continue;
+            }
+            try {
+                shards[s].write(parts.get(s), partFamilies.get(s), sync);
+            } catch (KVException | IOException | RuntimeException e) {
+                if (applied.isEmpty()) {
+                    throw e;
+                }
+                Collections.sort(applied);
+                throw new PartialWriteException("Batch failed in shard " + s + ", "
+                        + applied.size() + " of " + batch.size() + " entries are applied", e, applied);
+            }
+            applied.addAll(positions.get(s));
+        }
+    }
+
+    private List<List<Integer>> positionsByShard(final List<Entry> batch, final List<ColumnFamilyHandle> families) {
+        if (families != null && families.size() != batch.size()) {
+            throw new IllegalArgumentException("families must match batch size");
+        }
+        final List<byte[]> keys = new ArrayList<>(batch.size());
+        for (Entry e : batch) {
+            keys.add(e.key());
+        }
+        return positionsByShard(keys);
+    }
+
+    /**
+     * Движок шарда скан не поддерживает, поэтому и здесь сливать нечего. Когда поддержка появится,
+     * курсоры шардов придётся сливать по ключу: раскладка идёт по хешу, и диапазон каждого шарда
+     * покрывает всё пространство ключей.
+     *
+     * @return всегда {@code null}
+     */
+    @Override
+    public ScanCursor scan(final KeyRange range, final ReadOptions options) {
+        return null;
+    }
+
+    @Override
+    public void flush() throws KVException, IOException {
+        for (LSMEngineImpl shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public List<File> scrub() {
+        final List<File> corrupt = new ArrayList<>();
+        for (LSMEngineImpl shard : shards) {
+            corrupt.addAll(shard.scrub());
+        }
+        return corrupt;
+    }
+
+    @Override
+    public WriteStallStats writeStallStats() {
+        // состояние — худшее среди шардов, счётчики суммируются
+        WriteStallStats.State state = WriteStallStats.State.NORMAL;
+        int level0 = 0;
+        int immutable = 0;
+        long pending = 0;
+        long delayed = 0;
+        long stopped = 0;
+        long stallMicros = 0;
+        for (LSMEngineImpl shard : shards) {
+            final WriteStallStats s = shard.writeStallStats();
+            if (s.state().compareTo(state) > 0) {
+                state = s.state();
+            }
+            level0 = Math.max(level0, s.level0Files());
+            immutable += s.immutableMemTables();
+            pending += s.pendingCompactionBytes();
+            delayed += s.delayedWrites();
+            stopped += s.stoppedWrites();
+            stallMicros += s.stallMicros();
+        }
+        return new WriteStallStats(state, level0, immutable, pending, delayed, stopped, stallMicros);
+    }
+
+    @Override
+    public void compact() throws KVException {
+        for (LSMEngineImpl shard : shards) {
+            shard.compact();
+        }
+    }
+
+    @Override
+    public void compactLevel(final ColumnFamilyHandle family, final int level) throws KVException, IOException {
+        for (LSMEngineImpl shard : shards) {
+            shard.compactLevel(family, level);
+        }
+    }
+
+    @Override
+    public void awaitCompactions() throws IOException {
+        for (LSMEngineImpl shard : shards) {
+            shard.awaitCompactions();
+        }
+    }
+}
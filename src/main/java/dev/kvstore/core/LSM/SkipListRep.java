@@ -0,0 +1,71 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Версии на куче: узел skiplist на каждую версию, ключ и значение — исходные массивы.
+ */
+final class SkipListRep implements MemTableRep {
+    private final ConcurrentSkipListMap<InternalKey, Entry> skipList =
+            new ConcurrentSkipListMap<>(); // лексикографическая сортировка по байтам, затем seq по убыванию
+
+    private final AtomicLong sizeInBytes = new AtomicLong(0);
+
+    @Override
+    public void insert(final Entry entry, final long seq) {
+        // каждая версия — отдельный узел, поэтому get для учёта размера не нужен
+        skipList.put(new InternalKey(entry.key(), seq), entry);
+        sizeInBytes.addAndGet(calculateEntrySize(entry));
+    }
+
+    @Override
+    public Iterable<Entry> versions(final byte[] key, final long maxSeq) {
+        return skipList.subMap(
+                new InternalKey(key, maxSeq), true,
+                new InternalKey(key, Long.MIN_VALUE), true
+        ).values();
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return skipList.values().iterator();
+    }
+
+    @Override
+    public long memoryUsage() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return skipList.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        skipList.clear();
+        sizeInBytes.set(0);
+    }
+
+    /// суммируется длина ключа + длина значения + 1 байт под tombstone
+    static long calculateEntrySize(final Entry entry) {
+        if (entry == null) {
+            return 0;
+        }
+        return (entry.key() != null ? entry.key().length : 0) + (entry.tombstone() ? 0 : entry.value() != null ? entry.value().length : 0) + 1; // tombstone
+    }
+
+    private record InternalKey(byte[] key, long seq) implements Comparable<InternalKey> {
+        @Override
+        public int compareTo(final InternalKey o) {
+            final int cmp = Arrays.compare(key, o.key);
+            return cmp != 0 ? cmp : Long.compare(o.seq, seq);
+        }
+    }
+}
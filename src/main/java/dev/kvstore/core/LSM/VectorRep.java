@@ -0,0 +1,119 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.Entry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Версии в массиве в порядке вставки — для массовой загрузки, где чтений почти нет.
+ * Вставка — дозапись в конец, сортировка — один раз в {@link #freeze()}.
+ * До заморозки чтение просматривает массив целиком.
+ */
+final class VectorRep implements MemTableRep {
+    private static final Comparator<Versioned> ORDER = (a, b) -> {
+        final int cmp = Arrays.compare(a.entry().key(), b.entry().key());
+        return cmp != 0 ? cmp : Long.compare(b.seq(), a.seq());
+    };
+
+    // до заморозки, под this
+    private final List<Versioned> items = new ArrayList<>();
+
+    private long sizeInBytes;
+
+    // после заморозки: отсортированный массив, дальше только чтение
+    private volatile Versioned[] sorted;
+
+    @Override
+    public synchronized void insert(final Entry entry, final long seq) {
+        if (sorted != null) {
+            throw new IllegalStateException("Memtable is frozen");
+        }
+        items.add(new Versioned(entry, seq));
+        sizeInBytes += SkipListRep.calculateEntrySize(entry);
+    }
+
+    @Override
+    public Iterable<Entry> versions(final byte[] key, final long maxSeq) {
+        final Versioned[] frozen = sorted;
+        final List<Entry> out = new ArrayList<>();
+        if (frozen != null) {
+            // первая версия ключа с номером не больше maxSeq
+            int lo = 0;
+            int hi = frozen.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int cmp = Arrays.compare(frozen[mid].entry().key(), key);
+                if (cmp < 0 || (cmp == 0 && frozen[mid].seq() > maxSeq)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < frozen.length && Arrays.equals(frozen[i].entry().key(), key); i++) {
+                out.add(frozen[i].entry());
+            }
+            return out;
+        }
+        final List<Versioned> matches = new ArrayList<>();
+        synchronized (this) {
+            for (Versioned v : items) {
+                if (v.seq() <= maxSeq && Arrays.equals(v.entry().key(), key)) {
+                    matches.add(v);
+                }
+            }
+        }
+        matches.sort(ORDER);
+        for (Versioned v : matches) {
+            out.add(v.entry());
+        }
+        return out;
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        Versioned[] frozen = sorted;
+        if (frozen == null) {
+            synchronized (this) {
+                frozen = items.toArray(new Versioned[0]);
+            }
+            Arrays.sort(frozen, ORDER);
+        }
+        return Arrays.stream(frozen).map(Versioned::entry).iterator();
+    }
+
+    @Override
+    public synchronized long memoryUsage() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return sorted != null ? sorted.length == 0 : items.isEmpty();
+    }
+
+    @Override
+    public synchronized void freeze() {
+        if (sorted != null) {
+            return;
+        }
+        final Versioned[] out = items.toArray(new Versioned[0]);
+        Arrays.sort(out, ORDER);
+        sorted = out;
+        items.clear();
+    }
+
+    @Override
+    public synchronized void clear() {
+        items.clear();
+        sorted = null;
+        sizeInBytes = 0;
+    }
+
+    private record Versioned(Entry entry, long seq) {
+    }
+}
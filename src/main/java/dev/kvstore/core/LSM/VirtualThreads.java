@@ -0,0 +1,31 @@
+package dev.kvstore.core.LSM;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Исполнитель для блокирующих чтений. Сборка под Java 17, а в образе JDK 21,
+ * поэтому виртуальные потоки берём через reflection, иначе — кэширующий пул daemon-потоков.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static ExecutorService newExecutor(final String name) {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                final Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dev.kvstore.core.LSM;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Граница видимости записей memtable. Номера публикуются строго по порядку:
+ * диапазон становится виден, только когда опубликованы все меньшие номера,
+ * поэтому читатель не увидит половину пакета или запись раньше предшествующей.
+ */
+final class VisibleSequence {
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition advanced = lock.newCondition();
+
+    private volatile long visible;
+
+    long get() {
+        return visible;
+    }
+
+    // после восстановления из WAL, пока писателей ещё нет
+    void reset(final long sequence) {
+        visible = sequence;
+    }
+
+    /**
+     * Публикует {@code [first, last]}; ждёт, пока будут опубликованы номера до {@code first}.
+     */
+    void publish(final long first, final long last) {
+        lock.lock();
+        try {
+            while (visible != first - 1) {
+                advanced.awaitUninterruptibly();
+            }
+            visible = last;
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void await(final long sequence) {
+        if (visible >= sequence) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (visible < sequence) {
+                advanced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
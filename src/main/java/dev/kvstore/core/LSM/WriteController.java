@@ -0,0 +1,140 @@
+package dev.kvstore.core.LSM;
+
+import dev.kvstore.core.model.WriteStallPolicy;
+import dev.kvstore.core.model.WriteStallStats;
+import dev.kvstore.core.model.WriteStallStats.State;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Торможение записи по долгу компакции и flush. Движок пересчитывает состояние после
+ * смены memtable, flush и компакции, писатели проходят через {@link #beforeWrite()} до записи в WAL.
+ * Задержка растёт плавно, поэтому запись не обрывается разом на пороге остановки.
+ */
+final class WriteController {
+    private final WriteStallPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition resumed = lock.newCondition();
+
+    private volatile State state = State.NORMAL;
+
+    private volatile long delayNanos;
+
+    // под lock
+    private int level0Files;
+
+    private int immutableMemTables;
+
+    private long pendingCompactionBytes;
+
+    private boolean aborted;
+
+    private final LongAdder delayedWrites = new LongAdder();
+
+    private final LongAdder stoppedWrites = new LongAdder();
+
+    private final LongAdder stallNanos = new LongAdder();
+
+    WriteController(final WriteStallPolicy policy) {
+        this.policy = policy;
+    }
+
+    void update(final int level0Files, final int immutableMemTables, final long pendingCompactionBytes) {
+        final double pressure = Math.max(
+                pressure(level0Files, policy.level0SlowdownFiles(), policy.level0StopFiles()),
+                Math.max(pressure(immutableMemTables, policy.immutableSlowdown(), policy.immutableStop()),
+                        pressure(pendingCompactionBytes, policy.pendingCompactionSlowdown(),
+                                policy.pendingCompactionStop())));
+        lock.lock();
+        try {
+            this.level0Files = level0Files;
+            this.immutableMemTables = immutableMemTables;
+            this.pendingCompactionBytes = pendingCompactionBytes;
+            if (pressure >= 1) {
+                state = State.STOPPED;
+            } else if (pressure > 0) {
+                delayNanos = (long) (policy.maxDelayMicros() * 1_000 * pressure);
+                state = State.DELAYED;
+            } else {
+                state = State.NORMAL;
+            }
+            if (state != State.STOPPED) {
+                resumed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Доля пути от порога замедления до порога остановки: 0 — ниже замедления, 1 — остановка.
+     * На самом пороге замедления задержка уже ненулевая.
+     */
+    static double pressure(final long value, final long slowdown, final long stop) {
+        if (value >= stop) {
+            return 1;
+        }
+        if (value < slowdown) {
+            return 0;
+        }
+        return (double) (value - slowdown + 1) / (stop - slowdown + 1);
+    }
+
+    /**
+     * Фоновая работа сломалась и долг уже не разгребётся: отпускаем ждущих, ошибку им вернёт движок.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            resumed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void beforeWrite() throws InterruptedIOException {
+        if (state == State.NORMAL) {
+            return;
+        }
+        final long start = System.nanoTime();
+        if (state == State.STOPPED) {
+            lock.lock();
+            try {
+                if (state == State.STOPPED && !aborted) {
+                    stoppedWrites.increment();
+                }
+                while (state == State.STOPPED && !aborted) {
+                    resumed.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writes are stopped");
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (state == State.DELAYED) {
+            delayedWrites.increment();
+            LockSupport.parkNanos(delayNanos);
+        }
+        stallNanos.add(System.nanoTime() - start);
+    }
+
+    WriteStallStats stats() {
+        lock.lock();
+        try {
+            return new WriteStallStats(state, level0Files, immutableMemTables, pendingCompactionBytes,
+                    delayedWrites.sum(), stoppedWrites.sum(), stallNanos.sum() / 1_000);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
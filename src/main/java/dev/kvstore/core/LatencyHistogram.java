@@ -0,0 +1,65 @@
+package dev.kvstore.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Простая гистограмма задержек без блокировок: корзины по степеням двойки в микросекундах.
+ * Корзина {@code i} считает значения из {@code [2^(i-1), 2^i)} мкс, нулевая — всё, что меньше 1 мкс.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    public void record(final long nanos) {
+        final long micros = Math.max(0, nanos / 1_000);
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double meanMicros() {
+        final long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1_000.0 / n;
+    }
+
+    /**
+     * Верхняя граница корзины, в которую попал перцентиль.
+     *
+     * @param percentile от 0 до 100
+     * @return микросекунды
+     */
+    public long percentileMicros(final double percentile) {
+        final long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count() + " mean=" + String.format("%.1f", meanMicros()) + "us"
+                + " p50<=" + percentileMicros(50) + "us"
+                + " p99<=" + percentileMicros(99) + "us"
+                + " p999<=" + percentileMicros(99.9) + "us";
+    }
+}
@@ -0,0 +1,23 @@
+package dev.kvstore.core;
+
+import java.util.List;
+
+/**
+ * Пакет применился не целиком: части в одних шардах записаны, в других — нет.
+ * Записанные части остаются, откатывать их некому.
+ */
+public class PartialWriteException extends KVException {
+    private final List<Integer> appliedPositions;
+
+    /**
+     * @param appliedPositions номера записей пакета, которые применены, по возрастанию
+     */
+    public PartialWriteException(String message, Throwable cause, List<Integer> appliedPositions) {
+        super(message, cause);
+        this.appliedPositions = List.copyOf(appliedPositions);
+    }
+
+    public List<Integer> appliedPositions() {
+        return appliedPositions;
+    }
+}
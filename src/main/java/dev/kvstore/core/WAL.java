@@ -6,20 +6,69 @@ import dev.kvstore.core.model.WALOperationType;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 import java.util.function.Consumer;
 
 
 public interface WAL extends Closeable {
 
-    void write(Entry entry, WALOperationType walOperationType) throws IOException;
+    /**
+     * Дописывает запись в лог.
+     *
+     * @param sync сделать fsync до возврата
+     * @return номер последовательности записи
+     */
+    default long write(Entry entry, WALOperationType walOperationType, boolean sync) throws IOException {
+        return write(0, entry, walOperationType, sync);
+    }
+
+    default long write(Entry entry, WALOperationType walOperationType) throws IOException {
+        return write(entry, walOperationType, false);
+    }
+
+    /**
+     * Дописывает запись семейства столбцов {@code columnFamily}; 0 — семейство по умолчанию.
+     */
+    long write(int columnFamily, Entry entry, WALOperationType walOperationType, boolean sync) throws IOException;
+
+    /**
+     * Дописывает пакет одной записью лога: при восстановлении он применяется целиком или не применяется вовсе.
+     * Тип операции каждой записи определяется её флагами.
+     *
+     * @return номер последовательности первой записи, остальные идут подряд
+     */
+    default long writeBatch(List<Entry> entries, boolean sync) throws IOException {
+        return writeBatch(entries, null, sync);
+    }
 
     /**
-     * Восстанавливает данные из WAL в память.
+     * Пакет с записями разных семейств столбцов: атомарность та же, что и у пакета одного семейства.
+     *
+     * @param columnFamilies семейство каждой записи; {@code null} — все в семействе по умолчанию
+     */
+    long writeBatch(List<Entry> entries, int[] columnFamilies, boolean sync) throws IOException;
+
+    /**
+     * Восстанавливает данные из WAL в память. {@link WALEntry#id()} — номер последовательности;
+     * следующие записи получат номера больше восстановленных.
      */
     void recover(Consumer<WALEntry> consumer) throws IOException;
 
     /**
-     * Очищает WAL (удаляет лог после успешного flush).
+     * Начинает новый сегмент для следующего поколения memtable.
+     *
+     * @return поколение нового активного сегмента
+     */
+    long rotate() throws IOException;
+
+    /**
+     * Сегменты поколений младше {@code generation} больше не нужны:
+     * их memtable уже сброшены в SSTable.
+     */
+    void release(long generation) throws IOException;
+
+    /**
+     * Очищает WAL: всё записанное до вызова больше не нужно.
      */
     void clear() throws IOException;
 
@@ -3,135 +3,871 @@ package dev.kvstore.core;
 import dev.kvstore.core.model.Entry;
 import dev.kvstore.core.model.WALEntry;
 import dev.kvstore.core.model.WALOperationType;
+import dev.kvstore.core.model.WALSyncPolicy;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 
 
+/**
+ * WAL с групповым коммитом: конкурентные писатели встают в очередь,
+ * первый в очереди (лидер) пишет записи всей группы одним gathering write
+ * через {@link FileChannel} и, если кто-то из группы просил sync, делает один fsync.
+ * Остальные писатели группы просто ждут, пока лидер их разбудит.
+ * <p>
+ * Когда делать fsync, решает {@link WALSyncPolicy}; запись с {@code sync=true}
+ * синкается всегда. Задержки записей и самих fsync собираются в гистограммы.
+ * <p>
+ * Лог разбит на сегменты {@code <path>.<generation>}: новый начинается при смене memtable
+ * и когда текущий заполнен, так что memtable может занимать несколько сегментов.
+ * Сегменты заранее заполняются нулями до фиксированного размера в фоне,
+ * поэтому дозапись не меняет метаданные файла. После flush сегмент не удаляется,
+ * а переименовывается в {@code <path>.<generation>.free} и потом переиспользуется.
+ * Каждая запись начинается с поколения сегмента: хвост из нулей или старые записи
+ * переиспользованного файла при восстановлении просто не совпадут по поколению.
+ * <p>
+ * Формат записи: {@code generation(8) | length(4) | crc32c(4) | payload(length)},
+ * payload — {@code count(4) | count * (keyLen key valueLen value tombstone opType columnFamily(4) expireAt(8))
+ * | timestamp(8)}, {@code expireAt} — момент истечения TTL в мс, 0 — без TTL.
+ * Одиночная запись — пакет из одного элемента, пакет целиком проверяется одной контрольной суммой.
+ * <p>
+ * Номера последовательности выдаёт лидер группы в порядке очереди, так что порядок номеров
+ * совпадает с порядком записей в логе. Поэтому в лог номера не пишутся: при восстановлении
+ * они выдаются заново подряд, и следующие записи продолжают ту же нумерацию.
+ * После ошибки записи лог переходит в сломанное состояние и больше не принимает записи:
+ * хвост файла после неудачной записи не определён.
+ * Восстановление читает сегмент через mmap и останавливается на первой записи
+ * с неверной длиной или контрольной суммой: такая запись затирается,
+ * а более поздние сегменты отбрасываются, чтобы следующий запуск видел ту же историю.
+ */
 public class WALImpl implements WAL {
-    private final File file;
+    private static final WALOperationType[] OP_TYPES = WALOperationType.values();
 
-    private FileOutputStream fos;
+    // ограничение на размер одной группы, чтобы лидер не копил запись бесконечно
+    private static final int MAX_GROUP_BYTES = 1 << 20;
 
-    private final Object lock = new Object();
+    public static final long DEFAULT_SEGMENT_BYTES = 4L << 20;
 
-    private final AtomicLong id = new AtomicLong(0);
+    // generation + length + crc32c
+    private static final int HEADER_BYTES = 8 + 4 + 4;
+
+    // keyLen + valueLen + tombstone + opType + columnFamily + expireAt
+    private static final int ENTRY_OVERHEAD_BYTES = 4 + 4 + 1 + 1 + 4 + 8;
+
+    // count + timestamp
+    private static final int BATCH_OVERHEAD_BYTES = 4 + 8;
+
+    private static final int MIN_PAYLOAD_BYTES = BATCH_OVERHEAD_BYTES + ENTRY_OVERHEAD_BYTES;
+
+    private static final int INITIAL_RECORD_BUFFER = 4 << 10;
+
+    // записи больше этого сериализуются в разовый буфер, чтобы не держать крупный буфер на каждом потоке
+    private static final int MAX_CACHED_RECORD_BUFFER = 64 << 10;
+
+    private static final String FREE_SUFFIX = ".free";
+
+    // сколько освобождённых сегментов держать про запас, остальные удаляются
+    private static final int MAX_FREE_SEGMENTS = 1;
+
+    private final File dir;
+
+    // общий префикс имён сегментов, например wal.log
+    private final String baseName;
+
+    private final long segmentBytes;
+
+    private volatile FileChannel channel;
+
+    private final WALSyncPolicy syncPolicy;
+
+    // фоновый fsync для режима PERIODIC, иначе null
+    private final ScheduledExecutorService syncer;
+
+    // фоновая подготовка следующего сегмента
+    private final ExecutorService allocator;
+
+    // сколько байт записано с последнего fsync
+    private final AtomicLong unsyncedBytes = new AtomicLong(0);
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private final LatencyHistogram syncWriteLatency = new LatencyHistogram();
+
+    private final LatencyHistogram fsyncLatency = new LatencyHistogram();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition groupDone = lock.newCondition();
+
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+
+    // у потока в полёте не больше одной записи: он ждёт, пока лидер её запишет,
+    // поэтому буфер записи можно переиспользовать от вызова к вызову
+    private final ThreadLocal<PendingWrite> pending = ThreadLocal.withInitial(PendingWrite::new);
+
+    // группа и массив для gathering write — только у текущего лидера
+    private final List<PendingWrite> group = new ArrayList<>();
+
+    private ByteBuffer[] gather = new ByteBuffer[16];
+
+    // последний выданный номер последовательности, под lock
+    private long lastSequence;
+
+    // первая ошибка записи, под lock
+    private IOException failure;
+
+    private final AtomicLong nextGeneration = new AtomicLong(1);
+
+    // поля ниже — под lock
+    private final TreeMap<Long, File> liveSegments = new TreeMap<>();
+
+    private final ArrayDeque<File> freeSegments = new ArrayDeque<>();
+
+    private long activeGeneration;
+
+    // сколько байт групп отдано в активный сегмент
+    private long activeBytes;
+
+    private Future<Segment> spare;
 
     public WALImpl(final String path) throws IOException {
-        this.file = new File(path);
-        this.fos = new FileOutputStream(file, true);
+        this(path, WALSyncPolicy.OS_MANAGED);
+    }
+
+    public WALImpl(final String path, final WALSyncPolicy syncPolicy) throws IOException {
+        this(path, syncPolicy, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public WALImpl(final String path, final WALSyncPolicy syncPolicy, final long segmentBytes) throws IOException {
+        final File base = new File(path).getAbsoluteFile();
+        this.dir = base.getParentFile();
+        this.baseName = base.getName();
+        this.segmentBytes = segmentBytes;
+        this.syncPolicy = syncPolicy;
+        this.allocator = Executors.newSingleThreadExecutor(daemon("wal-allocator"));
+        if (syncPolicy.mode() == WALSyncPolicy.Mode.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(daemon("wal-syncer"));
+            if (syncPolicy.intervalMillis() > 0) {
+                syncer.scheduleWithFixedDelay(this::backgroundSync,
+                        syncPolicy.intervalMillis(), syncPolicy.intervalMillis(), TimeUnit.MILLISECONDS);
+            }
+        } else {
+            this.syncer = null;
+        }
+
+        scanSegments();
+        lock.lock();
+        try {
+            final Segment first = prepareSegment(nextGeneration.getAndIncrement(), freeSegments.pollFirst());
+            activate(first);
+            spare = allocator.submit(newSegmentTask());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Задержки записей без fsync.
+     */
+    public LatencyHistogram writeLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Задержки записей, которые ждали fsync (sync=true или режим ALWAYS).
+     */
+    public LatencyHistogram syncWriteLatency() {
+        return syncWriteLatency;
+    }
+
+    /**
+     * Длительность самих fsync, включая фоновые.
+     */
+    public LatencyHistogram fsyncLatency() {
+        return fsyncLatency;
+    }
+
+    @Override
+    public long write(final int columnFamily, final Entry entry, final WALOperationType walOperationType,
+                      final boolean sync) throws IOException {
+        final long start = System.nanoTime();
+        final boolean needSync = sync || syncPolicy.mode() == WALSyncPolicy.Mode.ALWAYS;
+        try {
+            // сериализуем до захвата блокировки
+            final PendingWrite w = pending.get();
+            w.reset(needSync);
+            serializeEntry(w, columnFamily, entry, walOperationType);
+            return append(w);
+        } finally {
+            (needSync ? syncWriteLatency : writeLatency).record(System.nanoTime() - start);
+        }
     }
 
     @Override
-    public void write(final Entry entry, final WALOperationType walOperationType) throws IOException {
-        final WALEntry walEntry = new WALEntry(
-                id.addAndGet(1),
-                entry.key(),
-                entry.value(),
-                entry.tombstone(),
-                walOperationType,
-                LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)
-        );
-        synchronized (lock) {
-            final ByteBuffer buffer = serializeEntry(walEntry);
-            fos.write(buffer.array());
-            fos.flush();
+    public long writeBatch(final List<Entry> entries, final int[] columnFamilies, final boolean sync)
+            throws IOException {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Empty WAL batch");
+        }
+        if (columnFamilies != null && columnFamilies.length != entries.size()) {
+            throw new IllegalArgumentException("Column family ids do not match batch size");
+        }
+        final long start = System.nanoTime();
+        final boolean needSync = sync || syncPolicy.mode() == WALSyncPolicy.Mode.ALWAYS;
+        try {
+            final PendingWrite w = pending.get();
+            w.reset(needSync);
+            serializeBatch(w, entries, columnFamilies);
+            return append(w);
+        } finally {
+            (needSync ? syncWriteLatency : writeLatency).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return номер последовательности первой записи пакета
+     */
+    private long append(final PendingWrite w) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("WAL is unusable after a failed write", failure);
+            }
+            queue.addLast(w);
+            while (!w.done && queue.peekFirst() != w) {
+                groupDone.awaitUninterruptibly();
+            }
+            if (w.done) {
+                // нашу запись уже записал чужой лидер
+                if (w.error != null) {
+                    throw new IOException("WAL group write failed", w.error);
+                }
+                return w.firstSequence;
+            }
+            if (failure != null) {
+                // предыдущая группа не записалась, дописывать после неё нельзя
+                queue.pollFirst();
+                groupDone.signalAll();
+                throw new IOException("WAL is unusable after a failed write", failure);
+            }
+
+            // мы лидер: забираем группу из головы очереди, сами остаёмся в голове,
+            // поэтому пока идёт запись, новый лидер не появится
+            long groupBytes = 0;
+            boolean groupSync = false;
+            for (PendingWrite p : queue) {
+                if (!group.isEmpty() && groupBytes + p.record.remaining() > MAX_GROUP_BYTES) {
+                    break;
+                }
+                group.add(p);
+                groupBytes += p.record.remaining();
+                groupSync |= p.sync;
+            }
+
+            IOException error = null;
+            try {
+                // группа не влезает в преаллоцированный сегмент — переходим на следующий,
+                // а не растим файл: рост менял бы метаданные на каждой дозаписи
+                if (activeBytes > 0 && activeBytes + groupBytes > segmentBytes) {
+                    switchSegment();
+                }
+                for (PendingWrite p : group) {
+                    // поколение проставляем только сейчас: между сериализацией и записью мог пройти rotate
+                    p.record.putLong(0, activeGeneration);
+                    p.firstSequence = lastSequence + 1;
+                    lastSequence += p.count;
+                }
+                activeBytes += groupBytes;
+                lock.unlock();
+                try {
+                    writeGroup(groupSync);
+                } finally {
+                    lock.lock();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+
+            for (PendingWrite p : group) {
+                queue.pollFirst();
+                p.error = error;
+                p.done = true;
+            }
+            group.clear();
+            if (error != null) {
+                failure = error;
+            }
+            groupDone.signalAll();
+            if (error != null) {
+                throw error;
+            }
+            return w.firstSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeGroup(final boolean sync) throws IOException {
+        final int n = group.size();
+        if (gather.length < n) {
+            gather = new ByteBuffer[Math.max(n, gather.length * 2)];
+        }
+        long remaining = 0;
+        for (int i = 0; i < n; i++) {
+            gather[i] = group.get(i).record;
+            remaining += gather[i].remaining();
+        }
+        final long written = remaining;
+        while (remaining > 0) {
+            remaining -= channel.write(gather, 0, n);
+        }
+        if (sync) {
+            unsyncedBytes.set(0);
+            force();
+            return;
+        }
+        final long unsynced = unsyncedBytes.addAndGet(written);
+        if (syncer != null && syncPolicy.bytesPerSync() > 0 && unsynced >= syncPolicy.bytesPerSync()) {
+            syncer.execute(this::backgroundSync);
+        }
+    }
+
+    private void force() throws IOException {
+        force(channel);
+    }
+
+    private void force(final FileChannel ch) throws IOException {
+        final long start = System.nanoTime();
+        ch.force(false);
+        fsyncLatency.record(System.nanoTime() - start);
+    }
+
+    private void backgroundSync() {
+        // канал берём до обнуления счётчика: байты, которые мы забираем, записаны в него,
+        // а не в сегмент, на который лог мог переключиться после обнуления
+        final FileChannel ch = channel;
+        if (unsyncedBytes.getAndSet(0) == 0) {
+            return;
+        }
+        try {
+            force(ch);
+        } catch (ClosedChannelException e) {
+            // сегмент уже сменили или лог закрыли; switchSegment и close синкают его сами
+        } catch (IOException e) {
+            System.err.println("Background WAL fsync failed: " + e.getMessage());
         }
     }
 
     @Override
     public void recover(final Consumer<WALEntry> consumer) throws IOException {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            while (raf.getFilePointer() < raf.length()) {
+        final Map<Long, File> segments;
+        lock.lock();
+        try {
+            segments = new TreeMap<>(liveSegments);
+        } finally {
+            lock.unlock();
+        }
+        // восстановление идёт до первой записи, новые записи продолжат эту нумерацию
+        final AtomicLong sequence = new AtomicLong(0);
+        try {
+            for (var s : segments.entrySet()) {
+                final long corruptAt = recoverSegment(s.getKey(), s.getValue(), sequence, consumer);
+                if (corruptAt >= 0) {
+                    truncate(s.getValue(), corruptAt);
+                    dropSegmentsAfter(s.getKey());
+                    return;
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                lastSequence = sequence.get();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return смещение первой повреждённой записи или -1, если сегмент прочитан до конца
+     */
+    private long recoverSegment(final long generation, final File file, final AtomicLong sequence,
+                                final Consumer<WALEntry> consumer) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("WAL segment is too large to map: " + file.getName());
+            }
+            final ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final CRC32C crc = new CRC32C();
+            while (buf.remaining() >= HEADER_BYTES) {
+                final int offset = buf.position();
+                // нули преаллокации или записи прошлой жизни переиспользованного файла — конец сегмента
+                if (buf.getLong(offset) != generation) {
+                    return -1;
+                }
+                final int length = buf.getInt(offset + 8);
+                final int checksum = buf.getInt(offset + 12);
+                if (length < MIN_PAYLOAD_BYTES || length > buf.remaining() - HEADER_BYTES) {
+                    System.err.println("Torn WAL record in " + file.getName() + " at offset " + offset);
+                    return offset;
+                }
+                final ByteBuffer payload = buf.slice(offset + HEADER_BYTES, length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("WAL checksum mismatch in " + file.getName() + " at offset " + offset);
+                    return offset;
+                }
+                final List<WALEntry> entries;
                 try {
-                    final WALEntry entry = deserializeEntry(raf);
-                    raf.getFilePointer();
-                    consumer.accept(entry);
+                    entries = deserializeBatch(payload, sequence.get() + 1);
                 } catch (IOException e) {
-                    System.err.println("Error reading WAL entry at offset " + raf.getFilePointer() + ": " + e.getMessage());
+                    System.err.println("Error reading WAL entry in " + file.getName() + " at offset " + offset + ": " + e.getMessage());
+                    return offset;
+                }
+                // пакет отдаём только целиком, после проверки всей записи
+                sequence.addAndGet(entries.size());
+                for (WALEntry entry : entries) {
+                    consumer.accept(entry);
                 }
+                buf.position(offset + HEADER_BYTES + length);
             }
+            return -1;
         }
     }
 
-    @Override
-    public void clear() throws IOException {
-        synchronized (lock) {
-            fos.close();
-            if (file.exists()) {
-                if (!file.delete()) {
-                    throw new IOException("Failed to delete WAL file: " + file.getPath());
+    // затираем поколение в заголовке: дальше этой точки сегмент читаться не будет
+    private void truncate(final File file, final long offset) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final ByteBuffer zero = ByteBuffer.allocate(8);
+            while (zero.hasRemaining()) {
+                ch.write(zero, offset + zero.position());
+            }
+            ch.force(false);
+        }
+    }
+
+    // записи после повреждения не применяются, значит и их сегменты больше не нужны
+    private void dropSegmentsAfter(final long generation) throws IOException {
+        final List<File> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            final var it = liveSegments.tailMap(generation, false).entrySet().iterator();
+            while (it.hasNext()) {
+                final var e = it.next();
+                if (e.getKey() == activeGeneration) {
+                    continue;
                 }
+                dropped.add(e.getValue());
+                it.remove();
             }
-            this.fos = new FileOutputStream(file, true);
+        } finally {
+            lock.unlock();
+        }
+        for (File f : dropped) {
+            System.err.println("Dropping WAL segment after corruption: " + f.getName());
+            recycle(f);
+        }
+    }
+
+    @Override
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            awaitIdle();
+            switchSegment();
+            return activeGeneration;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // переход на подготовленный сегмент; под lock, когда никто не пишет в текущий
+    private void switchSegment() throws IOException {
+        Segment next;
+        try {
+            next = spare.get();
+        } catch (ExecutionException e) {
+            // фоновая подготовка не удалась — готовим сегмент сами
+            next = prepareSegment(nextGeneration.getAndIncrement(), freeSegments.pollFirst());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for WAL segment", e);
+        }
+        final FileChannel old = channel;
+        activate(next);
+        spare = allocator.submit(newSegmentTask());
+        // синкаем старый сегмент, даже если счётчик уже обнулён: фоновый синк мог забрать
+        // его байты и ещё не успеть вызвать force, а после close он его уже не вызовет
+        unsyncedBytes.set(0);
+        if (syncPolicy.mode() != WALSyncPolicy.Mode.OS) {
+            force(old);
         }
+        old.close();
+    }
+
+    @Override
+    public void release(final long generation) throws IOException {
+        final List<File> released = new ArrayList<>();
+        lock.lock();
+        try {
+            final var it = liveSegments.headMap(Math.min(generation, activeGeneration), false).entrySet().iterator();
+            while (it.hasNext()) {
+                released.add(it.next().getValue());
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (File f : released) {
+            recycle(f);
+        }
+    }
+
+    private void recycle(final File segment) throws IOException {
+        lock.lock();
+        try {
+            if (freeSegments.size() >= MAX_FREE_SEGMENTS) {
+                Files.deleteIfExists(segment.toPath());
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        final File free = new File(dir, segment.getName() + FREE_SUFFIX);
+        try {
+            Files.move(segment.toPath(), free.toPath());
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        lock.lock();
+        try {
+            freeSegments.addLast(free);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        release(rotate());
     }
 
     @Override
     public void close() throws IOException {
-        fos.close();
+        if (syncer != null) {
+            // без прерывания: прерванный force закрывает канал, и финальный force ниже падает;
+            // к тому же фоновый синк уже обнулил счётчик, и закрытие должно дождаться его конца
+            syncer.shutdown();
+            try {
+                syncer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for background WAL sync", e);
+            }
+        }
+        lock.lock();
+        try {
+            awaitIdle();
+            if (unsyncedBytes.getAndSet(0) > 0 && syncPolicy.mode() != WALSyncPolicy.Mode.OS) {
+                force();
+            }
+            channel.close();
+            allocator.shutdown();
+            try {
+                spare.get().channel().close();
+            } catch (ExecutionException | InterruptedException ignored) {
+                // сегмент так и не был подготовлен
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // дождаться, пока текущий лидер допишет свою группу
+    private void awaitIdle() {
+        while (!queue.isEmpty()) {
+            groupDone.awaitUninterruptibly();
+        }
+    }
+
+    private void activate(final Segment segment) {
+        channel = segment.channel();
+        activeBytes = 0;
+        activeGeneration = segment.generation();
+        liveSegments.put(segment.generation(), segment.file());
+    }
+
+    private java.util.concurrent.Callable<Segment> newSegmentTask() {
+        // поколение и файл выбираем под lock, в фоне только I/O
+        final long generation = nextGeneration.getAndIncrement();
+        final File free = freeSegments.pollFirst();
+        return () -> prepareSegment(generation, free);
+    }
+
+    /**
+     * Открывает сегмент для поколения: переименовывает свободный файл
+     * или создаёт новый и заполняет его нулями до {@code segmentBytes}.
+     */
+    private Segment prepareSegment(long generation, final File free) throws IOException {
+        if (free != null) {
+            try {
+                final File target = segmentFile(generation);
+                Files.move(free.toPath(), target.toPath());
+                return openSegment(generation, target);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // файл забрали или имя занято — создаём новый
+            }
+        }
+        while (true) {
+            final File target = segmentFile(generation);
+            try {
+                final FileChannel ch = FileChannel.open(target.toPath(),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                preallocate(ch);
+                return new Segment(generation, target, ch);
+            } catch (FileAlreadyExistsException e) {
+                generation = nextGeneration.getAndIncrement();
+            }
+        }
+    }
+
+    private Segment openSegment(final long generation, final File file) throws IOException {
+        return new Segment(generation, file,
+                FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
     }
 
-    private ByteBuffer serializeEntry(final WALEntry entry) {
+    private void preallocate(final FileChannel ch) throws IOException {
+        final ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(segmentBytes, 1 << 20));
+        long pos = 0;
+        while (pos < segmentBytes) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), segmentBytes - pos));
+            pos += ch.write(zeros, pos);
+        }
+        // метаданные размера фиксируем один раз здесь, а не на каждой дозаписи
+        ch.force(true);
+        ch.position(0);
+    }
+
+    private void scanSegments() {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long maxGeneration = 0;
+        final String prefix = baseName + ".";
+        for (File f : files) {
+            final String name = f.getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            final boolean free = name.endsWith(FREE_SUFFIX);
+            final String number = name.substring(prefix.length(), name.length() - (free ? FREE_SUFFIX.length() : 0));
+            final long generation;
+            try {
+                generation = Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            maxGeneration = Math.max(maxGeneration, generation);
+            if (free) {
+                freeSegments.addLast(f);
+            } else {
+                liveSegments.put(generation, f);
+            }
+        }
+        // поколения растут монотонно, иначе старые записи свободного файла совпадут с новым поколением
+        nextGeneration.set(maxGeneration + 1);
+    }
+
+    private File segmentFile(final long generation) {
+        return new File(dir, baseName + "." + generation);
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(final String name) {
+        return r -> {
+            final Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Пишет запись в буфер потока, без промежуточного {@link WALEntry} и heap-копий.
+     */
+    private void serializeEntry(final PendingWrite w, final int columnFamily, final Entry entry,
+                                final WALOperationType opType) {
+        final int payloadSize = BATCH_OVERHEAD_BYTES + entrySize(entry);
+        final ByteBuffer buffer = startRecord(w, payloadSize, 1);
+        putEntry(buffer, columnFamily, entry, opType);
+        finishRecord(w, buffer, payloadSize);
+    }
+
+    private void serializeBatch(final PendingWrite w, final List<Entry> entries, final int[] columnFamilies) {
+        int payloadSize = BATCH_OVERHEAD_BYTES;
+        for (Entry e : entries) {
+            payloadSize += entrySize(e);
+        }
+        final ByteBuffer buffer = startRecord(w, payloadSize, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry e = entries.get(i);
+            putEntry(buffer, columnFamilies == null ? 0 : columnFamilies[i], e, e.merge() ? WALOperationType.MERGE
+                    : e.tombstone() ? WALOperationType.DELETE : WALOperationType.PUT);
+        }
+        finishRecord(w, buffer, payloadSize);
+    }
+
+    private static int entrySize(final Entry entry) {
         final int keyLen = entry.key() != null ? entry.key().length : 0;
         final int valueLen = entry.value() != null ? entry.value().length : 0;
+        return ENTRY_OVERHEAD_BYTES + keyLen + valueLen;
+    }
 
-        final int bufferSize =
-                8  // id
-                        + 4  // keyLen
-                        + keyLen
-                        + 4  // valueLen
-                        + valueLen
-                        + 1  // tombstone
-                        + 1  // opType
-                        + 8; // timestamp
-
-        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+    private ByteBuffer startRecord(final PendingWrite w, final int payloadSize, final int count) {
+        final ByteBuffer buffer = w.prepare(HEADER_BYTES + payloadSize);
+        w.count = count;
+        buffer.putLong(0); // generation, проставляет лидер
+        buffer.putInt(payloadSize);
+        buffer.putInt(0); // crc32c, в finishRecord
+        buffer.putInt(count);
+        return buffer;
+    }
 
-        buffer.putLong(entry.id());
+    private static void putEntry(final ByteBuffer buffer, final int columnFamily, final Entry entry,
+                                 final WALOperationType opType) {
+        final int keyLen = entry.key() != null ? entry.key().length : 0;
+        final int valueLen = entry.value() != null ? entry.value().length : 0;
         buffer.putInt(keyLen);
         if (keyLen > 0) buffer.put(entry.key());
         buffer.putInt(valueLen);
         if (valueLen > 0) buffer.put(entry.value());
         buffer.put((byte) (entry.tombstone() ? 1 : 0));
-        buffer.put((byte) (entry.operationType() == WALOperationType.PUT ? 0 : 1));
-        buffer.putLong(entry.timestamp());
+        buffer.put((byte) opType.ordinal());
+        buffer.putInt(columnFamily);
+        buffer.putLong(entry.expireAtMillis());
+    }
+
+    private static void finishRecord(final PendingWrite w, final ByteBuffer buffer, final int payloadSize) {
+        // секунды UTC; currentTimeMillis дешёвый, в отличие от LocalDateTime.now()
+        buffer.putLong(System.currentTimeMillis() / 1000);
 
         buffer.flip();
-        return buffer;
+        buffer.position(HEADER_BYTES);
+        w.crc.reset();
+        w.crc.update(buffer);
+        buffer.position(0);
+        buffer.putInt(12, (int) w.crc.getValue());
     }
 
 
-    private WALEntry deserializeEntry(RandomAccessFile raf) throws IOException {
-        long id = raf.readLong();
-
-        int keyLen = raf.readInt();
-        byte[] key = new byte[keyLen];
-        if (keyLen > 0) {
-            raf.readFully(key);
+    private List<WALEntry> deserializeBatch(final ByteBuffer payload, final long seq) throws IOException {
+        final int count = payload.getInt();
+        if (count <= 0 || count > (payload.remaining() - 8) / ENTRY_OVERHEAD_BYTES) {
+            throw new IOException("Bad WAL batch size: " + count);
         }
+        final long timestamp = payload.getLong(payload.limit() - 8);
 
-        int valueLen = raf.readInt();
-        byte[] value = valueLen > 0 ? new byte[valueLen] : null;
-        if (valueLen > 0) {
-            raf.readFully(value);
+        final List<WALEntry> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int keyLen = payload.getInt();
+            if (keyLen < 0 || keyLen > payload.remaining()) {
+                throw new IOException("Bad WAL key length: " + keyLen);
+            }
+            final byte[] key = new byte[keyLen];
+            payload.get(key);
+
+            final int valueLen = payload.getInt();
+            if (valueLen < 0 || valueLen > payload.remaining()) {
+                throw new IOException("Bad WAL value length: " + valueLen);
+            }
+            final byte[] value = valueLen > 0 ? new byte[valueLen] : null;
+            if (valueLen > 0) {
+                payload.get(value);
+            }
+
+            final boolean tombstone = payload.get() != 0;
+
+            final byte opTypeByte = payload.get();
+            if (opTypeByte < 0 || opTypeByte >= OP_TYPES.length) {
+                throw new IOException("Unknown WAL operation type: " + opTypeByte);
+            }
+            final int columnFamily = payload.getInt();
+            final long expireAt = payload.getLong();
+            out.add(new WALEntry(seq + i, key, value, tombstone, OP_TYPES[opTypeByte], timestamp, columnFamily,
+                    expireAt));
+        }
+        if (payload.remaining() != 8) {
+            throw new IOException("Bad WAL record length");
         }
+        return out;
+    }
 
-        byte tombstoneByte = raf.readByte();
-        boolean tombstone = tombstoneByte != 0;
+    private record Segment(long generation, File file, FileChannel channel) {
+    }
+
+    private static final class PendingWrite {
+        final CRC32C crc = new CRC32C();
+
+        // direct-буфер не копируется JDK во временный буфер при записи в канал
+        ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_RECORD_BUFFER);
+
+        // то, что пишет лидер: buffer или разовый буфер для крупной записи
+        ByteBuffer record;
+
+        boolean sync;
+
+        // число записей в пакете
+        int count;
 
-        byte opTypeByte = raf.readByte();
-        WALOperationType opType = opTypeByte == 0 ? WALOperationType.PUT : WALOperationType.DELETE;
+        // поля ниже читаются и пишутся только под lock
+        long firstSequence;
 
-        long timestamp = raf.readLong();
+        boolean done;
 
-        return new WALEntry(id, key, value, tombstone, opType, timestamp);
+        IOException error;
+
+        void reset(final boolean sync) {
+            this.sync = sync;
+            this.done = false;
+            this.error = null;
+        }
+
+        ByteBuffer prepare(final int size) {
+            if (size > buffer.capacity()) {
+                if (size > MAX_CACHED_RECORD_BUFFER) {
+                    record = ByteBuffer.allocate(size);
+                    return record;
+                }
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+            }
+            buffer.clear();
+            record = buffer;
+            return record;
+        }
     }
 }
@@ -1,26 +1,75 @@
 package dev.kvstore.core;
 
+import dev.kvstore.core.model.ColumnFamilyHandle;
 import dev.kvstore.core.model.DeleteOptions;
 import dev.kvstore.core.model.PutOptions;
 
+import java.io.IOException;
+
 /**
  * Пакетная запись в рамках одного узла для репликации, склейки операций и транзакций.
+ * Операции копятся в памяти; {@link #commit()} пишет их одной записью WAL
+ * и применяет атомарно. После commit или close пакет использовать нельзя.
+ * <p>
+ * Операции без семейства идут в семейство по умолчанию; один пакет может писать в несколько семейств.
+ * <p>
+ * С несколькими шардами атомарность есть только внутри шарда: {@link #commit()} отклоняет пакет,
+ * ключи которого лежат в разных шардах, а {@link #commitPerShard()} применяет его по частям.
  */
 public interface WriteBatch extends AutoCloseable {
 
-    WriteBatch put(byte[] key, byte[] value, PutOptions options);
+    WriteBatch put(ColumnFamilyHandle family, byte[] key, byte[] value, PutOptions options);
+
+    default WriteBatch put(ColumnFamilyHandle family, byte[] key, byte[] value) {
+        return put(family, key, value, PutOptions.DEFAULT);
+    }
+
+    default WriteBatch put(byte[] key, byte[] value, PutOptions options) {
+        return put(ColumnFamilyHandle.DEFAULT, key, value, options);
+    }
 
     default WriteBatch put(byte[] key, byte[] value) {
         return put(key, value, PutOptions.DEFAULT);
     }
 
-    WriteBatch delete(byte[] key, DeleteOptions options);
+    WriteBatch delete(ColumnFamilyHandle family, byte[] key, DeleteOptions options);
+
+    default WriteBatch delete(ColumnFamilyHandle family, byte[] key) {
+        return delete(family, key, DeleteOptions.DEFAULT);
+    }
+
+    default WriteBatch delete(byte[] key, DeleteOptions options) {
+        return delete(ColumnFamilyHandle.DEFAULT, key, options);
+    }
 
     default WriteBatch delete(byte[] key) {
         return delete(key, DeleteOptions.DEFAULT);
     }
 
-    void commit();
+    WriteBatch merge(ColumnFamilyHandle family, byte[] key, byte[] operand, PutOptions options);
+
+    default WriteBatch merge(ColumnFamilyHandle family, byte[] key, byte[] operand) {
+        return merge(family, key, operand, PutOptions.DEFAULT);
+    }
+
+    default WriteBatch merge(byte[] key, byte[] operand, PutOptions options) {
+        return merge(ColumnFamilyHandle.DEFAULT, key, operand, options);
+    }
+
+    default WriteBatch merge(byte[] key, byte[] operand) {
+        return merge(key, operand, PutOptions.DEFAULT);
+    }
+
+    int size();
+
+    void commit() throws KVException, IOException;
+
+    /**
+     * Применяет пакет атомарно в каждом шарде, но не между шардами; без шардов — то же, что {@link #commit()}.
+     *
+     * @throws PartialWriteException часть пакета применена; номера записей — в порядке добавления в пакет
+     */
+    void commitPerShard() throws KVException, IOException;
 
     @Override
     void close();
@@ -0,0 +1,98 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.model.ColumnFamilyHandle;
+import dev.kvstore.core.model.DeleteOptions;
+import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.PutOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+class WriteBatchImpl implements WriteBatch {
+    private final LSMEngine engine;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    // семейство каждой записи из entries
+    private final List<ColumnFamilyHandle> families = new ArrayList<>();
+
+    // fsync нужен, если его попросила хотя бы одна операция пакета
+    private boolean sync;
+
+    private boolean closed;
+
+    WriteBatchImpl(final LSMEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public WriteBatch put(final ColumnFamilyHandle family, final byte[] key, final byte[] value,
+                          final PutOptions options) {
+        final Entry plain = new Entry(key, value, false);
+        // TTL отсчитывается от добавления в пакет, как у одиночного put — от вызова
+        final Entry e = options.ttl() == null
+                ? plain
+                : plain.withExpireAt(System.currentTimeMillis() + options.ttl().toMillis());
+        return add(family, e, options.sync());
+    }
+
+    @Override
+    public WriteBatch delete(final ColumnFamilyHandle family, final byte[] key, final DeleteOptions options) {
+        return add(family, new Entry(key, null, true), options.sync());
+    }
+
+    @Override
+    public WriteBatch merge(final ColumnFamilyHandle family, final byte[] key, final byte[] operand,
+                            final PutOptions options) {
+        return add(family, Entry.mergeOperand(key, operand), options.sync());
+    }
+
+    private WriteBatch add(final ColumnFamilyHandle family, final Entry entry, final boolean sync) {
+        ensureOpen();
+        if (entry.key() == null) {
+            throw new IllegalArgumentException("key is required");
+        }
+        if (family == null) {
+            throw new IllegalArgumentException("column family is required");
+        }
+        entries.add(entry);
+        families.add(family);
+        this.sync |= sync;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void commit() throws KVException, IOException {
+        ensureOpen();
+        closed = true;
+        engine.write(entries, families, sync);
+    }
+
+    @Override
+    public void commitPerShard() throws KVException, IOException {
+        ensureOpen();
+        closed = true;
+        engine.writePerShard(entries, families, sync);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        entries.clear();
+        families.clear();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Write batch is already committed or closed");
+        }
+    }
+}
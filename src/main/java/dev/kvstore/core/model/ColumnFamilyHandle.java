@@ -0,0 +1,10 @@
+package dev.kvstore.core.model;
+
+/**
+ * Семейство столбцов движка: имя и номер, под которым его записи лежат в общем WAL.
+ * Номер закреплён за именем в каталоге данных и между запусками не меняется.
+ */
+public record ColumnFamilyHandle(String name, int id) {
+
+    public static final ColumnFamilyHandle DEFAULT = new ColumnFamilyHandle("default", 0);
+}
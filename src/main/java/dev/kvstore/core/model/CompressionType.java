@@ -0,0 +1,32 @@
+package dev.kvstore.core.model;
+
+/**
+ * Сжатие блоков SSTable. Номер пишется последним байтом блока на диске.
+ */
+public enum CompressionType {
+    /** блок как есть */
+    NONE(0),
+    /** LZ4 block format: быстрая распаковка, умеренное сжатие */
+    LZ4(1),
+    /** {@link java.util.zip.Deflater}: сжимает сильнее, распаковка медленнее */
+    DEFLATE(2);
+
+    private final byte id;
+
+    CompressionType(final int id) {
+        this.id = (byte) id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public static CompressionType fromId(final byte id) {
+        for (CompressionType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression type: " + id);
+    }
+}
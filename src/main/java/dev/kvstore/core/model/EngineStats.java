@@ -3,6 +3,7 @@ package dev.kvstore.core.model;
 public record EngineStats(
         long keys,
         long sizeBytes,
-        long aliveTtlKeys
+        long aliveTtlKeys,
+        WriteStallStats writeStall
 ) {
 }
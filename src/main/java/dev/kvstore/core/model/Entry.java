@@ -1,11 +1,58 @@
 package dev.kvstore.core.model;
 
 
-public record Entry(byte[] key, byte[] value, boolean tombstone) {
+/**
+ * @param merge          запись — операнд {@code MergeOperator}, а не готовое значение
+ * @param blob           значение лежит в blob-файле, а {@code value} — ссылка на него
+ * @param version        номер последовательности записи; проставляет memtable, 0 — ещё не записана
+ * @param expireAtMillis момент истечения TTL в мс эпохи; 0 — без TTL
+ */
+public record Entry(byte[] key, byte[] value, boolean tombstone, boolean merge, boolean blob,
+                    long version, long expireAtMillis) {
+
+    public Entry(byte[] key, byte[] value, boolean tombstone, boolean merge, boolean blob) {
+        this(key, value, tombstone, merge, blob, 0, 0);
+    }
+
+    public Entry(byte[] key, byte[] value, boolean tombstone, boolean merge) {
+        this(key, value, tombstone, merge, false);
+    }
 
     public Entry(byte[] key, byte[] value, boolean tombstone) {
-        this.key = key;
-        this.value = value;
-        this.tombstone = tombstone;
+        this(key, value, tombstone, false);
+    }
+
+    public static Entry mergeOperand(byte[] key, byte[] operand) {
+        return new Entry(key, operand, false, true);
+    }
+
+    public static Entry blobReference(byte[] key, byte[] pointer) {
+        return new Entry(key, pointer, false, false, true);
+    }
+
+    public Entry withVersion(long version) {
+        return version == this.version ? this : new Entry(key, value, tombstone, merge, blob, version, expireAtMillis);
+    }
+
+    public Entry withExpireAt(long expireAtMillis) {
+        return new Entry(key, value, tombstone, merge, blob, version, expireAtMillis);
+    }
+
+    /**
+     * Та же версия и TTL с другим значением: результат merge, значение из blob-файла.
+     */
+    public Entry withValue(byte[] value) {
+        return new Entry(key, value, false, false, false, version, expireAtMillis);
+    }
+
+    /**
+     * Могильник той же версии: закрывает старые версии ключа вместо записи, которую выбросили.
+     */
+    public Entry asTombstone() {
+        return new Entry(key, null, true, false, false, version, 0);
+    }
+
+        public boolean expired(long nowMillis) {
+        return expireAtMillis != 0 && expireAtMillis <= nowMillis;
     }
 }
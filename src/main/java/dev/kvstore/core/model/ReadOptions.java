@@ -2,7 +2,19 @@ package dev.kvstore.core.model;
 
 import java.time.Duration;
 
-public record ReadOptions(Duration timeout) {
+/**
+ * @param verifyChecksums сверять CRC32C каждого прочитанного блока SSTable; горячие чтения
+ *                        могут отказаться от проверки и положиться на фоновый скраббер
+ */
+public record ReadOptions(Duration timeout, boolean verifyChecksums) {
     public static final ReadOptions DEFAULT =
             new ReadOptions(Duration.ofSeconds(3));
-}
\ No newline at end of file
+
+    public ReadOptions(final Duration timeout) {
+        this(timeout, true);
+    }
+
+    public ReadOptions withVerifyChecksums(final boolean verifyChecksums) {
+        return new ReadOptions(timeout, verifyChecksums);
+    }
+}
@@ -0,0 +1,70 @@
+package dev.kvstore.core.model;
+
+/**
+ * Раскладка SSTable.
+ *
+ * @param blockSize       целевой размер блока данных в байтах; запись крупнее блока получает блок под себя
+ * @param restartInterval через сколько ключей в блоке писать полный ключ вместо префиксного сжатия
+ * @param compression     сжатие блоков; блок, который сжимается плохо, пишется как есть
+ * @param dictionaryBytes размер словаря, который обучается на значениях таблицы при записи
+ *                        и сжимает каждое значение по отдельности; 0 — без словаря
+ * @param formatVersion   формат записей: {@link #FORMAT_V1} — значение и байт типа,
+ *                        {@link #FORMAT_V2} — запись {@code ValueCodec} с версией и TTL дельтами к базам блока
+ */
+public record TableOptions(int blockSize, int restartInterval, CompressionType compression, int dictionaryBytes,
+                           int formatVersion) {
+
+    public static final int FORMAT_V1 = 1;
+
+    public static final int FORMAT_V2 = 2;
+
+    public static final TableOptions DEFAULT = new TableOptions(128, 16);
+
+    public TableOptions {
+        if (blockSize < 64) {
+            throw new IllegalArgumentException("blockSize must be >= 64");
+        }
+        if (restartInterval < 1) {
+            throw new IllegalArgumentException("restartInterval must be >= 1");
+        }
+        if (compression == null) {
+            throw new IllegalArgumentException("compression is required");
+        }
+        if (dictionaryBytes < 0 || dictionaryBytes > 32 << 10) {
+            throw new IllegalArgumentException("dictionaryBytes must be in [0, 32768]");
+        }
+        if (formatVersion != FORMAT_V1 && formatVersion != FORMAT_V2) {
+            throw new IllegalArgumentException("formatVersion must be 1 or 2");
+        }
+    }
+
+    /**
+     * Формат v1: таблицы, собранные без явного формата, пишутся как раньше. Движок по умолчанию пишет v2.
+     */
+    public TableOptions(final int blockSize, final int restartInterval, final CompressionType compression,
+                        final int dictionaryBytes) {
+        this(blockSize, restartInterval, compression, dictionaryBytes, FORMAT_V1);
+    }
+
+    public TableOptions(final int blockSize, final int restartInterval, final CompressionType compression) {
+        this(blockSize, restartInterval, compression, 0);
+    }
+
+    public TableOptions(final int blockSize, final int restartInterval) {
+        this(blockSize, restartInterval, CompressionType.NONE);
+    }
+
+    public TableOptions withCompression(final CompressionType compression) {
+        return compression == this.compression
+                ? this
+                : new TableOptions(blockSize, restartInterval, compression, dictionaryBytes, formatVersion);
+    }
+
+    public TableOptions withDictionaryBytes(final int dictionaryBytes) {
+        return new TableOptions(blockSize, restartInterval, compression, dictionaryBytes, formatVersion);
+    }
+
+    public TableOptions withFormatVersion(final int formatVersion) {
+        return new TableOptions(blockSize, restartInterval, compression, dictionaryBytes, formatVersion);
+    }
+}
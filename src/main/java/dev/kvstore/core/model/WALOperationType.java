@@ -1,5 +1,6 @@
 package dev.kvstore.core.model;
 
+// порядок значений — это байт опкода в WAL, новые добавлять только в конец
 public enum WALOperationType {
-    PUT, DELETE
+    PUT, DELETE, MERGE
 }
@@ -0,0 +1,39 @@
+package dev.kvstore.core.model;
+
+/**
+ * Когда WAL делает fsync. Запись с {@code sync=true} синкается всегда, независимо от режима.
+ *
+ * @param mode           режим
+ * @param intervalMillis для {@link Mode#PERIODIC}: фоновый fsync не реже, чем раз в столько мс
+ * @param bytesPerSync   для {@link Mode#PERIODIC}: внеочередной фоновый fsync, когда накопилось столько байт; 0 — выключено
+ */
+public record WALSyncPolicy(Mode mode, long intervalMillis, long bytesPerSync) {
+
+    public enum Mode {
+        /** fsync только по запросу записи, остальное на совести ОС */
+        OS,
+        /** фоновый fsync по таймеру и/или объёму */
+        PERIODIC,
+        /** fsync на каждую группу записей */
+        ALWAYS
+    }
+
+    public static final WALSyncPolicy OS_MANAGED =
+            new WALSyncPolicy(Mode.OS, 0, 0);
+
+    public static final WALSyncPolicy ALWAYS =
+            new WALSyncPolicy(Mode.ALWAYS, 0, 0);
+
+    public WALSyncPolicy {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode is required");
+        }
+        if (mode == Mode.PERIODIC && intervalMillis <= 0 && bytesPerSync <= 0) {
+            throw new IllegalArgumentException("periodic sync needs intervalMillis or bytesPerSync");
+        }
+    }
+
+    public static WALSyncPolicy periodic(final long intervalMillis, final long bytesPerSync) {
+        return new WALSyncPolicy(Mode.PERIODIC, intervalMillis, bytesPerSync);
+    }
+}
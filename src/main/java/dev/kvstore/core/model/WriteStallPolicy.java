@@ -0,0 +1,41 @@
+package dev.kvstore.core.model;
+
+/**
+ * Пороги торможения записи. На пороге замедления каждая запись получает задержку,
+ * которая линейно растёт до {@code maxDelayMicros} по мере приближения к порогу остановки;
+ * на пороге остановки запись ждёт, пока flush или компакция не разгребут долг.
+ *
+ * @param level0SlowdownFiles        число таблиц на L0, с которого запись замедляется
+ * @param level0StopFiles            число таблиц на L0, на котором запись останавливается
+ * @param immutableSlowdown          число memtable в очереди на flush, с которого запись замедляется
+ * @param immutableStop              число memtable в очереди на flush, на котором запись останавливается
+ * @param pendingCompactionSlowdown  долг компакции в байтах, с которого запись замедляется
+ * @param pendingCompactionStop      долг компакции в байтах, на котором запись останавливается
+ * @param maxDelayMicros             задержка одной записи у самого порога остановки
+ */
+public record WriteStallPolicy(int level0SlowdownFiles,
+                               int level0StopFiles,
+                               int immutableSlowdown,
+                               int immutableStop,
+                               long pendingCompactionSlowdown,
+                               long pendingCompactionStop,
+                               long maxDelayMicros) {
+
+    public static final WriteStallPolicy DEFAULT =
+            new WriteStallPolicy(8, 12, 3, 4, 1L << 30, 4L << 30, 1_000);
+
+    public WriteStallPolicy {
+        if (level0SlowdownFiles <= 0 || level0SlowdownFiles > level0StopFiles) {
+            throw new IllegalArgumentException("level0 thresholds must satisfy 0 < slowdown <= stop");
+        }
+        if (immutableSlowdown <= 0 || immutableSlowdown > immutableStop) {
+            throw new IllegalArgumentException("immutable thresholds must satisfy 0 < slowdown <= stop");
+        }
+        if (pendingCompactionSlowdown <= 0 || pendingCompactionSlowdown > pendingCompactionStop) {
+            throw new IllegalArgumentException("pending compaction thresholds must satisfy 0 < slowdown <= stop");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("maxDelayMicros must be >= 0");
+        }
+    }
+}
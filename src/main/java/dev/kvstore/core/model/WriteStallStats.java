@@ -0,0 +1,27 @@
+package dev.kvstore.core.model;
+
+/**
+ * Состояние торможения записи и то, из чего оно посчитано.
+ *
+ * @param state                  текущее состояние
+ * @param level0Files            таблиц на L0
+ * @param immutableMemTables     memtable, ждущих flush
+ * @param pendingCompactionBytes байт в уровнях, которые ждут компакции
+ * @param delayedWrites          сколько записей было замедлено
+ * @param stoppedWrites          сколько записей ждало снятия остановки
+ * @param stallMicros            суммарное время, проведённое записями в задержке и ожидании
+ */
+public record WriteStallStats(State state,
+                              int level0Files,
+                              int immutableMemTables,
+                              long pendingCompactionBytes,
+                              long delayedWrites,
+                              long stoppedWrites,
+                              long stallMicros) {
+
+    public enum State {
+        NORMAL,
+        DELAYED,
+        STOPPED
+    }
+}
@@ -0,0 +1,65 @@
+package dev.kvstore.codec;
+
+import dev.kvstore.core.model.CompressionType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCompressionTest {
+
+    private static byte[] text(final int size) {
+        final StringBuilder sb = new StringBuilder();
+        final Random random = new Random(7);
+        while (sb.length() < size) {
+            sb.append("{\"user\":").append(random.nextInt(1000)).append(",\"status\":\"active\",\"tags\":[\"a\",\"b\"]}");
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void compressibleBlocksRoundTrip() {
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ4, CompressionType.DEFLATE}) {
+            for (int size : new int[]{1000, 70_000}) {
+                final byte[] raw = text(size);
+                final byte[] compressed = BlockCompression.compress(type, raw, 0, raw.length);
+                assertNotNull(compressed, type + " " + size);
+                assertTrue(compressed.length < raw.length / 2, type + " " + size);
+                assertArrayEquals(raw, BlockCompression.decompress(type, compressed, 0, compressed.length));
+            }
+        }
+    }
+
+    @Test
+    void lz4HandlesLongRunsAndLongLiterals() {
+        final byte[] raw = new byte[5000];
+        new Random(3).nextBytes(raw);
+        // длинный повтор после длинного участка литералов
+        for (int i = 2000; i < raw.length; i++) {
+            raw[i] = raw[i % 300];
+        }
+        final byte[] out = new byte[Lz4.maxCompressedLength(raw.length)];
+        final int n = Lz4.compress(raw, 0, raw.length, out, 0);
+        final byte[] back = new byte[raw.length];
+        Lz4.decompress(out, 0, n, back);
+        assertArrayEquals(raw, back);
+    }
+
+    @Test
+    void incompressibleBlockIsStoredRaw() {
+        final byte[] raw = new byte[4096];
+        new Random(1).nextBytes(raw);
+        assertNull(BlockCompression.compress(CompressionType.LZ4, raw, 0, raw.length));
+        assertNull(BlockCompression.compress(CompressionType.NONE, raw, 0, raw.length));
+    }
+
+    @Test
+    void corruptedBlockIsRejected() {
+        final byte[] raw = text(2000);
+        final byte[] compressed = BlockCompression.compress(CompressionType.LZ4, raw, 0, raw.length);
+        assertThrows(CodecFormatException.class,
+                () -> BlockCompression.decompress(CompressionType.LZ4, compressed, 0, compressed.length - 10));
+    }
+}
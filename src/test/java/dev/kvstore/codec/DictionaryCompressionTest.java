@@ -0,0 +1,123 @@
+package dev.kvstore.codec;
+
+import dev.kvstore.core.model.ValueRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DictionaryCompressionTest {
+
+    private static byte[] document(final Random random) {
+        return ("{\"orderId\":\"" + Long.toHexString(random.nextLong()) + "\",\"customer\":{\"id\":" + random.nextInt(100_000)
+                + ",\"tier\":\"" + (random.nextBoolean() ? "gold" : "silver") + "\",\"country\":\"DE\"},"
+                + "\"status\":\"SHIPPED\",\"currency\":\"EUR\",\"amount\":" + random.nextInt(10_000)
+                + ",\"items\":[{\"sku\":\"SKU-" + random.nextInt(1000) + "\",\"quantity\":" + (1 + random.nextInt(5))
+                + "}],\"createdAt\":\"2024-05-0" + (1 + random.nextInt(9)) + "T12:00:00Z\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int deflatedSize(final byte[] value) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(value);
+        deflater.finish();
+        final int n = deflater.deflate(new byte[value.length * 2]);
+        deflater.end();
+        return n;
+    }
+
+    @Test
+    void trainedDictionaryBeatsPlainDeflateOnSmallDocuments() {
+        final Random random = new Random(42);
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            samples.add(document(random));
+        }
+        final CompressionDictionary dictionary = DictionaryTrainer.train(samples, 4096);
+        assertNotNull(dictionary);
+
+        long raw = 0;
+        long plain = 0;
+        long withDictionary = 0;
+        try (CompressionDictionary.Compressor compressor = dictionary.newCompressor()) {
+            for (int i = 0; i < 200; i++) {
+                final byte[] value = document(random);
+                final byte[] compressed = compressor.compress(value);
+                assertNotNull(compressed);
+                assertArrayEquals(value, dictionary.decompress(compressed));
+                raw += value.length;
+                plain += deflatedSize(value);
+                withDictionary += compressed.length;
+            }
+        }
+        assertTrue(withDictionary * 2 < raw, "ratio " + (double) raw / withDictionary);
+        assertTrue(withDictionary * 3 < plain * 2, "plain " + plain + ", dictionary " + withDictionary);
+    }
+
+    @Test
+    void valueCodecCompressesThroughFlagComp() {
+        final Random random = new Random(1);
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            samples.add(document(random));
+        }
+        final CompressionDictionary dictionary = DictionaryTrainer.train(samples, 2048);
+        final ValueRecord record = new ValueRecord(document(random), 105, 5_000L);
+
+        final ByteBuffer buf = ByteBuffer.allocate(1024);
+        try (CompressionDictionary.Compressor compressor = dictionary.newCompressor()) {
+            final byte[] payload = compressor.compress(record.value());
+            assertNotNull(payload);
+            ValueCodec.write(record, 100, 1_000L, buf, payload, true);
+        }
+        assertTrue(buf.position() < record.value().length);
+        buf.flip();
+
+        final ValueRecord decoded = ValueCodec.read(buf.duplicate(), 100, 1_000L, dictionary);
+        assertArrayEquals(record.value(), decoded.value());
+        assertEquals(105, decoded.version());
+        assertEquals(Long.valueOf(5_000L), decoded.expireAtMillis());
+        // без словаря наружу отдаётся сжатый payload
+        assertFalse(Arrays.equals(record.value(), ValueCodec.read(buf, 100, 1_000L).value()));
+    }
+
+    @Test
+    void largestDictionaryTrainsInLinearTime() {
+        final Random random = new Random(7);
+        // столько образцов SSTable берёт для словаря наибольшего размера
+        final int budget = CompressionDictionary.MAX_SIZE * 32;
+        final List<byte[]> samples = new ArrayList<>();
+        for (int bytes = 0; bytes < budget; ) {
+            final byte[] doc = document(random);
+            samples.add(doc);
+            bytes += doc.length;
+        }
+
+        final long started = System.nanoTime();
+        final CompressionDictionary dictionary = DictionaryTrainer.train(samples, CompressionDictionary.MAX_SIZE);
+        final long millis = (System.nanoTime() - started) / 1_000_000;
+
+        assertNotNull(dictionary);
+        // переборный отбор отрезков тратил здесь десятки секунд; проход по эпохам — доли секунды
+        assertTrue(millis < 3_000, "trained in " + millis + " ms");
+    }
+
+    @Test
+    void samplesWithoutRepeatsGiveNoDictionary() {
+        final Random random = new Random(5);
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final byte[] b = new byte[100];
+            random.nextBytes(b);
+            samples.add(b);
+        }
+        assertNull(DictionaryTrainer.train(samples, 1024));
+    }
+}
@@ -0,0 +1,78 @@
+package dev.kvstore.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kvstore.controller.request.MergeRequest;
+import dev.kvstore.controller.request.PutRequest;
+import dev.kvstore.core.KeyValueStore;
+import dev.kvstore.core.KeyValueStoreImpl;
+import dev.kvstore.core.LSM.MergeOperatorType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Контроллер поверх настоящего {@link KeyValueStoreImpl}: проверяет то, что мок store не видит.
+ */
+@WebMvcTest(controllers = KVStoreController.class)
+@Import(KVStoreControllerStoreTest.StoreConfig.class)
+class KVStoreControllerStoreTest {
+
+    @TestConfiguration
+    static class StoreConfig {
+        @Bean
+        KeyValueStore keyValueStore() throws IOException {
+            return new KeyValueStoreImpl(Files.createTempDirectory("kv-controller-").toString(), 1 << 20,
+                    MergeOperatorType.ADD);
+        }
+    }
+
+    @Autowired
+    MockMvc mvc;
+    @Autowired
+    ObjectMapper om;
+
+    @Test
+    @DisplayName("POST /kvstore/merge - операнды сворачиваются настроенным оператором")
+    void merge_folds_operands_with_configured_operator() throws Exception {
+        mvc.perform(post("/kvstore/put")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(new PutRequest("counter", "10"))))
+                .andExpect(status().isOk());
+        for (String operand : new String[]{"5", "-2"}) {
+            mvc.perform(post("/kvstore/merge")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(om.writeValueAsBytes(new MergeRequest("counter", operand))))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.success", is(true)));
+        }
+
+        mvc.perform(get("/kvstore/get").param("key", "counter"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.value", is("13")));
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/merge - 500, если операнд не подходит оператору")
+    void merge_rejects_operand_the_operator_cannot_apply() throws Exception {
+        mvc.perform(post("/kvstore/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(new MergeRequest("counter", "five"))))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.error", is("Operand is not valid for merge operator ADD")));
+    }
+}
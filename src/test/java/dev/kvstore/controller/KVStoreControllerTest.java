@@ -2,9 +2,12 @@ package dev.kvstore.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.kvstore.controller.request.DeleteRequest;
+import dev.kvstore.controller.request.MergeRequest;
 import dev.kvstore.controller.request.PutRequest;
 import dev.kvstore.core.KVException;
 import dev.kvstore.core.KeyValueStore;
+import dev.kvstore.core.PartialWriteException;
+import dev.kvstore.core.WriteBatch;
 import dev.kvstore.core.model.DeleteResult;
 import dev.kvstore.core.model.GetResult;
 import dev.kvstore.core.model.PutResult;
@@ -27,6 +30,11 @@ import java.nio.charset.StandardCharsets;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -209,6 +217,36 @@ class KVStoreControllerTest {
     }
 
 
+    @Test
+    @DisplayName("POST /kvstore/merge - 200 OK, операнд передан в store")
+    void merge_ok() throws Exception {
+        when(keyValueStore.merge(
+                eq("counter".getBytes(StandardCharsets.UTF_8)),
+                eq("5".getBytes(StandardCharsets.UTF_8))
+        )).thenReturn(new PutResult(true));
+
+        var body = new MergeRequest("counter", "5");
+        mvc.perform(post("/kvstore/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success", is(true)))
+                .andExpect(jsonPath("$.created", is(true)));
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/merge - 500 при исключении")
+    void merge_error_500() throws Exception {
+        when(keyValueStore.merge(any(), any())).thenThrow(new KVException("Merge operator is not configured"));
+
+        var body = new MergeRequest("counter", "5");
+        mvc.perform(post("/kvstore/merge")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.error", is("Merge operator is not configured")));
+    }
+
     @Test
     @DisplayName("POST /kvstore/delete - 200 OK, success=true")
     void delete_success_true() throws Exception {
@@ -253,20 +291,66 @@ class KVStoreControllerTest {
     }
 
     @Test
-    @DisplayName("POST /kvstore/mput - проверка статусов")
-    void mput_partial_success() throws Exception {
-        // k1 -> created=true, k2 -> throw, k3 -> created=false
-        when(keyValueStore.put(eq("k1".getBytes(StandardCharsets.UTF_8)),
-                eq("v1".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new PutResult(true));
+    @DisplayName("POST /kvstore/mput - все ключи одним пакетом")
+    void mput_commits_one_batch() throws Exception {
+        var batch = mock(WriteBatch.class);
+        when(keyValueStore.newWriteBatch()).thenReturn(batch);
 
-        when(keyValueStore.put(eq("k2".getBytes(StandardCharsets.UTF_8)),
-                eq("v2".getBytes(StandardCharsets.UTF_8))))
-                .thenThrow(new KVException("boom-2"));
+        var body = new MultiPutRequest(List.of(
+                new MultiPutRequest.Item("k1", "v1"),
+                new MultiPutRequest.Item("k2", "v2"),
+                new MultiPutRequest.Item("k3", "v3")
+        ));
 
-        when(keyValueStore.put(eq("k3".getBytes(StandardCharsets.UTF_8)),
-                eq("v3".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new PutResult(false));
+        mvc.perform(post("/kvstore/mput")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.successCount", is(3)))
+                .andExpect(jsonPath("$.failureCount", is(0)))
+                .andExpect(jsonPath("$.results", hasSize(3)))
+                .andExpect(jsonPath("$.results[0].key", is("k1")))
+                .andExpect(jsonPath("$.results[0].success", is(true)))
+                .andExpect(jsonPath("$.results[0].created").doesNotExist())
+                .andExpect(jsonPath("$.results[2].key", is("k3")))
+                .andExpect(jsonPath("$.results[2].success", is(true)));
+
+        verify(batch).put(eq("k1".getBytes(StandardCharsets.UTF_8)), eq("v1".getBytes(StandardCharsets.UTF_8)));
+        verify(batch).put(eq("k3".getBytes(StandardCharsets.UTF_8)), eq("v3".getBytes(StandardCharsets.UTF_8)));
+        verify(batch, times(1)).commitPerShard();
+        verify(keyValueStore, never()).put(any(), any());
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/mput - ошибка commit проваливает весь пакет")
+    void mput_batch_failure_fails_all_items() throws Exception {
+        var batch = mock(WriteBatch.class);
+        when(keyValueStore.newWriteBatch()).thenReturn(batch);
+        doThrow(new KVException("boom")).when(batch).commitPerShard();
+
+        var body = new MultiPutRequest(List.of(
+                new MultiPutRequest.Item("k1", "v1"),
+                new MultiPutRequest.Item("k2", "v2")
+        ));
+
+        mvc.perform(post("/kvstore/mput")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.successCount", is(0)))
+                .andExpect(jsonPath("$.failureCount", is(2)))
+                .andExpect(jsonPath("$.results[0].success", is(false)))
+                .andExpect(jsonPath("$.results[1].key", is("k2")))
+                .andExpect(jsonPath("$.results[1].error", containsString("boom")));
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/mput - при частичном сбое шардов успех только у применённых ключей")
+    void mput_partial_failure_reports_applied_keys() throws Exception {
+        var batch = mock(WriteBatch.class);
+        when(keyValueStore.newWriteBatch()).thenReturn(batch);
+        doThrow(new PartialWriteException("shard-failed", new java.io.IOException("disk"), List.of(0, 2)))
+                .when(batch).commitPerShard();
 
         var body = new MultiPutRequest(List.of(
                 new MultiPutRequest.Item("k1", "v1"),
@@ -280,49 +364,56 @@ class KVStoreControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.successCount", is(2)))
                 .andExpect(jsonPath("$.failureCount", is(1)))
-                .andExpect(jsonPath("$.results", hasSize(3)))
-                .andExpect(jsonPath("$.results[0].key", is("k1")))
                 .andExpect(jsonPath("$.results[0].success", is(true)))
-                .andExpect(jsonPath("$.results[0].created", is(true)))
                 .andExpect(jsonPath("$.results[1].key", is("k2")))
                 .andExpect(jsonPath("$.results[1].success", is(false)))
-                .andExpect(jsonPath("$.results[1].error", containsString("boom-2")))
-                .andExpect(jsonPath("$.results[2].key", is("k3")))
-                .andExpect(jsonPath("$.results[2].success", is(true)))
-                .andExpect(jsonPath("$.results[2].created", is(false)));
+                .andExpect(jsonPath("$.results[1].error", containsString("shard-failed")))
+                .andExpect(jsonPath("$.results[2].success", is(true)));
     }
 
     @Test
-    @DisplayName("POST /kvstore/mget - смешанные found/absent/ошибка - корректный per-item ответ")
-    void mget_mixed() throws Exception {
+    @DisplayName("POST /kvstore/mget - все ключи одним multiGet, ответ в порядке запроса")
+    void mget_uses_one_multi_get() throws Exception {
         var vr1 = new ValueRecord("v1".getBytes(StandardCharsets.UTF_8), 5L, 0L);
-        when(keyValueStore.get(eq("k1".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new GetResult(true, vr1));
-
-        // absent
-        when(keyValueStore.get(eq("absent".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new GetResult(false, null));
-
-        // ошибка
-        when(keyValueStore.get(eq("bad".getBytes(StandardCharsets.UTF_8))))
-                .thenThrow(new KVException("get-failed"));
+        when(keyValueStore.multiGet(any())).thenReturn(List.of(
+                new GetResult(true, vr1),
+                new GetResult(false, null)));
 
-        var body = new MultiGetRequest(List.of("k1", "absent", "bad"));
+        var body = new MultiGetRequest(List.of("k1", "absent"));
 
         mvc.perform(post("/kvstore/mget")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(om.writeValueAsBytes(body)))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.results", hasSize(3)))
+                .andExpect(jsonPath("$.results", hasSize(2)))
                 .andExpect(jsonPath("$.results[0].key", is("k1")))
                 .andExpect(jsonPath("$.results[0].found", is(true)))
                 .andExpect(jsonPath("$.results[0].value", is("v1")))
                 .andExpect(jsonPath("$.results[0].version", is(5)))
                 .andExpect(jsonPath("$.results[1].key", is("absent")))
-                .andExpect(jsonPath("$.results[1].found", is(false)))
-                .andExpect(jsonPath("$.results[2].key", is("bad")))
-                .andExpect(jsonPath("$.results[2].found", is(false)))
-                .andExpect(jsonPath("$.results[2].error", containsString("get-failed")));
+                .andExpect(jsonPath("$.results[1].found", is(false)));
+
+        verify(keyValueStore, times(1)).multiGet(any());
+        verify(keyValueStore, never()).get(any());
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/mget - ошибка multiGet у каждого ключа")
+    void mget_failure_fails_all_items() throws Exception {
+        when(keyValueStore.multiGet(any())).thenThrow(new KVException("get-failed"));
+
+        var body = new MultiGetRequest(List.of("k1", "bad"));
+
+        mvc.perform(post("/kvstore/mget")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results", hasSize(2)))
+                .andExpect(jsonPath("$.results[0].key", is("k1")))
+                .andExpect(jsonPath("$.results[0].found", is(false)))
+                .andExpect(jsonPath("$.results[0].error", containsString("get-failed")))
+                .andExpect(jsonPath("$.results[1].key", is("bad")))
+                .andExpect(jsonPath("$.results[1].error", containsString("get-failed")));
     }
 
     @Test
@@ -346,17 +437,10 @@ class KVStoreControllerTest {
     }
 
     @Test
-    @DisplayName("POST /kvstore/mdelete - статусы")
-    void mdelete_partial_success() throws Exception {
-        // k1 -> true, k2 -> exception, absent -> false
-        when(keyValueStore.delete(eq("k1".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new DeleteResult(true));
-
-        when(keyValueStore.delete(eq("k2".getBytes(StandardCharsets.UTF_8))))
-                .thenThrow(new KVException("del-failed-2"));
-
-        when(keyValueStore.delete(eq("absent".getBytes(StandardCharsets.UTF_8))))
-                .thenReturn(new DeleteResult(false));
+    @DisplayName("POST /kvstore/mdelete - все ключи одним пакетом")
+    void mdelete_commits_one_batch() throws Exception {
+        var batch = mock(WriteBatch.class);
+        when(keyValueStore.newWriteBatch()).thenReturn(batch);
 
         var body = new MultiDeleteRequest(java.util.List.of("k1", "k2", "absent"));
 
@@ -364,16 +448,37 @@ class KVStoreControllerTest {
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(om.writeValueAsBytes(body)))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.successCount", is(1)))
-                .andExpect(jsonPath("$.failureCount", is(2)))
+                .andExpect(jsonPath("$.successCount", is(3)))
+                .andExpect(jsonPath("$.failureCount", is(0)))
                 .andExpect(jsonPath("$.results", hasSize(3)))
                 .andExpect(jsonPath("$.results[0].key", is("k1")))
                 .andExpect(jsonPath("$.results[0].success", is(true)))
+                .andExpect(jsonPath("$.results[2].key", is("absent")))
+                .andExpect(jsonPath("$.results[2].success", is(true)));
+
+        verify(batch).delete(eq("k2".getBytes(StandardCharsets.UTF_8)));
+        verify(batch, times(1)).commitPerShard();
+        verify(keyValueStore, never()).delete(any());
+    }
+
+    @Test
+    @DisplayName("POST /kvstore/mdelete - ошибка commit проваливает весь пакет")
+    void mdelete_batch_failure_fails_all_items() throws Exception {
+        var batch = mock(WriteBatch.class);
+        when(keyValueStore.newWriteBatch()).thenReturn(batch);
+        doThrow(new KVException("del-failed")).when(batch).commitPerShard();
+
+        var body = new MultiDeleteRequest(java.util.List.of("k1", "k2"));
+
+        mvc.perform(post("/kvstore/mdelete")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsBytes(body)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.successCount", is(0)))
+                .andExpect(jsonPath("$.failureCount", is(2)))
                 .andExpect(jsonPath("$.results[1].key", is("k2")))
                 .andExpect(jsonPath("$.results[1].success", is(false)))
-                .andExpect(jsonPath("$.results[1].error", containsString("del-failed-2")))
-                .andExpect(jsonPath("$.results[2].key", is("absent")))
-                .andExpect(jsonPath("$.results[2].success", is(false)));
+                .andExpect(jsonPath("$.results[1].error", containsString("del-failed")));
     }
 
     @Test
@@ -1,14 +1,20 @@
 package dev.kvstore.core;
 
+import dev.kvstore.core.LSM.MergeOperatorType;
 import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.WALEntry;
 import dev.kvstore.core.model.WALOperationType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 public class KeyValueStoreImplTest {
@@ -68,4 +74,56 @@ public class KeyValueStoreImplTest {
         assertEquals(new String(result), "world");
         assertEquals(new String(result1), "bar");
     }
+
+    @Test
+    void writeBatchIsOneWalRecordAndSurvivesRestart() throws Exception {
+        final var dir = Files.createTempDirectory("kv-batch-").toString();
+        final KeyValueStore store = new KeyValueStoreImpl(dir, 1 << 20);
+        store.put("gone".getBytes(), "x".getBytes());
+
+        try (WriteBatch batch = store.newWriteBatch()) {
+            for (int i = 0; i < 1000; i++) {
+                batch.put(("k" + i).getBytes(), ("v" + i).getBytes());
+            }
+            batch.delete("gone".getBytes());
+            batch.commit();
+            assertThrows(IllegalStateException.class, batch::commit);
+        }
+        assertEquals("v999", new String(store.get("k999".getBytes()).value().value()));
+        assertNull(store.get("gone".getBytes()).value().value());
+
+        // пакет лежит в WAL одной записью, но recover отдаёт по элементу на каждую его операцию:
+        // одиночный put и 1001 операция пакета с идущими подряд id
+        final List<WALEntry> records = new ArrayList<>();
+        final WALImpl wal = new WALImpl(dir + "/wal.log");
+        wal.recover(records::add);
+        wal.close();
+        assertEquals(1002, records.size());
+        assertEquals(records.get(1).id() + 1000, (long) records.get(1001).id());
+
+        final KeyValueStore reopened = new KeyValueStoreImpl(dir, 1 << 20);
+        assertEquals("v0", new String(reopened.get("k0".getBytes()).value().value()));
+        assertNull(reopened.get("gone".getBytes()).value().value());
+    }
+
+    @Test
+    void configuredMergeOperatorFoldsOperandsAcrossFlush() throws Exception {
+        final var dir = Files.createTempDirectory("kv-merge-").toString();
+        final KeyValueStore counters = new KeyValueStoreImpl(dir, 1 << 20, MergeOperatorType.ADD);
+        counters.put("c".getBytes(), "10".getBytes());
+        counters.merge("c".getBytes(), "5".getBytes());
+        counters.flush();
+        counters.merge("c".getBytes(), "-2".getBytes());
+        assertEquals("13", new String(counters.get("c".getBytes()).value().value()));
+        assertThrows(KVException.class, () -> counters.merge("c".getBytes(), "five".getBytes()));
+
+        final KeyValueStore logs = new KeyValueStoreImpl(Files.createTempDirectory("kv-append-").toString(),
+                1 << 20, MergeOperatorType.APPEND);
+        logs.merge("l".getBytes(), "a".getBytes());
+        logs.merge("l".getBytes(), "b".getBytes());
+        assertEquals("ab", new String(logs.get("l".getBytes()).value().value()));
+
+        // без оператора merge отклоняется, а не пишет операнд, который некому свернуть
+        assertThrows(KVException.class, () -> keyValueStore.merge("c".getBytes(), "1".getBytes()));
+    }
 }
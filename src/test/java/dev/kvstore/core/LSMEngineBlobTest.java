@@ -0,0 +1,77 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSMEngineBlobTest {
+
+    private static byte[] value(final int round, final int i) {
+        final byte[] v = new byte[10_000];
+        Arrays.fill(v, (byte) (round * 31 + i));
+        return v;
+    }
+
+    private static File[] files(final String dir, final String suffix) {
+        return new File(dir).listFiles((d, name) -> name.endsWith(suffix));
+    }
+
+    @Test
+    void largeValuesLiveInBlobFilesAndTablesKeepPointers() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-blob-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions().minBlobSize(1024));
+
+        for (int i = 0; i < 20; i++) {
+            engine.put(("k" + i).getBytes(), value(0, i));
+        }
+        engine.put("small".getBytes(), "v".getBytes());
+        engine.flush();
+
+        assertEquals(1, files(dir, ".blob").length);
+        // в таблице только ссылки: она меньше одного значения
+        assertTrue(files(dir, ".sstable")[0].length() < 10_000);
+        assertArrayEquals(value(0, 7), engine.get("k7".getBytes()).value());
+        assertEquals("v", new String(engine.get("small".getBytes()).value()));
+        final List<Entry> found = engine.multiGet(List.of("k3".getBytes(), "k19".getBytes(), "none".getBytes()));
+        assertArrayEquals(value(0, 3), found.get(0).value());
+        assertArrayEquals(value(0, 19), found.get(1).value());
+        assertNull(found.get(2));
+    }
+
+    @Test
+    void compactionDropsDeadBlobFilesAndRelocatesHalfDeadOnes() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-blob-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions().minBlobSize(1024));
+
+        for (int i = 0; i < 20; i++) {
+            engine.put(("k" + i).getBytes(), value(0, i));
+        }
+        engine.flush();
+        // три раунда переписывают половину ключей: первый файл наполовину мусор, два промежуточных — целиком
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                engine.put(("k" + i).getBytes(), value(round, i));
+            }
+            engine.flush();
+        }
+
+        // ждём фоновую компакцию: остаются файл последнего раунда и файл с перенесёнными значениями
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (files(dir, ".blob").length != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, files(dir, ".blob").length);
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(value(i < 10 ? 3 : 0, i), engine.get(("k" + i).getBytes()).value());
+        }
+    }
+}
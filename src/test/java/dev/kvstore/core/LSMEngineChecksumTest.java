@@ -0,0 +1,52 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.ReadOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSMEngineChecksumTest {
+
+    @Test
+    void corruptedBlockIsCaughtByVerifyingReadsAndScrubber() throws Exception {
+        final Path tmp = Files.createTempDirectory("lsm-crc-");
+        final LSMEngine engine = new LSMEngineImpl(tmp.toString(), 1 << 20,
+                new EngineOptions().scrubIntervalMillis(0));
+        engine.put("k".getBytes(), "payload-0123456789".getBytes());
+        engine.put("z".getBytes(), "other".getBytes());
+        engine.flush();
+        assertEquals(List.of(), engine.scrub());
+
+        final File table = corrupt(tmp, "payload-0123456789");
+
+        // без проверки битое значение уходит клиенту как есть
+        final var unchecked = engine.get("k".getBytes(), ReadOptions.DEFAULT.withVerifyChecksums(false));
+        assertNotEquals("payload-0123456789", new String(unchecked.value(), StandardCharsets.UTF_8));
+        // проверяющее чтение ловит порчу и в блоке, который уже лежит в кэше
+        assertThrows(IOException.class, () -> engine.get("k".getBytes()));
+        assertEquals(List.of(table), engine.scrub());
+    }
+
+    // меняет один байт значения в единственной SSTable и возвращает её файл
+    private static File corrupt(final Path dir, final String value) throws IOException {
+        final File[] tables = dir.toFile().listFiles((d, name) -> name.endsWith(".sstable"));
+        assertNotNull(tables);
+        assertEquals(1, tables.length);
+        final byte[] bytes = Files.readAllBytes(tables[0].toPath());
+        final int at = new String(bytes, StandardCharsets.ISO_8859_1).indexOf(value);
+        assertTrue(at >= 0);
+        bytes[at] ^= 1;
+        Files.write(tables[0].toPath(), bytes);
+        return tables[0];
+    }
+}
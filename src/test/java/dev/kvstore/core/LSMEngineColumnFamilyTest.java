@@ -0,0 +1,112 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.ColumnFamilyOptions;
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.ColumnFamilyHandle;
+import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.PutOptions;
+import dev.kvstore.core.model.ReadOptions;
+import dev.kvstore.core.model.TableOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSMEngineColumnFamilyTest {
+
+    private static EngineOptions options() {
+        return new EngineOptions()
+                .columnFamily("meta", new ColumnFamilyOptions())
+                .columnFamily("blobs", new ColumnFamilyOptions()
+                        .tableOptions(new TableOptions(4096, 4))
+                        .mergeOperator((key, existing, operand) -> operand));
+    }
+
+    @Test
+    void sameKeyLivesSeparatelyInEachFamily() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-cf-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, options());
+        final ColumnFamilyHandle meta = engine.columnFamily("meta");
+
+        engine.put("k".getBytes(), "default".getBytes());
+        engine.put(meta, "k".getBytes(), "meta".getBytes(), PutOptions.DEFAULT);
+
+        assertEquals("default", value(engine.get("k".getBytes())));
+        assertEquals("meta", value(engine.get(meta, "k".getBytes(), ReadOptions.DEFAULT)));
+        assertNull(engine.get(engine.columnFamily("blobs"), "k".getBytes(), ReadOptions.DEFAULT));
+        assertThrows(KVException.class, () -> engine.columnFamily("missing"));
+        assertThrows(KVException.class, () -> engine.merge("k".getBytes(), "x".getBytes()));
+    }
+
+    @Test
+    void crossFamilyBatchIsRecoveredFromSharedWal() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-cf-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, options());
+        final ColumnFamilyHandle meta = engine.columnFamily("meta");
+        final ColumnFamilyHandle blobs = engine.columnFamily("blobs");
+
+        engine.write(List.of(
+                new Entry("a".getBytes(), "1".getBytes(), false),
+                new Entry("a".getBytes(), "2".getBytes(), false),
+                Entry.mergeOperand("a".getBytes(), "3".getBytes())
+        ), List.of(ColumnFamilyHandle.DEFAULT, meta, blobs), true);
+
+        final LSMEngine reopened = new LSMEngineImpl(dir, 1 << 20, options());
+        assertEquals(meta, reopened.columnFamily("meta"));
+        assertEquals("1", value(reopened.get("a".getBytes())));
+        assertEquals("2", value(reopened.get(meta, "a".getBytes(), ReadOptions.DEFAULT)));
+        assertEquals("3", value(reopened.get(blobs, "a".getBytes(), ReadOptions.DEFAULT)));
+    }
+
+    @Test
+    void flushWritesEveryFamilyIntoItsOwnDirectory() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-cf-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, options());
+        final ColumnFamilyHandle blobs = engine.columnFamily("blobs");
+
+        final byte[] big = new byte[10_000];
+        for (int i = 0; i < 20; i++) {
+            engine.put(blobs, ("b" + i).getBytes(), big, PutOptions.DEFAULT);
+        }
+        engine.put("d".getBytes(), "v".getBytes());
+        engine.flush();
+
+        assertTrue(hasTable(Path.of(dir, "cf-blobs")));
+        assertFalse(hasTable(Path.of(dir, "cf-meta")));
+        assertEquals(big.length, engine.get(blobs, "b7".getBytes(), ReadOptions.DEFAULT).value().length);
+        assertEquals("v", value(engine.get("d".getBytes())));
+    }
+
+    @Test
+    void familyIdsSurviveReorderingAndRemovalFromOptions() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-cf-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, options());
+        final ColumnFamilyHandle blobs = engine.columnFamily("blobs");
+        engine.put(blobs, "x".getBytes(), "y".getBytes(), PutOptions.DEFAULT);
+
+        // семейство meta пропало из настроек, новое добавилось: номера старых не сдвигаются
+        final LSMEngine reopened = new LSMEngineImpl(dir, 1 << 20, new EngineOptions()
+                .columnFamily("extra", new ColumnFamilyOptions())
+                .columnFamily("blobs", new ColumnFamilyOptions()));
+        assertEquals(blobs, reopened.columnFamily("blobs"));
+        assertEquals(3, reopened.columnFamily("extra").id());
+        assertNotNull(reopened.columnFamily("meta"));
+        assertEquals("y", value(reopened.get(blobs, "x".getBytes(), ReadOptions.DEFAULT)));
+    }
+
+    private static boolean hasTable(final Path dir) {
+        final File[] files = dir.toFile().listFiles((d, name) -> name.startsWith("level0-"));
+        return files != null && files.length > 0;
+    }
+
+    private static String value(final Entry entry) {
+        return new String(entry.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.CompactionFilter;
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.ColumnFamilyHandle;
+import dev.kvstore.core.model.PutOptions;
+import dev.kvstore.core.model.ReadOptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LSMEngineCompactionFilterTest {
+
+    private Path tmp;
+    private LSMEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tmp = Files.createTempDirectory("lsm-filter-");
+        // выкидываем ключи удалённого тенанта и значения-заглушки, вычищаем устаревший суффикс у остальных
+        final CompactionFilter filter = (level, key, value) -> {
+            final var k = new String(key, StandardCharsets.UTF_8);
+            final var v = new String(value, StandardCharsets.UTF_8);
+            if (k.startsWith("tenant:dead:") || v.equals("placeholder")) {
+                return CompactionFilter.Decision.remove();
+            }
+            if (v.endsWith("|obsolete")) {
+                return CompactionFilter.Decision.changeValue(
+                        v.substring(0, v.length() - "|obsolete".length()).getBytes(StandardCharsets.UTF_8));
+            }
+            return CompactionFilter.Decision.keep();
+        };
+        engine = new LSMEngineImpl(tmp.toString(), 2_048, new EngineOptions().compactionFilter(filter));
+    }
+
+    @Test
+    void filterDropsAndRewritesDuringCompaction() throws Exception {
+        // четыре SSTable на нулевом уровне триггерят компакцию
+        for (int r = 0; r < 4; r++) {
+            for (int i = 0; i < 20; i++) {
+                engine.put(("tenant:dead:" + r + ":" + i).getBytes(), "x".getBytes(), PutOptions.DEFAULT);
+                engine.put(("tenant:live:" + r + ":" + i).getBytes(), ("v" + i + "|obsolete").getBytes(), PutOptions.DEFAULT);
+            }
+            engine.flush();
+        }
+
+        // flush ставит компакцию в очередь до возврата; ждём её и проверяем, что она была
+        engine.awaitCompactions();
+        assertTrue(tmp.toFile().listFiles((d, name) -> name.startsWith("level1-")).length > 0);
+
+        assertNull(engine.get("tenant:dead:0:5".getBytes(), ReadOptions.DEFAULT));
+        assertNull(engine.get("tenant:dead:3:19".getBytes(), ReadOptions.DEFAULT));
+        assertEquals("v5", new String(engine.get("tenant:live:0:5".getBytes(), ReadOptions.DEFAULT).value()));
+        assertEquals("v19", new String(engine.get("tenant:live:3:19".getBytes(), ReadOptions.DEFAULT).value()));
+    }
+
+    @Test
+    void removedEntryStillHidesOlderVersionsBelow() throws Exception {
+        engine.put("k".getBytes(), "kept".getBytes(), PutOptions.DEFAULT);
+        engine.flush();
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 0);
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 1);
+
+        // фильтр выбрасывает новую версию на L0 -> L1, но "kept" на L2 не должен вернуться
+        engine.put("k".getBytes(), "placeholder".getBytes(), PutOptions.DEFAULT);
+        engine.flush();
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 0);
+        assertNull(engine.get("k".getBytes(), ReadOptions.DEFAULT));
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 1);
+        assertNull(engine.get("k".getBytes(), ReadOptions.DEFAULT));
+    }
+}
@@ -1,5 +1,6 @@
 package dev.kvstore.core;
 
+import dev.kvstore.core.LSM.EngineOptions;
 import dev.kvstore.core.LSM.LSMEngine;
 import dev.kvstore.core.LSM.LSMEngineImpl;
 import dev.kvstore.core.model.PutOptions;
@@ -7,12 +8,15 @@ import dev.kvstore.core.model.ReadOptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LSMEngineCompactionMergeTest {
 
@@ -66,4 +70,31 @@ public class LSMEngineCompactionMergeTest {
         assertEquals("v2_150", new String(engine.get("user:150".getBytes(), ReadOptions.DEFAULT).value())); // перекрытие → v2
         assertEquals("v2_250", new String(engine.get("user:250".getBytes(), ReadOptions.DEFAULT).value())); // только во второй
     }
+
+    @Test
+    void directIoCompactionWritesReadableTables() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-direct-");
+        final LSMEngine direct = new LSMEngineImpl(dir.toString(), 2_048,
+                new EngineOptions().compactionDirectIo(true).scrubIntervalMillis(0));
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < 100; i++) {
+                direct.put(("user:" + i).getBytes(), ("v" + r + "_" + i).getBytes(), PutOptions.DEFAULT);
+            }
+            direct.flush();
+        }
+
+        // ждём таблицу уровня 1: её прочитала и записала компакция
+        File[] level1 = new File[0];
+        for (int attempt = 0; attempt < 50 && level1.length == 0; attempt++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            level1 = dir.toFile().listFiles((d, name) -> name.startsWith("level1-") && name.endsWith(".sstable"));
+        }
+        assertTrue(level1.length > 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v4_" + i, new String(direct.get(("user:" + i).getBytes()).value()));
+        }
+        // хвост выровненной записи обрезан: контрольные суммы всех блоков сходятся
+        assertEquals(List.of(), direct.scrub());
+    }
 }
@@ -0,0 +1,110 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.LSM.MergeOperator;
+import dev.kvstore.core.model.ReadOptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LSMEngineMergeOperatorTest {
+
+    // счётчик: значение и операнд — десятичное число строкой
+    private static final MergeOperator COUNTER = (key, existing, operand) -> {
+        final long base = existing == null ? 0 : Long.parseLong(new String(existing, StandardCharsets.UTF_8));
+        final long delta = Long.parseLong(new String(operand, StandardCharsets.UTF_8));
+        return Long.toString(base + delta).getBytes(StandardCharsets.UTF_8);
+    };
+
+    private Path tmp;
+    private LSMEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tmp = Files.createTempDirectory("lsm-merge-op-");
+        engine = new LSMEngineImpl(tmp.toString(), 2_048, new EngineOptions().mergeOperator(COUNTER));
+    }
+
+    @Test
+    void operandsAreFoldedOnGet() throws Exception {
+        engine.merge("c".getBytes(), "1".getBytes());
+        engine.merge("c".getBytes(), "2".getBytes());
+        engine.merge("c".getBytes(), "3".getBytes());
+
+        assertEquals("6", value("c"));
+    }
+
+    @Test
+    void operandsAreFoldedAcrossMemTableAndSSTables() throws Exception {
+        engine.put("c".getBytes(), "10".getBytes());
+        engine.merge("c".getBytes(), "5".getBytes());
+        engine.flush();
+        engine.merge("c".getBytes(), "7".getBytes());
+        engine.flush();
+        engine.merge("c".getBytes(), "1".getBytes());
+
+        assertEquals("23", value("c"));
+    }
+
+    @Test
+    void putAndDeleteResetTheBase() throws Exception {
+        engine.merge("c".getBytes(), "5".getBytes());
+        engine.put("c".getBytes(), "100".getBytes());
+        engine.merge("c".getBytes(), "1".getBytes());
+        assertEquals("101", value("c"));
+
+        engine.delete("c".getBytes());
+        assertNull(engine.get("c".getBytes(), ReadOptions.DEFAULT));
+
+        engine.merge("c".getBytes(), "2".getBytes());
+        assertEquals("2", value("c"));
+    }
+
+    @Test
+    void operandsSurviveCompaction() throws Exception {
+        for (int r = 0; r < 4; r++) {
+            for (int i = 0; i < 10; i++) {
+                engine.merge(("c" + i).getBytes(), "1".getBytes());
+            }
+            engine.flush();
+        }
+        // flush ставит компакцию в очередь до возврата; ждём её и проверяем, что она была
+        engine.awaitCompactions();
+        assertTrue(tmp.toFile().listFiles((d, name) -> name.startsWith("level1-")).length > 0);
+
+        assertEquals("4", value("c0"));
+        assertEquals("4", value("c9"));
+    }
+
+    @Test
+    void operandsAreRecoveredFromWAL() throws Exception {
+        engine.merge("c".getBytes(), "4".getBytes());
+        engine.merge("c".getBytes(), "4".getBytes());
+
+        final LSMEngine restarted = new LSMEngineImpl(tmp.toString(), 2_048, new EngineOptions().mergeOperator(COUNTER));
+
+        assertEquals("8", new String(restarted.get("c".getBytes(), ReadOptions.DEFAULT).value(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void mergeWithoutOperatorIsRejected() throws Exception {
+        final LSMEngine plain = new LSMEngineImpl(Files.createTempDirectory("lsm-merge-op-").toString(), 2_048);
+
+        assertThrows(KVException.class, () -> plain.merge("c".getBytes(), "1".getBytes()));
+    }
+
+    private String value(final String key) throws Exception {
+        return new String(engine.get(key.getBytes(), ReadOptions.DEFAULT).value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.ColumnFamilyHandle;
+import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.ReadOptions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LSMEngineMultiGetTest {
+
+    @Test
+    void multiGetMatchesGetAcrossMemTableAndSSTables() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-mget-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions()
+                .mergeOperator((key, existing, operand) -> existing == null
+                        ? operand
+                        : (new String(existing, StandardCharsets.UTF_8) + "+"
+                        + new String(operand, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8)));
+
+        for (int i = 0; i < 300; i++) {
+            engine.put(key(i), ("old" + i).getBytes());
+        }
+        engine.flush();
+        for (int i = 0; i < 300; i += 3) {
+            engine.put(key(i), ("new" + i).getBytes());
+        }
+        engine.delete(key(10));
+        engine.merge(key(20), "m".getBytes());
+        engine.flush();
+        engine.put(key(1), "mem".getBytes());
+        engine.merge(key(4), "x".getBytes());
+
+        final List<byte[]> keys = new ArrayList<>();
+        for (int i = 299; i >= 0; i -= 7) {
+            keys.add(key(i));
+        }
+        keys.add(key(1));
+        keys.add(key(4));
+        keys.add(key(10));
+        keys.add(key(20));
+        keys.add(key(1));
+        keys.add("absent".getBytes());
+
+        final List<Entry> found = engine.multiGet(keys);
+        assertEquals(keys.size(), found.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final Entry expected = engine.get(keys.get(i));
+            if (expected == null) {
+                assertNull(found.get(i));
+            } else {
+                assertEquals(new String(expected.value()), new String(found.get(i).value()));
+            }
+        }
+        assertEquals("mem", new String(found.get(found.size() - 2).value()));
+        assertEquals("old4+x", new String(found.get(keys.size() - 5).value()));
+        assertNull(found.get(keys.size() - 4));
+        assertEquals("old20+m", new String(found.get(keys.size() - 3).value()));
+        assertNull(found.get(keys.size() - 1));
+    }
+
+    @Test
+    void parallelMultiGetKeepsRequestOrder() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-mget-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions()
+                .multiGetParallelism(4)
+                .multiGetPartitionKeys(16));
+        for (int i = 0; i < 1_000; i++) {
+            engine.put(key(i), ("v" + i).getBytes());
+            if (i % 250 == 249) {
+                engine.flush();
+            }
+        }
+
+        final List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(key((i * 37) % 1_100));
+        }
+        final List<Entry> found = engine.multiGet(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            final int k = (i * 37) % 1_100;
+            if (k < 1_000) {
+                assertEquals("v" + k, new String(found.get(i).value()));
+            } else {
+                assertNull(found.get(i));
+            }
+        }
+    }
+
+    @Test
+    void asyncReadsMatchBlockingReads() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-mget-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions());
+        for (int i = 0; i < 200; i++) {
+            engine.put(key(i), ("v" + i).getBytes());
+        }
+        engine.flush();
+        engine.put(key(7), "mem".getBytes());
+
+        // ответ из memtable готов сразу, без пула чтений
+        final CompletableFuture<Entry> fromMemTable = engine.getAsync(key(7), ReadOptions.DEFAULT);
+        assertTrue(fromMemTable.isDone());
+        assertEquals("mem", new String(fromMemTable.get().value()));
+        assertEquals("v42", new String(engine.getAsync(key(42), ReadOptions.DEFAULT).get().value()));
+        assertNull(engine.getAsync("absent".getBytes(), ReadOptions.DEFAULT).get());
+
+        final List<byte[]> keys = List.of(key(150), key(7), "absent".getBytes(), key(0));
+        final List<Entry> found = engine.multiGetAsync(keys, ReadOptions.DEFAULT).get();
+        assertEquals("v150", new String(found.get(0).value()));
+        assertEquals("mem", new String(found.get(1).value()));
+        assertNull(found.get(2));
+        assertEquals("v0", new String(found.get(3).value()));
+
+        final ExecutionException missing = assertThrows(ExecutionException.class, () -> engine.getAsync(
+                new ColumnFamilyHandle("nope", 42), key(1), ReadOptions.DEFAULT).get());
+        assertTrue(missing.getCause() instanceof KVException);
+    }
+
+    private static byte[] key(final int i) {
+        return String.format("key%04d", i).getBytes();
+    }
+}
@@ -0,0 +1,75 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.CompactionFilter;
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LSMEngineRowCacheTest {
+
+    @Test
+    void cachedValuesAndMissesAreInvalidatedByWrites() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-rowcache-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions()
+                .rowCacheBytes(64 << 10)
+                .mergeOperator((key, existing, operand) -> existing == null
+                        ? operand
+                        : (new String(existing, StandardCharsets.UTF_8) + "+"
+                        + new String(operand, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8)));
+
+        // отрицательная запись
+        assertNull(engine.get("k".getBytes()));
+        assertNull(engine.get("k".getBytes()));
+        engine.put("k".getBytes(), "v1".getBytes());
+        assertEquals("v1", value(engine, "k"));
+        assertEquals("v1", value(engine, "k"));
+
+        engine.flush();
+        assertEquals("v1", value(engine, "k"));
+        engine.merge("k".getBytes(), "m".getBytes());
+        assertEquals("v1+m", value(engine, "k"));
+
+        engine.write(List.of(new Entry("k".getBytes(), "v2".getBytes(), false)), false);
+        assertEquals("v2", value(engine, "k"));
+
+        engine.delete("k".getBytes());
+        assertNull(engine.get("k".getBytes()));
+    }
+
+    @Test
+    void compactionFilterDropsCachedRows() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-rowcache-").toString();
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions()
+                .rowCacheBytes(64 << 10)
+                .compactionFilter((level, key, value) -> new String(key).startsWith("tmp")
+                        ? CompactionFilter.Decision.remove()
+                        : CompactionFilter.Decision.keep()));
+
+        engine.put("tmp1".getBytes(), "x".getBytes());
+        engine.flush();
+        assertEquals("x", value(engine, "tmp1"));
+        for (int i = 0; i < 3; i++) {
+            engine.put(("k" + i).getBytes(), "v".getBytes());
+            engine.flush();
+        }
+
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (engine.get("tmp1".getBytes()) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(engine.get("tmp1".getBytes()));
+    }
+
+    private static String value(final LSMEngine engine, final String key) throws Exception {
+        return new String(engine.get(key.getBytes()).value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.ColumnFamilyHandle;
+import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.PutOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LSMEngineTtlTest {
+
+    @Test
+    void versionsAndTtlSurviveFlush() throws Exception {
+        final var tmp = Files.createTempDirectory("lsm-ttl-");
+        final LSMEngine engine = new LSMEngineImpl(tmp.toString(), 1 << 20);
+
+        final long before = System.currentTimeMillis();
+        engine.put("a".getBytes(), "1".getBytes(), PutOptions.withTtl(Duration.ofHours(1)));
+        engine.put("b".getBytes(), "2".getBytes());
+        engine.put("gone".getBytes(), "x".getBytes(), PutOptions.withTtl(Duration.ofMillis(1)));
+        final Entry inMemory = engine.get("a".getBytes());
+        engine.flush();
+
+        final Entry a = engine.get("a".getBytes());
+        assertEquals("1", new String(a.value()));
+        assertEquals(inMemory.version(), a.version());
+        assertTrue(a.version() > 0);
+        assertTrue(a.expireAtMillis() >= before + Duration.ofHours(1).toMillis());
+        final Entry b = engine.get("b".getBytes());
+        assertEquals(a.version() + 1, b.version());
+        assertEquals(0, b.expireAtMillis());
+
+        Thread.sleep(5);
+        assertNull(engine.get("gone".getBytes()));
+    }
+
+    @Test
+    void batchedPutKeepsTtl() throws Exception {
+        final var tmp = Files.createTempDirectory("lsm-ttl-batch-");
+        final LSMEngine engine = new LSMEngineImpl(tmp.toString(), 1 << 20);
+
+        try (WriteBatch batch = new WriteBatchImpl(engine)) {
+            batch.put(ColumnFamilyHandle.DEFAULT, "short".getBytes(), "1".getBytes(),
+                    PutOptions.withTtl(Duration.ofMillis(1)));
+            batch.put(ColumnFamilyHandle.DEFAULT, "long".getBytes(), "2".getBytes(),
+                    PutOptions.withTtl(Duration.ofHours(1)));
+            batch.commit();
+        }
+        assertTrue(engine.get("long".getBytes()).expireAtMillis() > System.currentTimeMillis());
+
+        Thread.sleep(5);
+        assertNull(engine.get("short".getBytes()));
+        engine.flush();
+        assertNull(engine.get("short".getBytes()));
+        assertEquals("2", new String(engine.get("long".getBytes()).value()));
+    }
+
+    @Test
+    void ttlIsRecoveredFromWAL() throws Exception {
+        final var tmp = Files.createTempDirectory("lsm-ttl-wal-");
+        final LSMEngine first = new LSMEngineImpl(tmp.toString(), 1 << 20);
+        first.put("k".getBytes(), "v".getBytes(), PutOptions.withTtl(Duration.ofMinutes(5)));
+        final long expireAt = first.get("k".getBytes()).expireAtMillis();
+
+        // краш без flush: запись и её TTL восстанавливаются из лога
+        final LSMEngine second = new LSMEngineImpl(tmp.toString(), 1 << 20);
+        assertEquals(expireAt, second.get("k".getBytes()).expireAtMillis());
+    }
+
+    @Test
+    void mergeOverExpiredBaseStartsFromEmptyEverywhere() throws Exception {
+        final var tmp = Files.createTempDirectory("lsm-ttl-merge-");
+        final LSMEngine engine = new LSMEngineImpl(tmp.toString(), 1 << 20, new EngineOptions()
+                .mergeOperator((key, existing, operand) -> existing == null
+                        ? operand
+                        : (new String(existing) + new String(operand)).getBytes()));
+
+        engine.put("flushed".getBytes(), "base".getBytes(), PutOptions.withTtl(Duration.ofMillis(50)));
+        engine.put("memory".getBytes(), "base".getBytes(), PutOptions.withTtl(Duration.ofMillis(50)));
+        // база "flushed" уходит в SSTable раньше операнда, база "memory" сворачивается с ним во flush
+        engine.flush();
+        Thread.sleep(100);
+        engine.merge("flushed".getBytes(), "+1".getBytes());
+        engine.put("memory".getBytes(), "base".getBytes(), PutOptions.withTtl(Duration.ofMillis(1)));
+        Thread.sleep(5);
+        engine.merge("memory".getBytes(), "+1".getBytes());
+
+        assertEquals("+1", new String(engine.get("flushed".getBytes()).value()));
+        assertEquals("+1", new String(engine.get("memory".getBytes()).value()));
+        engine.flush();
+        assertEquals("+1", new String(engine.get("flushed".getBytes()).value()));
+        assertEquals("+1", new String(engine.get("memory".getBytes()).value()));
+        // ещё таблицы на L0, чтобы сработала компакция; ждём её выход на уровне 1
+        for (int r = 0; r < 3; r++) {
+            engine.put(("filler" + r).getBytes(), "x".getBytes());
+            engine.flush();
+        }
+        File[] level1 = new File[0];
+        for (int attempt = 0; attempt < 50 && level1.length == 0; attempt++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            level1 = tmp.toFile().listFiles((d, name) -> name.startsWith("level1-") && name.endsWith(".sstable"));
+        }
+        assertTrue(level1.length > 0);
+        final Entry merged = engine.get("flushed".getBytes());
+        assertEquals("+1", new String(merged.value()));
+        assertEquals(0, merged.expireAtMillis());
+        assertEquals("+1", new String(engine.get("memory".getBytes()).value()));
+    }
+
+    @Test
+    void tombstonesAndExpiredEntriesHideOlderLevelsUntilTheBottom() throws Exception {
+        final var tmp = Files.createTempDirectory("lsm-ttl-levels-");
+        final LSMEngine engine = new LSMEngineImpl(tmp.toString(), 1 << 20);
+
+        // старые значения — на уровне 2
+        engine.put("deleted".getBytes(), "old".getBytes());
+        engine.put("expired".getBytes(), "old".getBytes());
+        engine.flush();
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 0);
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 1);
+
+        // новые удаление и короткий TTL проходят L0 -> L1 -> L2 поверх них
+        engine.delete("deleted".getBytes());
+        engine.put("expired".getBytes(), "new".getBytes(), PutOptions.withTtl(Duration.ofMillis(1)));
+        engine.flush();
+        Thread.sleep(5);
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 0);
+        assertNull(engine.get("deleted".getBytes()));
+        assertNull(engine.get("expired".getBytes()));
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 1);
+        assertNull(engine.get("deleted".getBytes()));
+        assertNull(engine.get("expired".getBytes()));
+
+        // на дне старых версий уже нет, и могильники уходят вместе с ними
+        engine.compactLevel(ColumnFamilyHandle.DEFAULT, 2);
+        assertNull(engine.get("deleted".getBytes()));
+        assertNull(engine.get("expired".getBytes()));
+        assertEquals(0, tmp.toFile().listFiles((d, name) -> name.endsWith(".sstable")).length);
+    }
+}
@@ -0,0 +1,66 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.LSMEngineImpl;
+import dev.kvstore.core.model.WriteStallPolicy;
+import dev.kvstore.core.model.WriteStallStats;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LSMEngineWriteStallTest {
+
+    @Test
+    void writesAreDelayedPastSlowdownThreshold() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-stall-").toString();
+        final var policy = new WriteStallPolicy(1, 100, 3, 4, 1L << 30, 4L << 30, 2_000);
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions().writeStallPolicy(policy));
+
+        engine.put("a".getBytes(), "1".getBytes());
+        assertEquals(WriteStallStats.State.NORMAL, engine.writeStallStats().state());
+
+        engine.flush();
+        final var stats = engine.writeStallStats();
+        assertEquals(WriteStallStats.State.DELAYED, stats.state());
+        assertEquals(1, stats.level0Files());
+
+        engine.put("b".getBytes(), "2".getBytes());
+        engine.delete("a".getBytes());
+        assertEquals(2, engine.writeStallStats().delayedWrites());
+        assertTrue(engine.writeStallStats().stallMicros() > 0);
+    }
+
+    @Test
+    void stoppedWritesResumeAfterCompaction() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-stall-").toString();
+        // на четвёртой таблице L0 запись встаёт, а компакция уровня её отпускает
+        final var policy = new WriteStallPolicy(2, 4, 3, 4, 1L << 30, 4L << 30, 100);
+        final LSMEngine engine = new LSMEngineImpl(dir, 1 << 20, new EngineOptions().writeStallPolicy(policy));
+
+        for (int i = 0; i < 4; i++) {
+            engine.put(("k" + i).getBytes(), "v".getBytes());
+            engine.flush();
+        }
+
+        final var write = CompletableFuture.runAsync(() -> {
+            try {
+                engine.put("after".getBytes(), "v".getBytes());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        write.get(10, TimeUnit.SECONDS);
+
+        final var stats = engine.writeStallStats();
+        assertEquals(WriteStallStats.State.NORMAL, stats.state());
+        assertEquals(0, stats.level0Files());
+        assertEquals("v", new String(engine.get("after".getBytes()).value()));
+        assertEquals("v", new String(engine.get("k0".getBytes()).value()));
+    }
+}
@@ -3,6 +3,7 @@ package dev.kvstore.core;
 import dev.kvstore.core.LSM.SSTable;
 import dev.kvstore.core.model.Entry;
 import dev.kvstore.core.LSM.MemTable;
+import dev.kvstore.core.LSM.MemTableRepType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -59,9 +60,10 @@ public class MemTableTest {
 
         final List<Entry> entryList = allEntries.stream().map(Map.Entry::getValue).toList();
 
-        assertTrue(entryList.contains(entry));
-        assertTrue(entryList.contains(entry1));
-        assertTrue(entryList.contains(entry2));
+        // memtable проставляет записи их номер последовательности
+        assertTrue(entryList.contains(entry.withVersion(1)));
+        assertTrue(entryList.contains(entry1.withVersion(2)));
+        assertTrue(entryList.contains(entry2.withVersion(3)));
     }
 
 
@@ -89,4 +91,71 @@ public class MemTableTest {
         assertEquals("Makunina", new String(result2.value()));
     }
 
+    @Test
+    void offHeapMemTableKeepsVersionsAndCountsArenaBytes() {
+        final var offHeap = new MemTable(10000, null, true);
+
+        offHeap.set(new Entry("b".getBytes(), "1".getBytes(), false).withExpireAt(12345), 1);
+        offHeap.set(new Entry("a".getBytes(), "old".getBytes(), false), 2);
+        offHeap.set(new Entry("a".getBytes(), null, true), 3);
+        offHeap.set(Entry.mergeOperand("c".getBytes(), "+1".getBytes()), 4);
+
+        // заголовок записи 25 байт + ключ + значение
+        assertEquals(4 * 25 + 4 + 1 + 3 + 2, offHeap.memoryUsage());
+
+        final var b = offHeap.get("b".getBytes());
+        assertEquals(1, b.version());
+        assertEquals(12345, b.expireAtMillis());
+
+        final var latestA = offHeap.get("a".getBytes());
+        assertTrue(latestA.tombstone());
+        assertEquals(null, latestA.value());
+
+        final var visible = offHeap.getVersions("a".getBytes(), 2).iterator().next();
+        assertEquals("old", new String(visible.value()));
+        assertTrue(offHeap.get("c".getBytes()).merge());
+
+        final List<String> keys = offHeap.getAllEntries().stream().map(e -> new String(e.getKey())).toList();
+        assertEquals(List.of("a", "b", "c"), keys);
+    }
+
+    @Test
+    void offHeapArenaIsFreedWhenLastReferenceIsReleased() {
+        final var offHeap = new MemTable(10000, null, true);
+        offHeap.set(new Entry("a".getBytes(), "1".getBytes(), false), 1);
+
+        // срез чтения держит memtable, пока движок уже отпустил свою ссылку
+        offHeap.retain();
+        offHeap.release();
+        assertEquals("1", new String(offHeap.get("a".getBytes()).value()));
+        assertTrue(offHeap.memoryUsage() > 0);
+
+        offHeap.release();
+        assertEquals(0, offHeap.memoryUsage());
+        assertTrue(offHeap.isEmpty());
+    }
+
+    @Test
+    void hashAndVectorRepsMatchSkipListOrder() {
+        for (MemTableRepType type : List.of(MemTableRepType.HASH, MemTableRepType.VECTOR)) {
+            final var table = new MemTable(10000, null, type, false);
+
+            table.set(new Entry("b".getBytes(), "1".getBytes(), false), 1);
+            table.set(new Entry("a".getBytes(), "old".getBytes(), false), 2);
+            table.set(new Entry("a".getBytes(), "new".getBytes(), false), 4);
+            table.set(new Entry("c".getBytes(), "3".getBytes(), false), 3);
+
+            assertEquals("new", new String(table.get("a".getBytes()).value()), type.name());
+            assertEquals("old", new String(table.getVersions("a".getBytes(), 3).iterator().next().value()), type.name());
+
+            table.freeze();
+            assertEquals("new", new String(table.get("a".getBytes()).value()), type.name());
+            assertEquals(null, table.get("z".getBytes()), type.name());
+
+            final List<String> keys = table.snapshot().keySet().stream().map(String::new).toList();
+            assertEquals(List.of("a", "b", "c"), keys, type.name());
+            assertEquals("new", new String(table.snapshot().get("a".getBytes()).value()), type.name());
+        }
+    }
+
 }
@@ -1,7 +1,9 @@
 package dev.kvstore.core;
 
 import dev.kvstore.core.LSM.SSTable;
+import dev.kvstore.core.model.CompressionType;
 import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.TableOptions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -57,4 +59,175 @@ public class SSTableTest {
         final Entry notFound = sstable.search("unknown".getBytes());
         assertNull(notFound);
     }
+
+    @Test
+    void multiSearchFindsSortedKeysAcrossBlocks() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(new Entry(String.format("key%03d", i).getBytes(), ("value" + i).getBytes(), false));
+        }
+        final SSTable sstable = new SSTable(".", entries);
+
+        final List<byte[]> keys = List.of("a".getBytes(), "key000".getBytes(), "key001".getBytes(),
+                "key050x".getBytes(), "key150".getBytes(), "key199".getBytes(), "zzz".getBytes());
+        final Entry[] found = sstable.multiSearch(keys);
+
+        assertNull(found[0]);
+        assertEquals("value0", new String(found[1].value()));
+        assertEquals("value1", new String(found[2].value()));
+        assertNull(found[3]);
+        assertEquals("value150", new String(found[4].value()));
+        assertEquals("value199", new String(found[5].value()));
+        assertNull(found[6]);
+    }
+
+    @Test
+    void valuesLargerThanBlockAndManyRestartsAreReadable() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final String value = i % 50 == 0 ? "x".repeat(10_000) : "v" + i;
+            entries.add(new Entry(String.format("key%04d", i).getBytes(), value.getBytes(), false));
+        }
+        // крупные блоки: смещения рестартов и число записей в трейлере занимают несколько байт
+        final SSTable sstable = new SSTable(".", entries, new TableOptions(16 << 10, 4));
+
+        assertEquals(500, sstable.getAllEntries().size());
+        assertEquals(10_000, sstable.search("key0100".getBytes()).value().length);
+        assertEquals("v499", new String(sstable.search("key0499".getBytes()).value()));
+        assertEquals("v257", new String(sstable.search("key0257".getBytes()).value()));
+        assertNull(sstable.search("key0257x".getBytes()));
+    }
+
+    @Test
+    void compressedBlocksAreReadableAndSmaller() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final String value = "{\"id\":" + i + ",\"status\":\"active\",\"region\":\"eu-west\"}";
+            entries.add(new Entry(String.format("doc%04d", i).getBytes(), value.getBytes(), false));
+        }
+        final SSTable plain = new SSTable("plain", entries, new TableOptions(4096, 16));
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ4, CompressionType.DEFLATE}) {
+            final SSTable table = new SSTable(type.name(), entries, new TableOptions(4096, 16, type));
+
+            assertTrue(table.file().length() < plain.file().length() / 2, type.name());
+            assertEquals(300, table.getAllEntries().size());
+            assertEquals("{\"id\":123,\"status\":\"active\",\"region\":\"eu-west\"}",
+                    new String(table.search("doc0123".getBytes()).value()));
+            final Entry[] found = table.multiSearch(List.of("doc0000".getBytes(), "doc0150".getBytes(),
+                    "doc0299".getBytes(), "doc9".getBytes()));
+            assertNotNull(found[0]);
+            assertNotNull(found[1]);
+            assertNotNull(found[2]);
+            assertNull(found[3]);
+        }
+    }
+
+    @Test
+    void dictionaryCompressesSmallValuesOneByOne() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final String value = "{\"id\":" + i + ",\"status\":\"active\",\"owner\":\"team-" + (i % 7)
+                    + "\",\"labels\":{\"env\":\"prod\",\"tier\":\"backend\"}}";
+            entries.add(new Entry(String.format("doc%04d", i).getBytes(), value.getBytes(), false));
+        }
+        entries.add(new Entry("doc9999".getBytes(), null, true));
+        final SSTable plain = new SSTable("plain", entries, new TableOptions(4096, 16));
+        final SSTable table = new SSTable("dict", entries, new TableOptions(4096, 16).withDictionaryBytes(2048));
+
+        assertTrue(table.file().length() < plain.file().length() / 2);
+        assertEquals("{\"id\":77,\"status\":\"active\",\"owner\":\"team-0\",\"labels\":{\"env\":\"prod\",\"tier\":\"backend\"}}",
+                new String(table.search("doc0077".getBytes()).value()));
+        assertTrue(table.search("doc9999".getBytes()).tombstone());
+        final List<Entry> all = table.getAllEntries();
+        assertEquals(401, all.size());
+        assertArrayEquals(entries.get(399).value(), all.get(399).value());
+    }
+
+    @Test
+    void formatV2KeepsVersionsAndTtlAlongsideV1() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final Entry e = new Entry(String.format("key%04d", i).getBytes(), ("value-" + i).getBytes(), false)
+                    .withVersion(1_000_000 + i);
+            entries.add(i % 2 == 0 ? e.withExpireAt(1_760_000_000_000L + i * 1000L) : e);
+        }
+        entries.add(new Entry("key9999".getBytes(), null, true).withVersion(2_000_000));
+        final TableOptions v1 = new TableOptions(4096, 16);
+        final SSTable old = new SSTable("v1", entries, v1);
+        final SSTable table = new SSTable("v2", entries, v1.withFormatVersion(TableOptions.FORMAT_V2));
+
+        final Entry found = table.search("key0042".getBytes());
+        assertEquals("value-42", new String(found.value()));
+        assertEquals(1_000_042, found.version());
+        assertEquals(1_760_000_042_000L, found.expireAtMillis());
+        assertEquals(0, table.search("key0043".getBytes()).expireAtMillis());
+        assertTrue(table.search("key9999".getBytes()).tombstone());
+        final List<Entry> all = table.getAllEntries();
+        assertEquals(301, all.size());
+        assertEquals(1_000_299, all.get(299).version());
+
+        // v1 рядом читается как раньше, только без версий
+        assertEquals("value-42", new String(old.search("key0042".getBytes()).value()));
+        assertEquals(0, old.search("key0042".getBytes()).version());
+        // дельты к базам блока: версия и TTL стоят меньше одного long на запись, а не двух
+        assertTrue(table.file().length() - old.file().length() < entries.size() * 8L);
+    }
+
+    @Test
+    void iteratorReadsBlocksAcrossReadaheadChunks() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            final String value = i % 100 == 0 ? "x".repeat(3_000) : "v" + i;
+            entries.add(new Entry(String.format("key%05d", i).getBytes(), value.getBytes(), false));
+        }
+        final SSTable table = new SSTable(".", entries);
+
+        // куски меньше файла и не кратны блокам: блоки пересекают их границы
+        for (boolean directIo : new boolean[]{false, true}) {
+            final List<Entry> read = new ArrayList<>();
+            try (SSTable.TableIterator it = table.iterator(4_099, directIo)) {
+                while (it.hasNext()) {
+                    read.add(it.next());
+                }
+                assertFalse(it.hasNext());
+            }
+            assertEquals(entries.size(), read.size());
+            for (int i = 0; i < entries.size(); i++) {
+                assertArrayEquals(entries.get(i).key(), read.get(i).key());
+                assertArrayEquals(entries.get(i).value(), read.get(i).value());
+            }
+        }
+        assertEquals(entries.size(), table.getAllEntries(true).size());
+    }
+
+    @Test
+    void openReadsFormatAndDictionaryFromFooter() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final String value = "{\"id\":" + i + ",\"status\":\"active\",\"owner\":\"team-" + (i % 7) + "\"}";
+            entries.add(new Entry(String.format("doc%04d", i).getBytes(), value.getBytes(), false)
+                    .withVersion(1_000 + i).withExpireAt(1_760_000_000_000L + i));
+        }
+        final TableOptions v1 = new TableOptions(4096, 16, CompressionType.NONE, 1024);
+        final SSTable[] written = {
+                new SSTable("footer-v1", entries, v1),
+                new SSTable("footer-v2", entries, v1.withFormatVersion(TableOptions.FORMAT_V2))
+        };
+
+        // открытая таблица не знает опций записи: формат и словарь она берёт из самого файла
+        for (SSTable table : written) {
+            final SSTable opened = SSTable.open(table.file());
+            final List<Entry> all = opened.getAllEntries();
+            assertEquals(entries.size(), all.size());
+            for (int i = 0; i < entries.size(); i++) {
+                assertArrayEquals(entries.get(i).value(), all.get(i).value());
+            }
+            assertEquals(table.search("doc0077".getBytes()).version(),
+                    opened.search("doc0077".getBytes()).version());
+            assertNull(opened.search("doc9999".getBytes()));
+        }
+        assertEquals(1_077, SSTable.open(written[1].file()).search("doc0077".getBytes()).version());
+        assertEquals(1_760_000_000_077L,
+                SSTable.open(written[1].file()).search("doc0077".getBytes()).expireAtMillis());
+    }
 }
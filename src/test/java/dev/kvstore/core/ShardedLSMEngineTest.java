@@ -0,0 +1,107 @@
+package dev.kvstore.core;
+
+import dev.kvstore.core.LSM.EngineOptions;
+import dev.kvstore.core.LSM.LSMEngine;
+import dev.kvstore.core.LSM.ShardedLSMEngine;
+import dev.kvstore.core.model.Entry;
+import dev.kvstore.core.model.ReadOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedLSMEngineTest {
+
+    @Test
+    void keysAreSpreadAcrossShardsAndSurviveRestart() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-sharded-");
+        final LSMEngine engine = new ShardedLSMEngine(dir.toString(), 4 << 20, 4, new EngineOptions());
+
+        for (int i = 0; i < 200; i++) {
+            engine.put(("k" + i).getBytes(), ("v" + i).getBytes());
+        }
+        final List<Entry> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Entry(("b" + i).getBytes(), ("bv" + i).getBytes(), false));
+        }
+        batch.add(new Entry("k0".getBytes(), null, true));
+        engine.writePerShard(batch, null, false);
+        engine.flush();
+        engine.put("k1".getBytes(), "fresh".getBytes());
+
+        for (int s = 0; s < 4; s++) {
+            try (var files = Files.list(dir.resolve("shard-" + s))) {
+                assertTrue(files.anyMatch(f -> f.getFileName().toString().endsWith(".sstable")));
+            }
+        }
+
+        final List<byte[]> keys = List.of("k199".getBytes(), "k0".getBytes(), "b7".getBytes(),
+                "k1".getBytes(), "absent".getBytes());
+        final List<Entry> found = engine.multiGet(keys);
+        assertEquals("v199", new String(found.get(0).value()));
+        assertNull(found.get(1));
+        assertEquals("bv7", new String(found.get(2).value()));
+        assertEquals("fresh", new String(found.get(3).value()));
+        assertNull(found.get(4));
+
+        final List<Entry> async = engine.multiGetAsync(keys, ReadOptions.DEFAULT).get();
+        assertEquals("v199", new String(async.get(0).value()));
+        assertNull(async.get(1));
+        assertEquals("fresh", new String(async.get(3).value()));
+        assertEquals("bv7", new String(engine.getAsync("b7".getBytes(), ReadOptions.DEFAULT).get().value()));
+
+        // SSTable при перезапуске не подхватываются, проверяем то, что осталось в WAL
+        final LSMEngine reopened = new ShardedLSMEngine(dir.toString(), 4 << 20, 4, new EngineOptions());
+        assertEquals("fresh", new String(reopened.get("k1".getBytes()).value()));
+    }
+
+    @Test
+    void shardCountCannotChangeForExistingDir() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-sharded-").toString();
+        new ShardedLSMEngine(dir, 1 << 20, 2, new EngineOptions());
+
+        assertThrows(IOException.class, () -> new ShardedLSMEngine(dir, 1 << 20, 3, new EngineOptions()));
+    }
+
+    @Test
+    void batchSpanningShardsIsAtomicOrReportsWhatWasApplied() throws Exception {
+        final var dir = Files.createTempDirectory("lsm-sharded-");
+        final LSMEngine engine = new ShardedLSMEngine(dir.toString(), 4 << 20, 4, new EngineOptions());
+        final List<Entry> batch = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            batch.add(new Entry(("b" + i).getBytes(), ("bv" + i).getBytes(), false));
+        }
+
+        // атомарный пакет на несколько шардов отклоняется целиком
+        assertThrows(KVException.class, () -> engine.write(batch, false));
+        for (Entry e : batch) {
+            assertNull(engine.get(e.key()));
+        }
+
+        // ломаем последний шард: его flush в удалённый каталог падает, и шард больше не принимает запись
+        try (var files = Files.walk(dir.resolve("shard-3"))) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+        for (Entry e : batch) {
+            engine.put(e.key(), "old".getBytes());
+        }
+        assertThrows(IOException.class, engine::flush);
+
+        final PartialWriteException partial = assertThrows(PartialWriteException.class,
+                () -> engine.writePerShard(batch, null, false));
+        final List<Integer> applied = partial.appliedPositions();
+        assertTrue(!applied.isEmpty() && applied.size() < batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final Entry found = engine.get(batch.get(i).key());
+            assertEquals(applied.contains(i) ? "bv" + i : "old", new String(found.value()));
+        }
+    }
+}